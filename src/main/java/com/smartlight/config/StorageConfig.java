@@ -0,0 +1,17 @@
+package com.smartlight.config;
+
+import com.smartlight.storage.LightDataPartitionManager;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Makes the JPA EntityManagerFactory wait for {@link LightDataPartitionManager}, so light_data
+ * is already partitioned when Hibernate's ddl-auto inspects the schema.
+ */
+@Configuration
+public class StorageConfig extends EntityManagerFactoryDependsOnPostProcessor {
+
+    public StorageConfig() {
+        super(LightDataPartitionManager.class);
+    }
+}
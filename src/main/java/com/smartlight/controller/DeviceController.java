@@ -1,7 +1,10 @@
 package com.smartlight.controller;
 
 import com.smartlight.dto.*;
+import com.smartlight.mqtt.CommandLatencyTracker;
 import com.smartlight.service.*;
+import com.smartlight.telemetry.DeviceTelemetry;
+import com.smartlight.telemetry.TelemetryRollupBackfill;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -9,14 +12,20 @@ import org.springframework.web.bind.annotation.*;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/web")
 @RequiredArgsConstructor
 @CrossOrigin(origins = "*")
 public class DeviceController {
+    private static final long COMMAND_ACK_WAIT_SECONDS = 5;
+
     private final DeviceService deviceService;
     private final MqttService mqttService;
+    private final CommandLatencyTracker commandLatencyTracker;
+    private final TelemetryRollupBackfill rollupBackfill;
 
     @GetMapping("/spaces/{spaceId}/devices")
     public ResponseEntity<List<DeviceDTO>> getDevicesBySpace(@PathVariable Long spaceId) {
@@ -60,6 +69,7 @@ public class DeviceController {
         return ResponseEntity.ok().build();
     }
 
+    // Pipeline internals (queue, writer, archive, ...) are at /actuator/telemetry
     @GetMapping("/mqtt/status")
     public ResponseEntity<Map<String, Object>> getMqttStatus() {
         Map<String, Object> status = new HashMap<>();
@@ -67,18 +77,54 @@ public class DeviceController {
         status.put("lastLightStatus", mqttService.getLastStatus());
         status.put("lastCurrent", mqttService.getLastCurrent());
         status.put("lastPower", mqttService.getLastPower());
+        status.put("pendingCommands", mqttService.getPendingCommandCount());
+        status.put("devices", mqttService.getAllTelemetry());
         return ResponseEntity.ok(status);
     }
 
+    // Rebuilds rollups for history older than them; progress is under rollupBackfill in /actuator/telemetry
+    @PostMapping("/telemetry/rollup/backfill")
+    public ResponseEntity<Map<String, Object>> backfillRollups() {
+        rollupBackfill.start();
+        return ResponseEntity.accepted().body(rollupBackfill.getMetrics());
+    }
+
+    @GetMapping("/mqtt/latency")
+    public ResponseEntity<Map<String, Object>> getCommandLatency() {
+        return ResponseEntity.ok(commandLatencyTracker.getSnapshot());
+    }
+
+    @GetMapping("/mqtt/status/device")
+    public ResponseEntity<?> getDeviceMqttStatus(@RequestParam String key) {
+        DeviceTelemetry telemetry = mqttService.getTelemetry(key);
+        if (telemetry == null) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.ok(telemetry);
+    }
+
     @PostMapping("/mqtt/control")
-    public ResponseEntity<Map<String, String>> sendMqttCommand(@RequestBody Map<String, String> body) {
+    public CompletableFuture<ResponseEntity<Map<String, String>>> sendMqttCommand(@RequestBody Map<String, String> body) {
         String command = body.getOrDefault("command", "0");
         String topic = body.getOrDefault("topic", "/light/control");
-        mqttService.publish(topic, command);
-        Map<String, String> response = new HashMap<>();
-        response.put("status", "sent");
-        response.put("topic", topic);
-        response.put("command", command);
-        return ResponseEntity.ok(response);
+        return mqttService.publishAsync(topic, command)
+                .completeOnTimeout(null, COMMAND_ACK_WAIT_SECONDS, TimeUnit.SECONDS)
+                .handle((token, error) -> {
+                    Map<String, String> response = new HashMap<>();
+                    response.put("topic", topic);
+                    response.put("command", command);
+                    if (error != null) {
+                        response.put("status", "failed");
+                        response.put("error", error.getMessage());
+                        return ResponseEntity.status(503).body(response);
+                    }
+                    if (token == null) {
+                        // Still journaled, replayed once the broker is reachable
+                        response.put("status", "queued");
+                        return ResponseEntity.accepted().body(response);
+                    }
+                    response.put("status", "sent");
+                    return ResponseEntity.ok(response);
+                });
     }
 }
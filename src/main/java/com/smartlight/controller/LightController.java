@@ -1,30 +1,54 @@
 package com.smartlight.controller;
 
+import com.smartlight.dto.HistoryPage;
+import com.smartlight.dto.LightReadingDTO;
+import com.smartlight.dto.LightStatsDTO;
 import com.smartlight.entity.LightData;
 import com.smartlight.repository.LightDataRepository;
+import com.smartlight.service.LightHistoryService;
+import com.smartlight.service.LightStatisticsService;
 import com.smartlight.service.MqttService;
+import com.smartlight.telemetry.DeviceTelemetry;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/light")
 @RequiredArgsConstructor
 @CrossOrigin(origins = "*")
 public class LightController {
+    private static final long COMMAND_ACK_WAIT_SECONDS = 5;
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final LightDataRepository repository;
     private final MqttService mqttService;
+    private final LightStatisticsService lightStatisticsService;
+    private final LightHistoryService lightHistoryService;
 
     @PostMapping("/control")
-    public ResponseEntity<String> control(@RequestBody Map<String, String> request) {
+    public CompletableFuture<ResponseEntity<String>> control(@RequestBody Map<String, String> request) {
         String command = request.get("command"); // "1" or "0"
-        mqttService.publishControl(command);
-        return ResponseEntity.ok("Command sent: " + command);
+        // Async MVC response: the servlet thread is released while the broker acknowledges.
+        // If the broker is unreachable the command stays journaled and is replayed later.
+        return mqttService.publishControlAsync(command)
+                .completeOnTimeout(null, COMMAND_ACK_WAIT_SECONDS, TimeUnit.SECONDS)
+                .handle((token, error) -> {
+                    if (error != null) {
+                        return ResponseEntity.status(503).body("Command not sent: " + error.getMessage());
+                    }
+                    if (token == null) {
+                        return ResponseEntity.accepted().body("Command queued: " + command);
+                    }
+                    return ResponseEntity.ok("Command sent: " + command);
+                });
     }
 
     @PostMapping("/reset-wifi")
@@ -44,49 +68,45 @@ public class LightController {
     }
 
     @GetMapping("/history")
-    public ResponseEntity<List<LightData>> getHistory(
+    public ResponseEntity<?> getHistory(
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime start,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime end) {
-        
-        if (start != null && end != null) {
-            return ResponseEntity.ok(repository.findByTimestampBetween(start, end));
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime end,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            // Newest first; pass the X-Next-Cursor header back as ?cursor= for the next page
+            HistoryPage page = lightHistoryService.findPage(start, end, cursor, limit);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.getNextCursor() != null) {
+                response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+            }
+            return response.body(page.getItems());
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         }
-        return ResponseEntity.ok(repository.findAll());
     }
 
     @GetMapping("/latest")
-    public ResponseEntity<LightData> getLatest() {
-        List<LightData> data = repository.findLatest();
-        if (data.isEmpty()) {
-            return ResponseEntity.noContent().build();
+    public ResponseEntity<LightReadingDTO> getLatest(@RequestParam(required = false) String device) {
+        // Served from the in-memory telemetry state; the database is only a fallback after restart
+        DeviceTelemetry telemetry = device != null
+                ? mqttService.getTelemetry(device)
+                : mqttService.getMostRecentTelemetry();
+        if (telemetry != null) {
+            return ResponseEntity.ok(LightReadingDTO.from(telemetry));
         }
-        return ResponseEntity.ok(data.get(0));
+        Optional<LightData> stored = device != null
+                ? repository.findFirstByDeviceKeyOrderByTimestampDesc(device)
+                : repository.findFirstByOrderByTimestampDesc();
+        return stored.map(data -> ResponseEntity.ok(LightReadingDTO.from(data)))
+                .orElse(ResponseEntity.noContent().build());
     }
 
     @GetMapping("/stats")
-    public ResponseEntity<Map<String, Object>> getStats() {
-        List<LightData> allData = repository.findAll();
-        
-        double avgCurrent = allData.stream()
-                .mapToDouble(LightData::getCurrent)
-                .average()
-                .orElse(0.0);
-        
-        double avgPower = allData.stream()
-                .mapToDouble(LightData::getPower)
-                .average()
-                .orElse(0.0);
-        
-        long onCount = allData.stream()
-                .filter(d -> "on".equals(d.getStatus()))
-                .count();
-        
-        return ResponseEntity.ok(Map.of(
-            "totalRecords", allData.size(),
-            "avgCurrent", avgCurrent,
-            "avgPower", avgPower,
-            "onCount", onCount,
-            "offCount", allData.size() - onCount
-        ));
+    public ResponseEntity<LightStatsDTO> getStats(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime start,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime end,
+            @RequestParam(required = false) String device) {
+        return ResponseEntity.ok(lightStatisticsService.summarize(start, end, device));
     }
 }
@@ -1,15 +1,33 @@
 package com.smartlight.controller;
 
+import com.smartlight.config.AsyncRequestConfig;
+import com.smartlight.dto.HistoryPage;
+import com.smartlight.dto.RollupPoint;
 import com.smartlight.entity.LightData;
 import com.smartlight.repository.LightDataRepository;
+import com.smartlight.service.LightDataExportService;
+import com.smartlight.service.LightHistoryService;
+import com.smartlight.service.LightStatisticsService;
+import com.smartlight.telemetry.Lttb;
+import com.smartlight.telemetry.RecentReadings;
+import com.smartlight.telemetry.RecentReadingsStore;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/statistics")
@@ -18,51 +36,74 @@ import java.util.Map;
 public class LightDataController {
 
     private final LightDataRepository lightDataRepository;
+    private final LightStatisticsService lightStatisticsService;
+    private final LightHistoryService lightHistoryService;
+    private final LightDataExportService lightDataExportService;
+    private final RecentReadingsStore recentReadingsStore;
 
     @GetMapping("/power")
     public ResponseEntity<Map<String, Object>> getPowerStatistics(
-            @RequestParam(defaultValue = "week") String period) {
+            @RequestParam(defaultValue = "week") String period,
+            @RequestParam(required = false) Integer points) {
+        // LTTB always keeps the first and last point and needs one bucket in between
+        if (points != null && points < 3) {
+            return ResponseEntity.badRequest().body(Map.of("error", "points must be at least 3"));
+        }
         
         LocalDateTime now = LocalDateTime.now();
-        LocalDateTime startDate;
+        LocalDateTime startDate = periodStart(period, now);
         
-        switch (period.toLowerCase()) {
-            case "today":
-                startDate = now.toLocalDate().atStartOfDay();
-                break;
-            case "week":
-                startDate = now.minusDays(7);
-                break;
-            case "month":
-                startDate = now.minusMonths(1);
-                break;
-            case "quarter":
-                startDate = now.minusMonths(3);
-                break;
-            case "year":
-                startDate = now.minusYears(1);
-                break;
-            default:
-                startDate = now.minusDays(7);
+        // Served from light_data_rollup so the cost does not grow with the amount of raw history
+        List<RollupPoint> rollups = lightStatisticsService.findCoveringRollups(startDate, now);
+        
+        long samples = 0;
+        double totalPower = 0;
+        double onSeconds = 0;
+        for (RollupPoint point : rollups) {
+            samples += point.getSampleCount();
+            totalPower += point.getPowerSum();
+            onSeconds += point.getOnSeconds();
         }
         
-        List<LightData> data = lightDataRepository.findByTimestampBetween(startDate, now);
+        // points=N: at most N chart points picked by LTTB on average power; totals use every bucket
+        List<Map<String, Object>> data;
+        if (points != null && rollups.size() > points) {
+            long[] x = new long[rollups.size()];
+            double[] y = new double[rollups.size()];
+            for (int i = 0; i < rollups.size(); i++) {
+                RollupPoint point = rollups.get(i);
+                x[i] = RecentReadingsStore.toMillis(point.getBucketStart());
+                y[i] = point.getSampleCount() == 0 ? 0 : point.getPowerSum() / point.getSampleCount();
+            }
+            int[] selected = Lttb.select(x, y, points);
+            data = new ArrayList<>(selected.length);
+            for (int index : selected) {
+                data.add(toDataPoint(rollups.get(index)));
+            }
+        } else {
+            data = new ArrayList<>(rollups.size());
+            for (RollupPoint point : rollups) {
+                data.add(toDataPoint(point));
+            }
+        }
         
-        // Calculate total power consumption
-        double totalPower = data.stream()
-                .mapToDouble(LightData::getPower)
-                .sum();
+        // Integrated energy; totalPower stays the plain sum of samples for existing clients (the
+        // rollups count deadband-suppressed readings too, so it matches the pre-deadband value)
+        double energyWh = lightStatisticsService.energyWh(startDate, now);
         
         // Calculate average power
-        double avgPower = data.isEmpty() ? 0 : totalPower / data.size();
+        double avgPower = samples == 0 ? 0 : totalPower / samples;
         
         // Get latest reading
-        LightData latest = data.isEmpty() ? null : data.get(data.size() - 1);
+        LightData latest = lightDataRepository.findFirstByOrderByTimestampDesc().orElse(null);
         
         Map<String, Object> response = new HashMap<>();
         response.put("totalPower", Math.round(totalPower * 100.0) / 100.0);
         response.put("averagePower", Math.round(avgPower * 100.0) / 100.0);
-        response.put("dataPoints", data.size());
+        response.put("dataPoints", samples);
+        response.put("energyWh", Math.round(energyWh * 100.0) / 100.0);
+        response.put("energyKWh", Math.round(energyWh) / 1000.0);
+        response.put("onHours", Math.round(onSeconds / 36.0) / 100.0);
         response.put("period", period);
         response.put("latestStatus", latest != null ? latest.getStatus() : "unknown");
         response.put("latestCurrent", latest != null ? latest.getCurrent() : 0);
@@ -72,22 +113,166 @@ public class LightDataController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * p50/p95/p99 of power and current over the period, optionally for one device, merged from
+     * the per-bucket sketches in light_data_sketch.
+     */
+    @GetMapping("/percentiles")
+    public ResponseEntity<Map<String, Object>> getPercentiles(
+            @RequestParam(defaultValue = "week") String period,
+            @RequestParam(required = false) String device) {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Object> response = new HashMap<>();
+        response.put("period", period);
+        response.put("device", device);
+        response.put("percentiles", lightStatisticsService.percentiles(periodStart(period, now), now, device));
+        return ResponseEntity.ok(response);
+    }
+
+    private static LocalDateTime periodStart(String period, LocalDateTime now) {
+        switch (period.toLowerCase()) {
+            case "today":
+                return now.toLocalDate().atStartOfDay();
+            case "month":
+                return now.minusMonths(1);
+            case "quarter":
+                return now.minusMonths(3);
+            case "year":
+                return now.minusYears(1);
+            case "week":
+            default:
+                return now.minusDays(7);
+        }
+    }
+
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime start,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime end,
+            @RequestParam(required = false) String device,
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            HttpServletRequest request) {
+        LightDataExportService.Format exportFormat;
+        try {
+            exportFormat = LightDataExportService.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return exportError("format must be ndjson or csv");
+        }
+        if (!start.isBefore(end)) {
+            return exportError("start must be before end");
+        }
+
+        // Rows are written while they are read; nothing is collected in memory
+        AsyncRequestConfig.setTimeout(request, lightDataExportService.getTimeoutMs());
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                GZIPOutputStream compressed = new GZIPOutputStream(out, 64 * 1024);
+                lightDataExportService.export(start, end, device, exportFormat, compressed);
+                compressed.finish();
+            } else {
+                lightDataExportService.export(start, end, device, exportFormat, out);
+            }
+        };
+        String extension = exportFormat == LightDataExportService.Format.CSV ? ".csv" : ".ndjson";
+        String filename = "light-data-" + start.toLocalDate() + "_" + end.toLocalDate() + extension + (gzip ? ".gz" : "");
+        MediaType contentType = gzip
+                ? MediaType.parseMediaType("application/gzip")
+                : exportFormat == LightDataExportService.Format.CSV
+                        ? MediaType.parseMediaType("text/csv")
+                        : MediaType.parseMediaType("application/x-ndjson");
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .body(body);
+    }
+
+    // Spring only streams a ResponseEntity declared with a StreamingResponseBody body, errors included
+    private static ResponseEntity<StreamingResponseBody> exportError(String message) {
+        byte[] json = ("{\"error\":\"" + message + "\"}").getBytes(StandardCharsets.UTF_8);
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> out.write(json));
+    }
+
     @GetMapping("/latest")
     public ResponseEntity<LightData> getLatestData() {
-        List<LightData> data = lightDataRepository.findLatest();
-        if (data.isEmpty()) {
+        // Newest reading held in memory; the database is only a fallback right after startup
+        String deviceKey = recentReadingsStore.getMostRecentDevice();
+        RecentReadings readings = deviceKey != null ? recentReadingsStore.get(deviceKey) : null;
+        if (readings != null) {
+            RecentReadings.Series latest = readings.latest();
+            if (latest.size() > 0) {
+                int last = latest.size() - 1;
+                LightData data = new LightData();
+                data.setDeviceKey(deviceKey);
+                data.setStatus(latest.on[last] ? "on" : "off");
+                data.setCurrent(latest.current[last]);
+                data.setPower(latest.power[last]);
+                data.setTimestamp(RecentReadingsStore.toLocalDateTime(latest.timestamps[last]));
+                return ResponseEntity.ok(data);
+            }
+        }
+        return lightDataRepository.findFirstByOrderByTimestampDesc()
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.noContent().build());
+    }
+
+    @GetMapping("/sparkline")
+    public ResponseEntity<Map<String, Object>> getSparkline(
+            @RequestParam(required = false) String device,
+            @RequestParam(defaultValue = "15") int minutes) {
+        String deviceKey = device != null ? device : recentReadingsStore.getMostRecentDevice();
+        RecentReadings readings = deviceKey != null ? recentReadingsStore.get(deviceKey) : null;
+        if (readings == null) {
             return ResponseEntity.noContent().build();
         }
-        return ResponseEntity.ok(data.get(0));
+        RecentReadings.Series series = readings.since(System.currentTimeMillis() - minutes * 60_000L);
+        List<LocalDateTime> timestamps = new ArrayList<>(series.size());
+        List<String> status = new ArrayList<>(series.size());
+        for (int i = 0; i < series.size(); i++) {
+            timestamps.add(RecentReadingsStore.toLocalDateTime(series.timestamps[i]));
+            status.add(series.on[i] ? "on" : "off");
+        }
+        // Columnar arrays, oldest first, ready for a chart
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("device", deviceKey);
+        response.put("minutes", minutes);
+        response.put("timestamps", timestamps);
+        response.put("status", status);
+        response.put("current", series.current);
+        response.put("power", series.power);
+        return ResponseEntity.ok(response);
     }
 
     @GetMapping("/history")
-    public ResponseEntity<List<LightData>> getHistory(
+    public ResponseEntity<?> getHistory(
+            @RequestParam(required = false) String cursor,
             @RequestParam(defaultValue = "100") int limit) {
-        List<LightData> data = lightDataRepository.findLatest();
-        if (data.size() > limit) {
-            data = data.subList(0, limit);
+        try {
+            HistoryPage page = lightHistoryService.findPage(null, null, cursor, limit);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.getNextCursor() != null) {
+                response.header(LightController.NEXT_CURSOR_HEADER, page.getNextCursor());
+            }
+            return response.body(page.getItems());
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         }
-        return ResponseEntity.ok(data);
+    }
+
+    private Map<String, Object> toDataPoint(RollupPoint point) {
+        long count = point.getSampleCount();
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("timestamp", point.getBucketStart());
+        item.put("granularity", point.getGranularity());
+        item.put("status", point.getOnSeconds() > 0 ? "on" : "off");
+        item.put("current", count == 0 ? 0 : point.getCurrentSum() / count);
+        item.put("power", count == 0 ? 0 : point.getPowerSum() / count);
+        item.put("minPower", point.getPowerMin());
+        item.put("maxPower", point.getPowerMax());
+        item.put("samples", count);
+        item.put("onSeconds", point.getOnSeconds());
+        return item;
     }
 }
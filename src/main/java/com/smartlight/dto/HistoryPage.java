@@ -0,0 +1,13 @@
+package com.smartlight.dto;
+
+import com.smartlight.entity.LightData;
+import lombok.*;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryPage {
+    private List<LightData> items;
+    private String nextCursor; // null on the last page
+}
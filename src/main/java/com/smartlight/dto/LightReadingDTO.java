@@ -0,0 +1,30 @@
+package com.smartlight.dto;
+
+import com.smartlight.entity.LightData;
+import com.smartlight.telemetry.DeviceTelemetry;
+import lombok.*;
+import java.time.LocalDateTime;
+
+// Same fields as LightData; id is null when the reading comes from the in-memory state
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class LightReadingDTO {
+    private Long id;
+    private String deviceKey;
+    private String status;
+    private Double current;
+    private Double power;
+    private LocalDateTime timestamp;
+
+    public static LightReadingDTO from(LightData data) {
+        return new LightReadingDTO(data.getId(), data.getDeviceKey(), data.getStatus(),
+                data.getCurrent(), data.getPower(), data.getTimestamp());
+    }
+
+    public static LightReadingDTO from(DeviceTelemetry telemetry) {
+        return new LightReadingDTO(null, telemetry.deviceKey(), telemetry.status(),
+                telemetry.current(), telemetry.power(), telemetry.timestamp());
+    }
+}
@@ -0,0 +1,15 @@
+package com.smartlight.dto;
+
+import lombok.*;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class LightStatsDTO {
+    private Long totalRecords;
+    private Double avgCurrent;
+    private Double avgPower;
+    private Long onCount;
+    private Long offCount;
+}
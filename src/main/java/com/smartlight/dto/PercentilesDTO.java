@@ -0,0 +1,17 @@
+package com.smartlight.dto;
+
+import lombok.*;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PercentilesDTO {
+    private Long sampleCount;
+    private Double powerP50;
+    private Double powerP95;
+    private Double powerP99;
+    private Double currentP50;
+    private Double currentP95;
+    private Double currentP99;
+}
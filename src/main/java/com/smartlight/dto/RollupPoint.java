@@ -0,0 +1,19 @@
+package com.smartlight.dto;
+
+import com.smartlight.entity.LightDataRollup;
+import lombok.*;
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RollupPoint {
+    private LocalDateTime bucketStart;
+    private LightDataRollup.Granularity granularity;
+    private Long sampleCount;
+    private Double powerSum;
+    private Double currentSum;
+    private Double powerMin;
+    private Double powerMax;
+    private Double onSeconds;
+}
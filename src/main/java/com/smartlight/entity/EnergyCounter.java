@@ -0,0 +1,35 @@
+package com.smartlight.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * Checkpoint of a device's running energy counter. The counter only grows, so the energy used
+ * in any period is the difference between the checkpoints at its two ends. node_id is the backend
+ * process that wrote the row; readers take each node's newest row and the largest across nodes.
+ */
+@Entity
+@Table(name = "energy_counter", indexes = {
+    @Index(name = "idx_energy_counter_device_key_time", columnList = "device_key, checkpoint_time"),
+    @Index(name = "idx_energy_counter_device_node_time", columnList = "device_key, node_id, checkpoint_time")
+})
+@Data
+public class EnergyCounter {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "device_key", nullable = false)
+    private String deviceKey;
+
+    // Rows written before node ids existed all belong to one implicit node
+    @Column(name = "node_id", nullable = false, length = 64, columnDefinition = "varchar(64) default ''")
+    private String nodeId;
+
+    @Column(name = "checkpoint_time", nullable = false)
+    private LocalDateTime checkpointTime;
+
+    @Column(name = "energy_wh", nullable = false)
+    private Double energyWh; // Watt-hour, cumulative since the device was first seen
+}
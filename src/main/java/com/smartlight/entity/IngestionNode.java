@@ -0,0 +1,21 @@
+package com.smartlight.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * A backend process taking part in telemetry ingestion. heartbeat_at is set from the database
+ * clock on every heartbeat, so liveness does not depend on the replicas' clocks agreeing.
+ */
+@Entity
+@Table(name = "ingestion_node")
+@Data
+public class IngestionNode {
+    @Id
+    @Column(name = "node_id", length = 64)
+    private String nodeId;
+
+    @Column(name = "heartbeat_at", nullable = false)
+    private LocalDateTime heartbeatAt;
+}
@@ -5,13 +5,23 @@ import lombok.Data;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "light_data")
+// Range-partitioned on timestamp by LightDataPartitionManager; the real primary key is (id, timestamp)
+@Table(name = "light_data", indexes = {
+    @Index(name = "idx_light_data_timestamp_id", columnList = "timestamp, id"),
+    @Index(name = "idx_light_data_device_key_timestamp", columnList = "device_key, timestamp")
+})
 @Data
 public class LightData {
     @Id
+    // Kept as IDENTITY rather than a pooled sequence: TelemetryWriter writes rows with COPY or
+    // JDBC batches outside Hibernate and leaves the id to the light_data_id_seq default, so
+    // IDENTITY does not disable its batching, and existing tables need no id migration
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    @Column(name = "device_key")
+    private String deviceKey; // topic prefix of the reporting device, e.g. "/light"
+
     @Column(nullable = false)
     private String status; // "on" or "off"
 
@@ -26,6 +36,8 @@ public class LightData {
 
     @PrePersist
     protected void onCreate() {
-        timestamp = LocalDateTime.now();
+        if (timestamp == null) {
+            timestamp = LocalDateTime.now();
+        }
     }
 }
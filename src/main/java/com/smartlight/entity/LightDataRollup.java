@@ -0,0 +1,75 @@
+package com.smartlight.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Pre-aggregated light_data for one device over one minute, hour or day bucket.
+ * Rows are upserted by the telemetry writer in the same transaction as the raw readings.
+ */
+@Entity
+@Table(name = "light_data_rollup",
+    uniqueConstraints = @UniqueConstraint(name = "uk_light_data_rollup_bucket",
+        columnNames = {"granularity", "device_key", "bucket_start"}),
+    indexes = @Index(name = "idx_light_data_rollup_granularity_bucket", columnList = "granularity, bucket_start"))
+@Data
+public class LightDataRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 10)
+    private Granularity granularity;
+
+    @Column(name = "device_key", nullable = false)
+    private String deviceKey;
+
+    @Column(name = "bucket_start", nullable = false)
+    private LocalDateTime bucketStart;
+
+    @Column(name = "sample_count", nullable = false)
+    private Long sampleCount;
+
+    @Column(name = "power_sum", nullable = false)
+    private Double powerSum; // Watt, summed over samples
+
+    @Column(name = "power_min")
+    private Double powerMin; // null while the bucket only holds on-time
+
+    @Column(name = "power_max")
+    private Double powerMax;
+
+    @Column(name = "current_sum", nullable = false)
+    private Double currentSum; // Ampere, summed over samples
+
+    @Column(name = "on_seconds", nullable = false)
+    private Double onSeconds; // thời gian đèn bật trong bucket
+
+    public enum Granularity {
+        MINUTE(ChronoUnit.MINUTES),
+        HOUR(ChronoUnit.HOURS),
+        DAY(ChronoUnit.DAYS);
+
+        private final ChronoUnit unit;
+
+        Granularity(ChronoUnit unit) {
+            this.unit = unit;
+        }
+
+        public LocalDateTime floor(LocalDateTime time) {
+            return time.truncatedTo(unit);
+        }
+
+        public LocalDateTime ceil(LocalDateTime time) {
+            LocalDateTime floor = floor(time);
+            return floor.equals(time) ? floor : floor.plus(1, unit);
+        }
+
+        public LocalDateTime next(LocalDateTime bucketStart) {
+            return bucketStart.plus(1, unit);
+        }
+    }
+}
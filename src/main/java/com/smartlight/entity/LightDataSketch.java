@@ -0,0 +1,41 @@
+package com.smartlight.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * Serialized DDSketches of power and current for one device over one rollup bucket, as seen by
+ * one backend process (node_id). Each process rewrites only its own rows; readers merge all of
+ * them, so replicas and restarts never overwrite each other's samples.
+ */
+@Entity
+@Table(name = "light_data_sketch",
+    uniqueConstraints = @UniqueConstraint(name = "uk_light_data_sketch_bucket",
+        columnNames = {"granularity", "device_key", "bucket_start", "node_id"}),
+    indexes = @Index(name = "idx_light_data_sketch_granularity_bucket", columnList = "granularity, bucket_start"))
+@Data
+public class LightDataSketch {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 10)
+    private LightDataRollup.Granularity granularity;
+
+    @Column(name = "device_key", nullable = false)
+    private String deviceKey;
+
+    @Column(name = "bucket_start", nullable = false)
+    private LocalDateTime bucketStart;
+
+    @Column(name = "node_id", nullable = false, length = 64)
+    private String nodeId;
+
+    @Column(name = "power_sketch", nullable = false)
+    private byte[] powerSketch;
+
+    @Column(name = "current_sketch", nullable = false)
+    private byte[] currentSketch;
+}
@@ -0,0 +1,278 @@
+package com.smartlight.mqtt;
+
+import com.smartlight.storage.AppendOnlyLog;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable outbound command queue. Every command is appended (and fsynced) before it is published
+ * and acknowledged once the broker has it, so commands issued during a broker outage or before a
+ * restart are replayed in order on the next connect. Commands older than their TTL are discarded
+ * instead of replayed: a stale "turn on" is worse than none.
+ * <p>
+ * No caller waits on the disk: appends are fsynced together by the command-journal-sync thread
+ * (group commit), which then reports the new durable sequence so the publisher can send them.
+ * Acks are appended without a sync, and the emptied journal is truncated later on that thread.
+ */
+@Component
+@Slf4j
+public class CommandJournal {
+
+    private static final byte RECORD_COMMAND = 1;
+    private static final byte RECORD_ACK = 2;
+    private static final long TRUNCATE_DELAY_MS = 1000;
+
+    public record PendingCommand(long seq, String topic, String payload, long createdAt, long expiresAt) {
+        public boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long ttlMs;
+
+    private final ConcurrentSkipListMap<Long, PendingCommand> pending = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private AppendOnlyLog journal;
+
+    private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "command-journal-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean syncRequested = new AtomicBoolean();
+    private final AtomicBoolean truncateRequested = new AtomicBoolean();
+    // Highest seq written to the journal, and highest one known to be on disk
+    private volatile long appendedSeq;
+    private volatile long durableSeq;
+    private volatile Runnable durableListener = () -> { };
+
+    public CommandJournal(@Value("${mqtt.journal.enabled:true}") boolean enabled,
+                          @Value("${mqtt.journal.dir:./data/command-journal}") String directory,
+                          @Value("${mqtt.journal.command-ttl-seconds:300}") long ttlSeconds) {
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.ttlMs = ttlSeconds * 1000;
+    }
+
+    @PostConstruct
+    public void open() {
+        if (!enabled) {
+            log.info("MQTT command journal disabled, pending commands are kept in memory only");
+            return;
+        }
+        try {
+            journal = new AppendOnlyLog(directory.resolve("commands.log"));
+            journal.replay(this::load);
+            // Compact: keep only unacknowledged commands
+            List<byte[]> live = new ArrayList<>();
+            for (PendingCommand command : pending.values()) {
+                live.add(encodeCommand(command));
+            }
+            journal.rewrite(live);
+            appendedSeq = sequence.get();
+            durableSeq = sequence.get();
+            log.info("MQTT command journal opened at {}, {} pending command(s) to replay", journal.getPath(), pending.size());
+        } catch (IOException e) {
+            log.error("Could not open MQTT command journal in {}: {}", directory, e.getMessage());
+            journal = null;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        syncer.shutdown();
+        try {
+            syncer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (journal != null) {
+            try {
+                journal.force();
+                journal.close();
+            } catch (IOException e) {
+                log.warn("Error closing MQTT command journal: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Called on the sync thread whenever more commands have become durable.
+     */
+    public void setDurableListener(Runnable listener) {
+        this.durableListener = listener;
+    }
+
+    /**
+     * Journals the command without waiting for the disk; it may be published once
+     * {@link #isDurable(long)} says so.
+     */
+    public PendingCommand append(String topic, String payload) {
+        PendingCommand command;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            command = new PendingCommand(sequence.incrementAndGet(), topic, payload, now, now + ttlMs);
+            pending.put(command.seq(), command);
+            if (journal == null) {
+                durableSeq = command.seq();
+                return command;
+            }
+            try {
+                journal.append(encodeCommand(command));
+            } catch (IOException e) {
+                log.error("Failed to journal MQTT command {}: {}", command.seq(), e.getMessage());
+            }
+            appendedSeq = command.seq();
+        }
+        if (syncRequested.compareAndSet(false, true)) {
+            syncer.execute(this::sync);
+        }
+        return command;
+    }
+
+    public boolean isDurable(long seq) {
+        return seq <= durableSeq;
+    }
+
+    public synchronized void ack(long seq) {
+        if (pending.remove(seq) == null) {
+            return;
+        }
+        if (journal != null) {
+            try {
+                // Not forced: losing an ack only means an at-least-once replay after a crash
+                journal.append(encodeAck(seq));
+            } catch (IOException e) {
+                log.error("Failed to journal MQTT ack {}: {}", seq, e.getMessage());
+            }
+            if (pending.isEmpty() && truncateRequested.compareAndSet(false, true)) {
+                syncer.schedule(this::truncateIfEmpty, TRUNCATE_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // One fsync covers every command appended before it started
+    private void sync() {
+        syncRequested.set(false);
+        long upTo = appendedSeq;
+        try {
+            journal.force();
+        } catch (IOException e) {
+            log.error("Failed to sync MQTT command journal: {}", e.getMessage());
+        }
+        durableSeq = upTo;
+        durableListener.run();
+    }
+
+    private void truncateIfEmpty() {
+        truncateRequested.set(false);
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                return;
+            }
+            try {
+                journal.truncate();
+            } catch (IOException e) {
+                log.error("Failed to truncate MQTT command journal: {}", e.getMessage());
+                return;
+            }
+        }
+        try {
+            journal.force();
+        } catch (IOException e) {
+            log.error("Failed to sync MQTT command journal: {}", e.getMessage());
+        }
+    }
+
+    public void expire(PendingCommand command) {
+        expired.incrementAndGet();
+        log.warn("Discarding expired MQTT command {} to {}: {}", command.seq(), command.topic(), command.payload());
+        ack(command.seq());
+    }
+
+    /**
+     * Unacknowledged commands in publish order.
+     */
+    public Collection<PendingCommand> pending() {
+        return pending.values();
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    private void load(ByteBuffer record) {
+        byte type = record.get();
+        long seq = record.getLong();
+        if (type == RECORD_COMMAND) {
+            long createdAt = record.getLong();
+            long expiresAt = record.getLong();
+            String topic = readString(record);
+            String payload = readString(record);
+            pending.put(seq, new PendingCommand(seq, topic, payload, createdAt, expiresAt));
+        } else if (type == RECORD_ACK) {
+            pending.remove(seq);
+        }
+        if (seq > sequence.get()) {
+            sequence.set(seq);
+        }
+    }
+
+    private static byte[] encodeCommand(PendingCommand command) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_COMMAND);
+            out.writeLong(command.seq());
+            out.writeLong(command.createdAt());
+            out.writeLong(command.expiresAt());
+            writeString(out, command.topic());
+            writeString(out, command.payload());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] encodeAck(long seq) {
+        return ByteBuffer.allocate(9).put(RECORD_ACK).putLong(seq).array();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,223 @@
+package com.smartlight.mqtt;
+
+import com.smartlight.telemetry.TelemetryTopics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures command round-trip latency: from the moment an on/off command is issued until the
+ * device reports the commanded state on its status topic. The ESP32 firmware only accepts bare
+ * "1"/"0" payloads, so commands are correlated by their journal sequence number on our side and
+ * resolved by the device's next transition into the expected state (FIFO). Periodic statuses that
+ * repeat the current state resolve nothing. A transition arriving before the command was sent to
+ * the broker, or sooner than mqtt.command.min-round-trip-ms after it, was caused by something else,
+ * and the first status seen from a device may just repeat the state it was already in.
+ * A command for the state the device is already in (or will be in once the commands ahead of it
+ * are applied) produces no transition and counts as unmeasured; so does one met by such an early
+ * or first status. Commands that see no echo within mqtt.command.ack-timeout-ms count as
+ * unacknowledged. Latency is measured from when the command was issued.
+ */
+@Component
+@Slf4j
+public class CommandLatencyTracker {
+
+    private record PendingAck(long seq, String topic, String deviceKey, String expectedState, long issuedAtNanos) {
+    }
+
+    private static final class TopicStats {
+        final LatencyHistogram latencyMicros = new LatencyHistogram();
+        final AtomicLong unacknowledged = new AtomicLong();
+        final AtomicLong unmeasured = new AtomicLong();
+    }
+
+    private final long ackTimeoutMs;
+    private final long tickMs;
+    private final long minRoundTripNanos;
+    private final TimingWheel<PendingAck> wheel;
+    private final Map<String, ArrayDeque<PendingAck>> pendingByDevice = new HashMap<>();
+    private final Map<Long, TimingWheel<PendingAck>.Timeout> timeouts = new HashMap<>();
+    // Latest publish attempt of each pending command
+    private final Map<Long, Long> sentAtNanos = new HashMap<>();
+    // Last state reported by each device
+    private final Map<String, String> lastStates = new HashMap<>();
+    private final ConcurrentHashMap<String, TopicStats> stats = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "command-ack-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CommandLatencyTracker(@Value("${mqtt.command.ack-timeout-ms:10000}") long ackTimeoutMs,
+                                 @Value("${mqtt.command.timer-tick-ms:100}") long tickMs,
+                                 @Value("${mqtt.command.min-round-trip-ms:20}") long minRoundTripMs) {
+        this.ackTimeoutMs = ackTimeoutMs;
+        this.tickMs = tickMs;
+        this.minRoundTripNanos = TimeUnit.MILLISECONDS.toNanos(minRoundTripMs);
+        this.wheel = new TimingWheel<>(tickMs, 512, System.currentTimeMillis());
+    }
+
+    @PostConstruct
+    public void start() {
+        ticker.scheduleAtFixedRate(this::expire, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        ticker.shutdownNow();
+    }
+
+    /**
+     * Starts timing a command. Only on/off commands are tracked; others have no status echo.
+     */
+    public void track(long seq, String topic, String command) {
+        String expectedState = expectedState(command);
+        if (expectedState == null) {
+            return;
+        }
+        PendingAck pending = new PendingAck(seq, topic, TelemetryTopics.deviceKey(topic), expectedState, System.nanoTime());
+        synchronized (this) {
+            ArrayDeque<PendingAck> queue = pendingByDevice.computeIfAbsent(pending.deviceKey(), k -> new ArrayDeque<>());
+            String stateBefore = queue.isEmpty() ? lastStates.get(pending.deviceKey()) : queue.peekLast().expectedState();
+            if (expectedState.equals(stateBefore)) {
+                statsFor(topic).unmeasured.incrementAndGet();
+                log.debug("Command {} to {} does not change the state, latency not measured", seq, topic);
+                return;
+            }
+            queue.addLast(pending);
+            timeouts.put(seq, wheel.schedule(pending, ackTimeoutMs));
+        }
+    }
+
+    /**
+     * Marks a pending command as handed to the MQTT client; called again on every retry.
+     */
+    public void sent(long seq) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (timeouts.containsKey(seq)) {
+                sentAtNanos.put(seq, now);
+            }
+        }
+    }
+
+    /**
+     * On a transition of {@code deviceKey} into {@code state}, resolves the oldest pending command
+     * that expected it.
+     */
+    public void onStatus(String deviceKey, String state) {
+        long now = System.nanoTime();
+        PendingAck resolved = null;
+        String previous;
+        Long sentAt;
+        synchronized (this) {
+            previous = lastStates.put(deviceKey, state);
+            if (state.equals(previous)) {
+                return;
+            }
+            ArrayDeque<PendingAck> queue = pendingByDevice.get(deviceKey);
+            if (queue == null || queue.isEmpty()) {
+                return;
+            }
+            for (Iterator<PendingAck> it = queue.iterator(); it.hasNext(); ) {
+                PendingAck pending = it.next();
+                if (pending.expectedState().equals(state)) {
+                    it.remove();
+                    resolved = pending;
+                    break;
+                }
+            }
+            if (resolved == null) {
+                return;
+            }
+            TimingWheel<PendingAck>.Timeout timeout = timeouts.remove(resolved.seq());
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            sentAt = sentAtNanos.remove(resolved.seq());
+        }
+        if (previous == null || sentAt == null || now - sentAt < minRoundTripNanos) {
+            statsFor(resolved.topic()).unmeasured.incrementAndGet();
+            log.debug("Command {} on {} resolved by a status that may predate it, latency not measured",
+                    resolved.seq(), resolved.topic());
+            return;
+        }
+        long micros = (now - resolved.issuedAtNanos()) / 1000;
+        statsFor(resolved.topic()).latencyMicros.record(micros);
+        log.debug("Command {} on {} acknowledged after {} ms", resolved.seq(), resolved.topic(), micros / 1000.0);
+    }
+
+    private void expire() {
+        try {
+            synchronized (this) {
+                wheel.advance(System.currentTimeMillis(), pending -> {
+                    timeouts.remove(pending.seq());
+                    sentAtNanos.remove(pending.seq());
+                    ArrayDeque<PendingAck> queue = pendingByDevice.get(pending.deviceKey());
+                    if (queue != null) {
+                        queue.remove(pending);
+                    }
+                    statsFor(pending.topic()).unacknowledged.incrementAndGet();
+                    log.warn("Command {} to {} not acknowledged within {} ms", pending.seq(), pending.topic(), ackTimeoutMs);
+                });
+            }
+        } catch (Exception e) {
+            log.error("Command ack timer error: {}", e.getMessage());
+        }
+    }
+
+    private TopicStats statsFor(String topic) {
+        return stats.computeIfAbsent(topic, k -> new TopicStats());
+    }
+
+    public synchronized int getPendingCount() {
+        return timeouts.size();
+    }
+
+    /**
+     * Latency summary per command topic, in milliseconds.
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> topics = new TreeMap<>();
+        stats.forEach((topic, topicStats) -> {
+            LatencyHistogram histogram = topicStats.latencyMicros;
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("acknowledged", histogram.getCount());
+            summary.put("unacknowledged", topicStats.unacknowledged.get());
+            summary.put("unmeasured", topicStats.unmeasured.get());
+            summary.put("p50Ms", histogram.getValueAtPercentile(50) / 1000.0);
+            summary.put("p99Ms", histogram.getValueAtPercentile(99) / 1000.0);
+            summary.put("maxMs", histogram.getMax() / 1000.0);
+            topics.put(topic, summary);
+        });
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("pending", getPendingCount());
+        snapshot.put("ackTimeoutMs", ackTimeoutMs);
+        snapshot.put("topics", topics);
+        return snapshot;
+    }
+
+    private static String expectedState(String command) {
+        if (command.equals("1") || command.equalsIgnoreCase("on")) {
+            return "on";
+        }
+        if (command.equals("0") || command.equalsIgnoreCase("off")) {
+            return "off";
+        }
+        return null;
+    }
+}
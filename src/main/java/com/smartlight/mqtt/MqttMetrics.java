@@ -0,0 +1,78 @@
+package com.smartlight.mqtt;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer meters for the MQTT ingestion and publish paths, scraped at /actuator/prometheus.
+ * Received messages are tagged by the matched topic filter rather than the concrete topic, which
+ * keeps cardinality bounded however many devices report.
+ */
+@Component
+public class MqttMetrics {
+
+    private final MeterRegistry registry;
+    private final ConcurrentHashMap<String, Counter> receivedByFilter = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> parseFailuresByFormat = new ConcurrentHashMap<>();
+    private final Timer publishTimer;
+    private final Timer publishFailureTimer;
+    private final Counter reconnects;
+
+    public MqttMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.publishTimer = publishLatency("acked");
+        this.publishFailureTimer = publishLatency("expired");
+        this.reconnects = Counter.builder("mqtt.reconnects")
+                .description("Successful reconnects after a lost connection")
+                .register(registry);
+    }
+
+    // Prometheus needs every series of a meter to share one histogram layout, so both outcomes get it
+    private Timer publishLatency(String outcome) {
+        return Timer.builder("mqtt.publish.latency")
+                .description("Time from publish request to broker acknowledgement")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public void messageReceived(String filter) {
+        receivedByFilter.computeIfAbsent(filter, f -> Counter.builder("mqtt.messages.received")
+                .description("Inbound MQTT messages by matched topic filter")
+                .tag("filter", f)
+                .register(registry)).increment();
+    }
+
+    public void parseFailure(String format) {
+        parseFailuresByFormat.computeIfAbsent(format, f -> Counter.builder("mqtt.parse.failures")
+                .description("Inbound payloads that could not be decoded")
+                .tag("format", f)
+                .register(registry)).increment();
+    }
+
+    public void published(long issuedAtMillis) {
+        publishTimer.record(System.currentTimeMillis() - issuedAtMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void publishExpired(long issuedAtMillis) {
+        publishFailureTimer.record(System.currentTimeMillis() - issuedAtMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void reconnected() {
+        reconnects.increment();
+    }
+
+    public void gauge(String name, String description, Supplier<Number> value) {
+        Gauge.builder(name, value)
+                .description(description)
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.smartlight.mqtt;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel for many short timeouts: scheduling and cancelling are O(1), and each
+ * tick only inspects one slot. Timeouts longer than one revolution carry a remaining-rounds count.
+ * Not thread-safe on its own; callers synchronize.
+ */
+public class TimingWheel<T> {
+
+    public final class Timeout {
+        private final T item;
+        private long rounds;
+        private boolean cancelled;
+
+        private Timeout(T item, long rounds) {
+            this.item = item;
+            this.rounds = rounds;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long tickMs;
+    private final ArrayDeque<Timeout>[] slots;
+    private long currentTick;
+    private long lastAdvanceMs;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMs, int wheelSize, long nowMs) {
+        if (tickMs <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickMs and wheelSize must be positive");
+        }
+        this.tickMs = tickMs;
+        this.slots = new ArrayDeque[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+        this.lastAdvanceMs = nowMs;
+    }
+
+    public Timeout schedule(T item, long delayMs) {
+        long ticks = Math.max(1, (delayMs + tickMs - 1) / tickMs);
+        long targetTick = currentTick + ticks;
+        Timeout timeout = new Timeout(item, (ticks - 1) / slots.length);
+        slots[(int) (targetTick % slots.length)].add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Advances the wheel to {@code nowMs}, passing every expired, non-cancelled item to {@code onExpire}.
+     */
+    public void advance(long nowMs, Consumer<T> onExpire) {
+        while (nowMs - lastAdvanceMs >= tickMs) {
+            lastAdvanceMs += tickMs;
+            currentTick++;
+            Iterator<Timeout> slot = slots[(int) (currentTick % slots.length)].iterator();
+            while (slot.hasNext()) {
+                Timeout timeout = slot.next();
+                if (timeout.cancelled) {
+                    slot.remove();
+                } else if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                } else {
+                    slot.remove();
+                    onExpire.accept(timeout.item);
+                }
+            }
+        }
+    }
+}
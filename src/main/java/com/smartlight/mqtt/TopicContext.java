@@ -0,0 +1,13 @@
+package com.smartlight.mqtt;
+
+/**
+ * Parsed routing information for a topic, computed once per distinct topic and cached by
+ * {@link TopicRouter}.
+ *
+ * @param topic     the concrete topic the message arrived on
+ * @param deviceKey device the topic belongs to, see {@link com.smartlight.telemetry.TelemetryTopics}
+ * @param channel   last topic segment, e.g. "status"
+ * @param filter    the registered filter that matched
+ */
+public record TopicContext(String topic, String deviceKey, String channel, String filter) {
+}
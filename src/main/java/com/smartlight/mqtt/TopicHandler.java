@@ -0,0 +1,6 @@
+package com.smartlight.mqtt;
+
+@FunctionalInterface
+public interface TopicHandler {
+    void handle(TopicContext context, byte[] payload);
+}
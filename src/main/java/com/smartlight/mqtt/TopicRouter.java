@@ -0,0 +1,208 @@
+package com.smartlight.mqtt;
+
+import com.smartlight.telemetry.TelemetryTopics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dispatches inbound MQTT messages to handlers registered for topic filters, including the
+ * '+' (one level) and '#' (remaining levels) wildcards. Filters live in a trie walked in
+ * O(topic depth) without splitting the topic; the resolved route for each concrete topic is
+ * cached, so the steady-state path is a single map lookup with no allocation.
+ */
+@Component
+@Slf4j
+public class TopicRouter {
+
+    private static final int MAX_CACHED_TOPICS = 10_000;
+
+    private static final class Node {
+        final String segment;
+        final List<Node> children = new ArrayList<>();
+        Node singleLevel;
+        Node multiLevel;
+        final List<Registration> registrations = new ArrayList<>();
+
+        Node(String segment) {
+            this.segment = segment;
+        }
+    }
+
+    private record Registration(String filter, TopicHandler handler) {
+    }
+
+    private record Route(TopicContext[] contexts, TopicHandler[] handlers) {
+    }
+
+    private static final Route NO_ROUTE = new Route(new TopicContext[0], new TopicHandler[0]);
+
+    private final Node root = new Node("");
+    private final ConcurrentHashMap<String, Route> routeCache = new ConcurrentHashMap<>();
+
+    public synchronized void register(String filter, TopicHandler handler) {
+        validateFilter(filter);
+        Node node = root;
+        int start = 0;
+        while (true) {
+            int end = filter.indexOf('/', start);
+            if (end < 0) {
+                end = filter.length();
+            }
+            String segment = filter.substring(start, end);
+            node = child(node, segment);
+            if (end == filter.length()) {
+                break;
+            }
+            start = end + 1;
+        }
+        node.registrations.add(new Registration(filter, handler));
+        routeCache.clear();
+        log.info("Registered MQTT topic handler for {}", filter);
+    }
+
+    /**
+     * Routes a message to every handler whose filter matches {@code topic}.
+     *
+     * @return false if no handler matched
+     */
+    public boolean route(String topic, byte[] payload) {
+        Route route = routeCache.get(topic);
+        if (route == null) {
+            route = resolve(topic);
+            if (routeCache.size() < MAX_CACHED_TOPICS) {
+                routeCache.put(topic, route);
+            }
+        }
+        TopicHandler[] handlers = route.handlers();
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].handle(route.contexts()[i], payload);
+        }
+        return handlers.length > 0;
+    }
+
+    private synchronized Route resolve(String topic) {
+        List<Registration> matches = new ArrayList<>();
+        match(root, topic, 0, matches);
+        if (matches.isEmpty()) {
+            return NO_ROUTE;
+        }
+        String deviceKey = TelemetryTopics.deviceKey(topic);
+        String channel = topic.substring(topic.lastIndexOf('/') + 1);
+        TopicContext[] contexts = new TopicContext[matches.size()];
+        TopicHandler[] handlers = new TopicHandler[matches.size()];
+        for (int i = 0; i < matches.size(); i++) {
+            contexts[i] = new TopicContext(topic, deviceKey, channel, matches.get(i).filter());
+            handlers[i] = matches.get(i).handler();
+        }
+        return new Route(contexts, handlers);
+    }
+
+    // start: offset of the current segment in topic, or topic.length() + 1 once all segments are consumed
+    private void match(Node node, String topic, int start, List<Registration> matches) {
+        if (node.multiLevel != null && !(node == root && topic.startsWith("$"))) {
+            // '#' also matches the parent level itself ("a/#" matches "a")
+            matches.addAll(node.multiLevel.registrations);
+        }
+        if (start > topic.length()) {
+            matches.addAll(node.registrations);
+            return;
+        }
+        int end = topic.indexOf('/', start);
+        if (end < 0) {
+            end = topic.length();
+        }
+        int length = end - start;
+        for (Node child : node.children) {
+            if (child.segment.length() == length && topic.regionMatches(start, child.segment, 0, length)) {
+                match(child, topic, end + 1, matches);
+            }
+        }
+        if (node.singleLevel != null && !(node == root && topic.startsWith("$"))) {
+            match(node.singleLevel, topic, end + 1, matches);
+        }
+    }
+
+    /**
+     * Whether {@code topic} matches {@code filter} under MQTT wildcard rules. Also works for
+     * filter-vs-filter checks such as "is /light/status already covered by /light/#".
+     */
+    public static boolean matches(String filter, String topic) {
+        int f = 0;
+        int t = 0;
+        if (topic.startsWith("$") && (filter.startsWith("+") || filter.startsWith("#"))) {
+            return false;
+        }
+        while (true) {
+            int fEnd = filter.indexOf('/', f);
+            if (fEnd < 0) {
+                fEnd = filter.length();
+            }
+            if (fEnd - f == 1 && filter.charAt(f) == '#') {
+                return true;
+            }
+            int tEnd = topic.indexOf('/', t);
+            if (tEnd < 0) {
+                tEnd = topic.length();
+            }
+            boolean single = fEnd - f == 1 && filter.charAt(f) == '+';
+            if (!single && (fEnd - f != tEnd - t || !filter.regionMatches(f, topic, t, fEnd - f))) {
+                return false;
+            }
+            boolean filterDone = fEnd == filter.length();
+            boolean topicDone = tEnd == topic.length();
+            if (filterDone || topicDone) {
+                if (filterDone && topicDone) {
+                    return true;
+                }
+                // "a/#" matches "a"
+                return topicDone && filter.length() - fEnd == 2 && filter.endsWith("/#");
+            }
+            f = fEnd + 1;
+            t = tEnd + 1;
+        }
+    }
+
+    private static Node child(Node node, String segment) {
+        if (segment.equals("+")) {
+            if (node.singleLevel == null) {
+                node.singleLevel = new Node(segment);
+            }
+            return node.singleLevel;
+        }
+        if (segment.equals("#")) {
+            if (node.multiLevel == null) {
+                node.multiLevel = new Node(segment);
+            }
+            return node.multiLevel;
+        }
+        for (Node child : node.children) {
+            if (child.segment.equals(segment)) {
+                return child;
+            }
+        }
+        Node created = new Node(segment);
+        node.children.add(created);
+        return created;
+    }
+
+    private static void validateFilter(String filter) {
+        if (filter == null || filter.isEmpty()) {
+            throw new IllegalArgumentException("Topic filter must not be empty");
+        }
+        int hash = filter.indexOf('#');
+        if (hash >= 0 && (hash != filter.length() - 1 || (hash > 0 && filter.charAt(hash - 1) != '/'))) {
+            throw new IllegalArgumentException("'#' must be the last level of a topic filter: " + filter);
+        }
+        for (int i = filter.indexOf('+'); i >= 0; i = filter.indexOf('+', i + 1)) {
+            boolean alone = (i == 0 || filter.charAt(i - 1) == '/')
+                    && (i == filter.length() - 1 || filter.charAt(i + 1) == '/');
+            if (!alone) {
+                throw new IllegalArgumentException("'+' must occupy a whole topic level: " + filter);
+            }
+        }
+    }
+}
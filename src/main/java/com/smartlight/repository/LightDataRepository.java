@@ -1,16 +1,34 @@
 package com.smartlight.repository;
 
 import com.smartlight.entity.LightData;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface LightDataRepository extends JpaRepository<LightData, Long> {
     List<LightData> findByTimestampBetween(LocalDateTime start, LocalDateTime end);
     
-    @Query("SELECT l FROM LightData l ORDER BY l.timestamp DESC")
-    List<LightData> findLatest();
+    // Keyset pages, newest first, on idx_light_data_timestamp_id. Ordered on the partition key
+    // with a LIMIT, so PostgreSQL stops after the newest partitions that fill the page.
+    List<LightData> findByOrderByTimestampDescIdDesc(Pageable pageable);
+    
+    @Query("SELECT l FROM LightData l WHERE l.timestamp < :timestamp OR (l.timestamp = :timestamp AND l.id < :id) " +
+           "ORDER BY l.timestamp DESC, l.id DESC")
+    List<LightData> findPageBefore(LocalDateTime timestamp, Long id, Pageable pageable);
+    
+    List<LightData> findByTimestampBetweenOrderByTimestampDescIdDesc(LocalDateTime start, LocalDateTime end, Pageable pageable);
+    
+    @Query("SELECT l FROM LightData l WHERE l.timestamp >= :start AND l.timestamp <= :end " +
+           "AND (l.timestamp < :timestamp OR (l.timestamp = :timestamp AND l.id < :id)) " +
+           "ORDER BY l.timestamp DESC, l.id DESC")
+    List<LightData> findPageBetweenBefore(LocalDateTime start, LocalDateTime end, LocalDateTime timestamp, Long id, Pageable pageable);
+    
+    Optional<LightData> findFirstByOrderByTimestampDesc();
+    
+    Optional<LightData> findFirstByDeviceKeyOrderByTimestampDesc(String deviceKey);
 }
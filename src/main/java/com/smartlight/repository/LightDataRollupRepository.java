@@ -0,0 +1,21 @@
+package com.smartlight.repository;
+
+import com.smartlight.dto.RollupPoint;
+import com.smartlight.entity.LightDataRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface LightDataRollupRepository extends JpaRepository<LightDataRollup, Long> {
+
+    // Buckets in [from, to), summed across devices
+    @Query("SELECT new com.smartlight.dto.RollupPoint(r.bucketStart, r.granularity, SUM(r.sampleCount), " +
+           "SUM(r.powerSum), SUM(r.currentSum), MIN(r.powerMin), MAX(r.powerMax), SUM(r.onSeconds)) " +
+           "FROM LightDataRollup r " +
+           "WHERE r.granularity = :granularity AND r.bucketStart >= :from AND r.bucketStart < :to " +
+           "GROUP BY r.granularity, r.bucketStart ORDER BY r.bucketStart")
+    List<RollupPoint> findSeries(LightDataRollup.Granularity granularity, LocalDateTime from, LocalDateTime to);
+}
@@ -0,0 +1,17 @@
+package com.smartlight.repository;
+
+import com.smartlight.entity.LightDataRollup;
+import com.smartlight.entity.LightDataSketch;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface LightDataSketchRepository extends JpaRepository<LightDataSketch, Long> {
+    List<LightDataSketch> findByGranularityAndBucketStartGreaterThanEqualAndBucketStartLessThan(
+            LightDataRollup.Granularity granularity, LocalDateTime from, LocalDateTime to);
+
+    List<LightDataSketch> findByGranularityAndDeviceKeyAndBucketStartGreaterThanEqualAndBucketStartLessThan(
+            LightDataRollup.Granularity granularity, String deviceKey, LocalDateTime from, LocalDateTime to);
+}
@@ -0,0 +1,160 @@
+package com.smartlight.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.smartlight.telemetry.RecentReadingsStore;
+import com.smartlight.telemetry.TelemetryArchive;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Streams light_data rows straight from a server-side cursor to the response, preceded by any
+ * archived rows in the window.
+ * PostgreSQL only honours the fetch size inside a transaction, so each export runs in a read-only
+ * one; at most fetch-size rows are held in memory at any time, whatever the size of the export.
+ */
+@Service
+@Slf4j
+public class LightDataExportService {
+
+    public enum Format { NDJSON, CSV }
+
+    private static final String CSV_HEADER = "id,device_key,timestamp,status,current,power\n";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final int fetchSize;
+    private final long timeoutMs;
+    private final TelemetryArchive telemetryArchive;
+
+    public LightDataExportService(JdbcTemplate jdbcTemplate,
+                                  TransactionTemplate transactionTemplate,
+                                  @Value("${telemetry.export.fetch-size:1000}") int fetchSize,
+                                  @Value("${telemetry.export.timeout-ms:1800000}") long timeoutMs,
+                                  TelemetryArchive telemetryArchive) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.transactionTemplate.setReadOnly(true);
+        this.fetchSize = fetchSize;
+        this.timeoutMs = timeoutMs;
+        this.telemetryArchive = telemetryArchive;
+        // One object per line: the newline is written after each row instead of a root separator
+        this.jsonFactory.setRootValueSeparator(null);
+    }
+
+    // Async request timeout for one export; other endpoints keep the default
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public long export(LocalDateTime start, LocalDateTime end, String deviceKey, Format format, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        JsonGenerator json = format == Format.NDJSON ? jsonFactory.createGenerator(writer) : null;
+        if (format == Format.CSV) {
+            writer.write(CSV_HEADER);
+        }
+        long[] rows = new long[1];
+        long endMillis = RecentReadingsStore.toMillis(end);
+        String sql = "SELECT id, device_key, timestamp, status, current, power FROM light_data " +
+                "WHERE timestamp >= ? AND timestamp < ?" + (deviceKey != null ? " AND device_key = ?" : "") +
+                " ORDER BY timestamp, id";
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                // Archived rows are older than anything left in light_data, so they come first; the
+                // view is taken in the same transaction so no partition is archived away in between
+                telemetryArchive.view().scan(start, end, deviceKey, (key, id, timestamp, on, current, power) -> {
+                    if (timestamp >= endMillis) {
+                        return;
+                    }
+                    try {
+                        writeRow(json, writer, id, key.isEmpty() ? null : key, RecentReadingsStore.toLocalDateTime(timestamp),
+                                on ? "on" : "off", current, power);
+                        rows[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                jdbcTemplate.query(con -> {
+                    PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    ps.setFetchSize(fetchSize);
+                    ps.setTimestamp(1, Timestamp.valueOf(start));
+                    ps.setTimestamp(2, Timestamp.valueOf(end));
+                    if (deviceKey != null) {
+                        ps.setString(3, deviceKey);
+                    }
+                    return ps;
+                }, rs -> {
+                    try {
+                        writeRow(json, writer, rs.getLong(1), rs.getString(2), rs.getTimestamp(3).toLocalDateTime(),
+                                rs.getString(4), rs.getDouble(5), rs.getDouble(6));
+                        rows[0]++;
+                    } catch (IOException e) {
+                        // Client went away: abort the query instead of reading the rest of the cursor
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (json != null) {
+            json.flush();
+        }
+        writer.flush();
+        log.info("Exported {} light_data rows [{}, {}) as {}", rows[0], start, end, format);
+        return rows[0];
+    }
+
+    private static void writeRow(JsonGenerator json, Writer writer, long id, String deviceKey, LocalDateTime timestamp,
+                                 String status, double current, double power) throws IOException {
+        if (json != null) {
+            json.writeStartObject();
+            json.writeNumberField("id", id);
+            json.writeStringField("deviceKey", deviceKey);
+            json.writeStringField("timestamp", timestamp.toString());
+            json.writeStringField("status", status);
+            json.writeNumberField("current", current);
+            json.writeNumberField("power", power);
+            json.writeEndObject();
+            json.writeRaw('\n');
+            return;
+        }
+        writer.write(Long.toString(id));
+        writer.write(',');
+        writer.write(csv(deviceKey));
+        writer.write(',');
+        writer.write(timestamp.toString());
+        writer.write(',');
+        writer.write(csv(status));
+        writer.write(',');
+        writer.write(Double.toString(current));
+        writer.write(',');
+        writer.write(Double.toString(power));
+        writer.write('\n');
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
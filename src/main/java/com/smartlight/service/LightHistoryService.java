@@ -0,0 +1,104 @@
+package com.smartlight.service;
+
+import com.smartlight.dto.HistoryPage;
+import com.smartlight.entity.LightData;
+import com.smartlight.repository.LightDataRepository;
+import com.smartlight.telemetry.TelemetryArchive;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Keyset pagination over light_data, newest first. The cursor is the (timestamp, id) of the last
+ * row returned, so every page is a LIMIT query that seeks straight to its position instead of
+ * skipping over earlier rows.
+ */
+@Service
+@RequiredArgsConstructor
+public class LightHistoryService {
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final LightDataRepository lightDataRepository;
+    private final TelemetryArchive telemetryArchive;
+
+    @Transactional(readOnly = true)
+    public HistoryPage findPage(LocalDateTime start, LocalDateTime end, String cursor, int limit) {
+        int size = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        PageRequest page = PageRequest.of(0, size);
+        boolean ranged = start != null && end != null;
+
+        LocalDateTime cursorTimestamp = null;
+        Long cursorId = null;
+        if (cursor != null && !cursor.isBlank()) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.lastIndexOf('|');
+                cursorTimestamp = LocalDateTime.parse(raw.substring(0, separator));
+                cursorId = Long.valueOf(raw.substring(separator + 1));
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Invalid cursor");
+            }
+        }
+
+        // Before light_data is read, so no partition is archived away in between
+        TelemetryArchive.View archive = telemetryArchive.view();
+        List<LightData> items;
+        if (cursorTimestamp == null) {
+            items = ranged
+                    ? lightDataRepository.findByTimestampBetweenOrderByTimestampDescIdDesc(start, end, page)
+                    : lightDataRepository.findByOrderByTimestampDescIdDesc(page);
+        } else {
+            items = ranged
+                    ? lightDataRepository.findPageBetweenBefore(start, end, cursorTimestamp, cursorId, page)
+                    : lightDataRepository.findPageBefore(cursorTimestamp, cursorId, page);
+        }
+
+        // Archived rows are older than light_data, except late rows moved out of light_data_default
+        // that are not archived yet: merge whenever the archive can reach into this page
+        LocalDateTime archivedUpTo = archive.getMaxTimestamp();
+        if (archivedUpTo != null && (items.size() < size
+                || !items.get(items.size() - 1).getTimestamp().isAfter(archivedUpTo))) {
+            List<LightData> archived = archive.findPageBefore(ranged ? start : null, ranged ? end : null,
+                    cursorTimestamp, cursorId, size);
+            items = mergeNewestFirst(items, archived, size);
+        }
+
+        String nextCursor = null;
+        if (items.size() == size) {
+            LightData last = items.get(items.size() - 1);
+            nextCursor = encodeCursor(last.getTimestamp(), last.getId());
+        }
+        return new HistoryPage(items, nextCursor);
+    }
+
+    private static List<LightData> mergeNewestFirst(List<LightData> a, List<LightData> b, int size) {
+        List<LightData> merged = new ArrayList<>(size);
+        int i = 0;
+        int j = 0;
+        while (merged.size() < size && (i < a.size() || j < b.size())) {
+            if (j >= b.size() || (i < a.size() && isNewer(a.get(i), b.get(j)))) {
+                merged.add(a.get(i++));
+            } else {
+                merged.add(b.get(j++));
+            }
+        }
+        return merged;
+    }
+
+    private static boolean isNewer(LightData x, LightData y) {
+        int byTime = x.getTimestamp().compareTo(y.getTimestamp());
+        return byTime != 0 ? byTime > 0 : x.getId() > y.getId();
+    }
+
+    private static String encodeCursor(LocalDateTime timestamp, Long id) {
+        String raw = timestamp + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,162 @@
+package com.smartlight.service;
+
+import com.smartlight.dto.LightStatsDTO;
+import com.smartlight.dto.PercentilesDTO;
+import com.smartlight.dto.RollupPoint;
+import com.smartlight.entity.LightDataRollup.Granularity;
+import com.smartlight.entity.LightDataSketch;
+import com.smartlight.repository.LightDataRollupRepository;
+import com.smartlight.repository.LightDataSketchRepository;
+import com.smartlight.telemetry.DDSketch;
+import com.smartlight.telemetry.EnergyAccumulator;
+import com.smartlight.telemetry.TelemetryArchive;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@Service
+@RequiredArgsConstructor
+public class LightStatisticsService {
+    private final LightDataRollupRepository rollupRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final EnergyAccumulator energyAccumulator;
+    private final TelemetryArchive telemetryArchive;
+    private final LightDataSketchRepository sketchRepository;
+
+    private interface RangeReader {
+        void read(Granularity granularity, LocalDateTime from, LocalDateTime to);
+    }
+
+    /**
+     * Energy used in [from, to] in Wh, from counter checkpoints at both ends: one query per bound,
+     * independent of how many readings the period holds. A window ending now reads the live
+     * counters of the devices this replica owns, so their last checkpoint interval is included.
+     */
+    @Transactional(readOnly = true)
+    public double energyWh(LocalDateTime from, LocalDateTime to) {
+        boolean live = !to.isBefore(LocalDateTime.now());
+        Map<String, Double> start = energyAccumulator.countersAt(from);
+        Map<String, Double> end = live ? energyAccumulator.countersNow() : energyAccumulator.countersAt(to);
+        double total = 0;
+        for (Map.Entry<String, Double> counter : end.entrySet()) {
+            total += Math.max(0, counter.getValue() - start.getOrDefault(counter.getKey(), 0.0));
+        }
+        return total;
+    }
+
+    /**
+     * Count, averages and on/off split over light_data computed by PostgreSQL in one row.
+     * Only the filters that are given become predicates, so a time window prunes partitions
+     * and a device filter can use idx_light_data_device_key_timestamp. Archived rows in the
+     * window are folded in from the segment headers, decoding only series cut by a bound.
+     */
+    @Transactional(readOnly = true)
+    public LightStatsDTO summarize(LocalDateTime start, LocalDateTime end, String deviceKey) {
+        TelemetryArchive.View archive = telemetryArchive.view();
+        StringBuilder sql = new StringBuilder(
+                "SELECT COUNT(*), COALESCE(SUM(current), 0), COALESCE(SUM(power), 0), " +
+                "COUNT(*) FILTER (WHERE status = 'on') FROM light_data WHERE TRUE");
+        List<Object> args = new ArrayList<>();
+        if (start != null) {
+            sql.append(" AND timestamp >= ?");
+            args.add(Timestamp.valueOf(start));
+        }
+        if (end != null) {
+            sql.append(" AND timestamp <= ?");
+            args.add(Timestamp.valueOf(end));
+        }
+        if (deviceKey != null) {
+            sql.append(" AND device_key = ?");
+            args.add(deviceKey);
+        }
+        double[] sums = jdbcTemplate.queryForObject(sql.toString(), (rs, rowNum) -> new double[]{
+                rs.getLong(1), rs.getDouble(2), rs.getDouble(3), rs.getLong(4)}, args.toArray());
+        archive.summarize(start, end, deviceKey, sums);
+        long total = (long) sums[0];
+        long on = (long) sums[3];
+        return LightStatsDTO.builder()
+                .totalRecords(total)
+                .avgCurrent(total == 0 ? 0 : sums[1] / total)
+                .avgPower(total == 0 ? 0 : sums[2] / total)
+                .onCount(on)
+                .offCount(total - on)
+                .build();
+    }
+
+    /**
+     * Rollup buckets covering [from, to), using day buckets for whole days, hour buckets for the
+     * whole hours around them and minute buckets only at the edges. At most five range reads and a
+     * few hundred rows, however long the window is.
+     */
+    @Transactional(readOnly = true)
+    public List<RollupPoint> findCoveringRollups(LocalDateTime from, LocalDateTime to) {
+        List<RollupPoint> points = new ArrayList<>();
+        cover(from, to, Granularity.DAY,
+                (granularity, rangeFrom, rangeTo) -> points.addAll(rollupRepository.findSeries(granularity, rangeFrom, rangeTo)));
+        return points;
+    }
+
+    /**
+     * p50/p95/p99 of power and current over [from, to), merged from the stored sketches of the
+     * same day/hour/minute cover as the rollups. Quantiles are within 1% relative error; readings
+     * newer than the last sketch flush are not included yet.
+     */
+    @Transactional(readOnly = true)
+    public PercentilesDTO percentiles(LocalDateTime from, LocalDateTime to, String deviceKey) {
+        DDSketch power = new DDSketch();
+        DDSketch current = new DDSketch();
+        cover(from, to, Granularity.DAY, (granularity, rangeFrom, rangeTo) -> {
+            List<LightDataSketch> rows = deviceKey == null
+                    ? sketchRepository.findByGranularityAndBucketStartGreaterThanEqualAndBucketStartLessThan(
+                            granularity, rangeFrom, rangeTo)
+                    : sketchRepository.findByGranularityAndDeviceKeyAndBucketStartGreaterThanEqualAndBucketStartLessThan(
+                            granularity, deviceKey, rangeFrom, rangeTo);
+            for (LightDataSketch row : rows) {
+                power.merge(DDSketch.fromBytes(row.getPowerSketch()));
+                current.merge(DDSketch.fromBytes(row.getCurrentSketch()));
+            }
+        });
+        return PercentilesDTO.builder()
+                .sampleCount(power.getCount())
+                .powerP50(quantile(power, 0.50))
+                .powerP95(quantile(power, 0.95))
+                .powerP99(quantile(power, 0.99))
+                .currentP50(quantile(current, 0.50))
+                .currentP95(quantile(current, 0.95))
+                .currentP99(quantile(current, 0.99))
+                .build();
+    }
+
+    // null rather than NaN when the window has no samples
+    private static Double quantile(DDSketch sketch, double q) {
+        return sketch.getCount() == 0 ? null : Math.round(sketch.getValueAtQuantile(q) * 100.0) / 100.0;
+    }
+
+    private void cover(LocalDateTime from, LocalDateTime to, Granularity granularity, RangeReader reader) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        if (granularity == Granularity.MINUTE) {
+            // Finest level: the partial minutes at either edge are included whole
+            reader.read(granularity, granularity.floor(from), to);
+            return;
+        }
+        Granularity finer = Granularity.values()[granularity.ordinal() - 1];
+        LocalDateTime alignedFrom = granularity.ceil(from);
+        LocalDateTime alignedTo = granularity.floor(to);
+        if (!alignedFrom.isBefore(alignedTo)) {
+            cover(from, to, finer, reader);
+            return;
+        }
+        cover(from, alignedFrom, finer, reader);
+        reader.read(granularity, alignedFrom, alignedTo);
+        cover(alignedTo, to, finer, reader);
+    }
+}
@@ -1,7 +1,24 @@
 package com.smartlight.service;
 
-import com.smartlight.entity.LightData;
-import com.smartlight.repository.LightDataRepository;
+import com.smartlight.mqtt.CommandJournal;
+import com.smartlight.mqtt.CommandJournal.PendingCommand;
+import com.smartlight.mqtt.CommandLatencyTracker;
+import com.smartlight.mqtt.MqttMetrics;
+import com.smartlight.mqtt.TopicContext;
+import com.smartlight.mqtt.TopicRouter;
+import com.smartlight.telemetry.DevicePartitioner;
+import com.smartlight.telemetry.DeviceTelemetry;
+import com.smartlight.telemetry.EnergyAccumulator;
+import com.smartlight.telemetry.RecentReadingsStore;
+import com.smartlight.telemetry.TelemetrySketchAggregator;
+import com.smartlight.telemetry.StatusPayload;
+import com.smartlight.telemetry.StatusPayloadDecoder;
+import com.smartlight.telemetry.TelemetryIngestionQueue;
+import com.smartlight.telemetry.TelemetryPersistencePolicy;
+import com.smartlight.telemetry.TelemetryRateLimiter;
+import com.smartlight.telemetry.TelemetryReading;
+import com.smartlight.telemetry.TelemetryStateStore;
+import com.smartlight.telemetry.TelemetryTopics;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
@@ -15,13 +32,65 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @Slf4j
 public class MqttService {
     
+    private static final int SUBSCRIBE_BATCH = 100;
+    
+    @Autowired
+    private TelemetryIngestionQueue ingestionQueue;
+    
+    @Autowired
+    private TelemetryPersistencePolicy persistencePolicy;
+    
+    @Autowired
+    private TelemetryStateStore telemetryStateStore;
+    
+    @Autowired
+    private TelemetryRateLimiter rateLimiter;
+    
+    @Autowired
+    private CommandJournal commandJournal;
+    
+    @Autowired
+    private TopicRouter topicRouter;
+    
     @Autowired
-    private LightDataRepository lightDataRepository;
+    private CommandLatencyTracker latencyTracker;
+    
+    @Autowired
+    private MqttMetrics metrics;
+    
+    @Autowired
+    private EnergyAccumulator energyAccumulator;
+    
+    @Autowired
+    private RecentReadingsStore recentReadings;
+    
+    @Autowired
+    private TelemetrySketchAggregator sketchAggregator;
+    
+    @Autowired
+    private DevicePartitioner partitioner;
     
     @Value("${mqtt.broker.url:tcp://localhost:1883}")
     private String brokerUrl;
@@ -41,15 +110,60 @@ public class MqttService {
     @Value("${mqtt.topic.status:/light/status}")
     private String statusTopic;
     
-    private MqttClient mqttClient;
-    private String lastStatus = "off";
-    private Double lastCurrent = 0.0;
-    private Double lastPower = 0.0;
-    private boolean connected = false;
+    @Value("${mqtt.topic.current:/light/current}")
+    private String currentTopic;
+    
+    @Value("${mqtt.topic.power:/light/power}")
+    private String powerTopic;
+    
+    @Value("${mqtt.subscriptions:/light/#}")
+    private String[] subscriptions;
+    
+    @Value("${mqtt.publish.max-inflight:100}")
+    private int maxInFlight;
+    
+    @Value("${mqtt.reconnect.max-delay-seconds:60}")
+    private int maxReconnectDelaySeconds;
+    
+    private volatile MqttAsyncClient mqttClient;
+    private volatile boolean connected = false;
+    private Semaphore inFlight;
+    private int reconnectDelaySeconds = 1;
+    
+    // Callers waiting on a journaled command, and commands currently handed to Paho
+    private final Map<Long, CompletableFuture<IMqttToken>> commandFutures = new ConcurrentHashMap<>();
+    private final Set<Long> publishing = ConcurrentHashMap.newKeySet();
+    
+    // Connect attempts, journal appends and command sends run here so that no caller ever waits on
+    // network or disk I/O; being a single thread it also keeps commands in journal order
+    private final ScheduledExecutorService connector = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "mqtt-connector");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final AtomicLong messagesReceived = new AtomicLong();
+    
+    // Cluster mode: devices whose topics this replica subscribes to, and gained devices waiting out
+    // the settle delay. Changed on the heartbeat thread only
+    private final Set<String> subscribedDevices = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> pendingDevices = new HashMap<>();
+    
+    // Only touched from the Paho callback thread, reused for every status message
+    private final StatusPayload statusPayload = new StatusPayload();
     
     @PostConstruct
     public void init() {
-        connectToBroker();
+        inFlight = new Semaphore(maxInFlight);
+        registerTopicHandlers();
+        metrics.gauge("mqtt.connected", "1 while connected to the broker", () -> isConnected() ? 1 : 0);
+        metrics.gauge("mqtt.commands.pending", "Journaled commands not yet acknowledged by the broker", commandJournal::size);
+        // Commands are sent only once fsynced; the journal's sync thread says when
+        commandJournal.setDurableListener(this::scheduleDrain);
+        connector.execute(this::connectToBroker);
+        // Expire stale journaled commands and retry anything left over while connected
+        connector.scheduleWithFixedDelay(this::drainCommands, 5, 5, TimeUnit.SECONDS);
+        partitioner.addListener(this::rebalance);
     }
     
     @PreDestroy
@@ -73,141 +187,372 @@ public class MqttService {
         }
     }
     
+    private MqttConnectOptions buildConnectOptions() {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setAutomaticReconnect(true);
+        options.setMaxReconnectDelay(maxReconnectDelaySeconds * 1000);
+        options.setConnectionTimeout(30);
+        options.setKeepAliveInterval(60);
+        options.setMaxInflight(maxInFlight);
+        
+        // Set username/password if provided (for HiveMQ Cloud)
+        if (mqttUsername != null && !mqttUsername.isEmpty()) {
+            options.setUserName(mqttUsername);
+            log.info("MQTT username configured: {}", mqttUsername);
+        }
+        if (mqttPassword != null && !mqttPassword.isEmpty()) {
+            options.setPassword(mqttPassword.toCharArray());
+            log.info("MQTT password configured");
+        }
+        
+        // Enable SSL/TLS for secure connections (ssl:// or mqtts://)
+        if (brokerUrl.startsWith("ssl://") || brokerUrl.startsWith("mqtts://")) {
+            SSLSocketFactory sslSocketFactory = getSSLSocketFactory();
+            if (sslSocketFactory != null) {
+                options.setSocketFactory(sslSocketFactory);
+                log.info("TLS/SSL enabled for MQTT connection");
+            }
+        }
+        return options;
+    }
+    
     private void connectToBroker() {
         try {
             log.info("Connecting to MQTT broker: {}", brokerUrl);
-            mqttClient = new MqttClient(brokerUrl, clientId + "_" + System.currentTimeMillis(), new MemoryPersistence());
-            
-            MqttConnectOptions options = new MqttConnectOptions();
-            options.setCleanSession(true);
-            options.setAutomaticReconnect(true);
-            options.setConnectionTimeout(30);
-            options.setKeepAliveInterval(60);
-            
-            // Set username/password if provided (for HiveMQ Cloud)
-            if (mqttUsername != null && !mqttUsername.isEmpty()) {
-                options.setUserName(mqttUsername);
-                log.info("MQTT username configured: {}", mqttUsername);
-            }
-            if (mqttPassword != null && !mqttPassword.isEmpty()) {
-                options.setPassword(mqttPassword.toCharArray());
-                log.info("MQTT password configured");
-            }
-            
-            // Enable SSL/TLS for secure connections (ssl:// or mqtts://)
-            if (brokerUrl.startsWith("ssl://") || brokerUrl.startsWith("mqtts://")) {
-                SSLSocketFactory sslSocketFactory = getSSLSocketFactory();
-                if (sslSocketFactory != null) {
-                    options.setSocketFactory(sslSocketFactory);
-                    log.info("TLS/SSL enabled for MQTT connection");
-                }
+            if (mqttClient == null) {
+                mqttClient = new MqttAsyncClient(brokerUrl, clientId + "_" + System.currentTimeMillis(), new MemoryPersistence());
+                mqttClient.setCallback(new MqttCallbackExtended() {
+                    @Override
+                    public void connectComplete(boolean reconnect, String serverURI) {
+                        connected = true;
+                        reconnectDelaySeconds = 1;
+                        if (reconnect) {
+                            metrics.reconnected();
+                        }
+                        log.info("{} to MQTT broker: {}", reconnect ? "Reconnected" : "Successfully connected", serverURI);
+                        // Clean session: subscriptions must be renewed after every (re)connect
+                        subscribe();
+                        // Replay commands journaled while offline or before a restart
+                        scheduleDrain();
+                    }
+                    
+                    @Override
+                    public void connectionLost(Throwable cause) {
+                        log.warn("MQTT connection lost: {}", cause.getMessage());
+                        connected = false;
+                    }
+                    
+                    @Override
+                    public void messageArrived(String topic, MqttMessage message) {
+                        byte[] payload = message.getPayload();
+                        if (log.isDebugEnabled()) {
+                            log.debug("MQTT message received - Topic: {}, Message: {}", topic, new String(payload));
+                        }
+                        handleMessage(topic, payload);
+                    }
+                    
+                    @Override
+                    public void deliveryComplete(IMqttDeliveryToken token) {
+                        log.debug("MQTT message delivered");
+                    }
+                });
             }
             
-            mqttClient.setCallback(new MqttCallback() {
-                @Override
-                public void connectionLost(Throwable cause) {
-                    log.warn("MQTT connection lost: {}", cause.getMessage());
-                    connected = false;
-                }
-                
+            mqttClient.connect(buildConnectOptions(), null, new IMqttActionListener() {
                 @Override
-                public void messageArrived(String topic, MqttMessage message) {
-                    String payload = new String(message.getPayload());
-                    log.info("MQTT message received - Topic: {}, Message: {}", topic, payload);
-                    handleMessage(topic, payload);
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    // connectComplete handles state and subscriptions
                 }
                 
                 @Override
-                public void deliveryComplete(IMqttDeliveryToken token) {
-                    log.debug("MQTT message delivered");
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    connected = false;
+                    log.error("Failed to connect to MQTT broker: {}", exception.getMessage());
+                    scheduleReconnect();
                 }
             });
-            
-            mqttClient.connect(options);
-            connected = true;
-            log.info("Successfully connected to MQTT broker: {}", brokerUrl);
-            
-            // Subscribe to status topic to receive feedback from ESP32
-            mqttClient.subscribe(statusTopic, 1);
-            mqttClient.subscribe("/light/#", 1);
-            log.info("Subscribed to topics: {}, /light/#", statusTopic);
-            
         } catch (MqttException e) {
             log.error("Failed to connect to MQTT broker: {}", e.getMessage());
             connected = false;
+            scheduleReconnect();
         }
     }
     
-    private void handleMessage(String topic, String payload) {
+    // Paho only reconnects automatically after a first successful connect, so initial failures retry here
+    private void scheduleReconnect() {
+        int delay = reconnectDelaySeconds;
+        reconnectDelaySeconds = Math.min(reconnectDelaySeconds * 2, maxReconnectDelaySeconds);
+        log.info("Retrying MQTT connection in {}s", delay);
+        connector.schedule(this::connectToBroker, delay, TimeUnit.SECONDS);
+    }
+    
+    private void subscribe() {
+        if (partitioner.isClustered()) {
+            subscribe(deviceFilters(subscribedDevices));
+            return;
+        }
         try {
-            boolean shouldSave = false;
-            
-            if (topic.equals(statusTopic) || topic.contains("status")) {
-                // Parse JSON status if available
-                if (payload.contains("\"state\"")) {
-                    // Parse state value chính xác: "state":"on" hoặc "state":"off"
-                    try {
-                        String stateStr = payload.replaceAll(".*\"state\"\\s*:\\s*\"([^\"]+)\".*", "$1");
-                        if (stateStr.equals("on") || stateStr.equals("off")) {
-                            lastStatus = stateStr;
-                        }
-                    } catch (Exception e) {
-                        log.warn("Could not parse state from JSON: {}", e.getMessage());
-                    }
-                    
-                    // Parse current and power from JSON status
-                    try {
-                        // Extract current value: "current":0.000
-                        if (payload.contains("\"current\"")) {
-                            String currentStr = payload.replaceAll(".*\"current\"\\s*:\\s*([0-9.]+).*", "$1");
-                            lastCurrent = Double.parseDouble(currentStr);
-                        }
-                        // Extract power value: "power":0.0
-                        if (payload.contains("\"power\"")) {
-                            String powerStr = payload.replaceAll(".*\"power\"\\s*:\\s*([0-9.]+).*", "$1");
-                            lastPower = Double.parseDouble(powerStr);
-                        }
-                    } catch (Exception e) {
-                        log.warn("Could not parse current/power from status JSON: {}", e.getMessage());
-                    }
-                    
-                    // Kiểm tra nếu là từ công tắc vật lý - lưu ngay lập tức
-                    if (payload.contains("\"source\":\"physical_switch\"")) {
-                        log.info("Physical switch state change detected: {}", lastStatus);
-                        shouldSave = true;
-                    } else {
-                        shouldSave = true; // Save when receiving full status
-                    }
-                } else if (payload.equals("on") || payload.equals("off")) {
-                    lastStatus = payload;
-                }
-            } else if (topic.contains("current")) {
-                lastCurrent = Double.parseDouble(payload);
-            } else if (topic.contains("power")) {
-                lastPower = Double.parseDouble(payload);
+            String[] filters = subscriptionFilters();
+            int[] qos = new int[filters.length];
+            Arrays.fill(qos, 1);
+            mqttClient.subscribe(filters, qos);
+            log.info("Subscribed to topics: {}", String.join(", ", filters));
+        } catch (MqttException e) {
+            log.error("Failed to subscribe to MQTT topics: {}", e.getMessage());
+        }
+    }
+    
+    // Batched so that thousands of owned devices do not make one oversized SUBSCRIBE packet
+    private void subscribe(List<String> filters) {
+        for (int from = 0; from < filters.size() && isConnected(); from += SUBSCRIBE_BATCH) {
+            String[] batch = filters.subList(from, Math.min(from + SUBSCRIBE_BATCH, filters.size())).toArray(new String[0]);
+            int[] qos = new int[batch.length];
+            Arrays.fill(qos, 1);
+            try {
+                mqttClient.subscribe(batch, qos);
+            } catch (MqttException e) {
+                // Renewed in full on reconnect
+                log.error("Failed to subscribe to MQTT topics: {}", e.getMessage());
+                return;
             }
-            
-            // Save to database when receiving status message (contains all data)
-            if (shouldSave) {
-                saveToDatabase();
+        }
+    }
+    
+    private void unsubscribe(List<String> filters) {
+        for (int from = 0; from < filters.size() && isConnected(); from += SUBSCRIBE_BATCH) {
+            try {
+                mqttClient.unsubscribe(filters.subList(from, Math.min(from + SUBSCRIBE_BATCH, filters.size())).toArray(new String[0]));
+            } catch (MqttException e) {
+                log.error("Failed to unsubscribe from MQTT topics: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+    
+    // A device's own channels; the legacy topics belong to the device of the status topic
+    private List<String> deviceFilters(Collection<String> deviceKeys) {
+        Set<String> filters = new LinkedHashSet<>();
+        String legacyDevice = TelemetryTopics.deviceKey(statusTopic);
+        for (String deviceKey : deviceKeys) {
+            if (deviceKey.equals(legacyDevice)) {
+                filters.add(statusTopic);
+                filters.add(statusTopic + TelemetryTopics.BINARY_SUFFIX);
+                filters.add(currentTopic);
+                filters.add(powerTopic);
+            }
+            filters.add(deviceKey + "/status");
+            filters.add(deviceKey + "/status" + TelemetryTopics.BINARY_SUFFIX);
+            filters.add(deviceKey + "/current");
+            filters.add(deviceKey + "/power");
+        }
+        return new ArrayList<>(filters);
+    }
+    
+    /**
+     * Cluster mode: moves the subscriptions to the devices this replica owns, after every heartbeat.
+     * A lost device is unsubscribed at once and its in-memory state dropped, after a last energy
+     * checkpoint. A gained device is taken up only after the settle delay, which gives the previous
+     * owner a heartbeat to let go of it, then continues from its checkpoint and recent readings.
+     */
+    private void rebalance() {
+        Set<String> owned = partitioner.getOwnedDevices();
+        List<String> lost = new ArrayList<>();
+        for (String deviceKey : subscribedDevices) {
+            if (!owned.contains(deviceKey)) {
+                lost.add(deviceKey);
+            }
+        }
+        if (!lost.isEmpty()) {
+            subscribedDevices.removeAll(lost);
+            unsubscribe(deviceFilters(lost));
+            energyAccumulator.release(lost);
+            for (String deviceKey : lost) {
+                telemetryStateStore.remove(deviceKey);
+                recentReadings.remove(deviceKey);
+                persistencePolicy.forget(deviceKey);
+            }
+            log.info("Released {} devices now owned by other replicas", lost.size());
+        }
+        
+        pendingDevices.keySet().retainAll(owned);
+        long now = System.currentTimeMillis();
+        List<String> gained = new ArrayList<>();
+        for (String deviceKey : owned) {
+            if (!subscribedDevices.contains(deviceKey)
+                    && pendingDevices.computeIfAbsent(deviceKey, k -> now + partitioner.getSettleMs()) <= now) {
+                gained.add(deviceKey);
             }
+        }
+        if (gained.isEmpty()) {
+            return;
+        }
+        try {
+            energyAccumulator.adopt(gained);
         } catch (Exception e) {
-            log.error("Error handling MQTT message: {}", e.getMessage());
+            // Taking a device up from zero would undercount it: retried on the next heartbeat
+            log.error("Could not restore energy counters of {} gained devices: {}", gained.size(), e.getMessage());
+            return;
         }
+        recentReadings.warmUp(gained);
+        gained.forEach(pendingDevices::remove);
+        // Added first: a connect completing meanwhile subscribes them if this does not
+        subscribedDevices.addAll(gained);
+        subscribe(deviceFilters(gained));
+        log.info("Took over {} devices, subscribed to {} in total", gained.size(), subscribedDevices.size());
     }
     
-    private void saveToDatabase() {
+    // Status topic plus the configured filters, without overlaps that would deliver a message twice
+    private String[] subscriptionFilters() {
+        List<String> filters = new ArrayList<>();
+        for (String filter : subscriptions) {
+            if (!filter.isBlank()) {
+                filters.add(filter.trim());
+            }
+        }
+        if (filters.stream().noneMatch(filter -> TopicRouter.matches(filter, statusTopic))) {
+            filters.add(0, statusTopic);
+        }
+        return filters.toArray(new String[0]);
+    }
+    
+    private void registerTopicHandlers() {
+        topicRouter.register(statusTopic, this::handleStatus);
+        topicRouter.register("/light/+/status", this::handleStatus);
+        // Compact binary status frames are negotiated per topic with a "/bin" suffix
+        topicRouter.register(statusTopic + TelemetryTopics.BINARY_SUFFIX, this::handleBinaryStatus);
+        topicRouter.register("/light/+/status" + TelemetryTopics.BINARY_SUFFIX, this::handleBinaryStatus);
+        topicRouter.register(currentTopic, this::handleCurrent);
+        topicRouter.register("/light/+/current", this::handleCurrent);
+        topicRouter.register(powerTopic, this::handlePower);
+        topicRouter.register("/light/+/power", this::handlePower);
+    }
+    
+    private void handleMessage(String topic, byte[] payload) {
+        messagesReceived.incrementAndGet();
         try {
-            LightData lightData = new LightData();
-            lightData.setStatus(lastStatus);
-            lightData.setCurrent(lastCurrent);
-            lightData.setPower(lastPower);
-            
-            lightDataRepository.save(lightData);
-            log.info("Saved light data to database - Status: {}, Current: {}, Power: {}", 
-                    lastStatus, lastCurrent, lastPower);
+            if (!topicRouter.route(topic, payload)) {
+                metrics.messageReceived("unmatched");
+                log.debug("No handler for MQTT topic {}", topic);
+            }
         } catch (Exception e) {
-            log.error("Failed to save light data to database: {}", e.getMessage());
+            log.error("Error handling MQTT message: {}", e.getMessage());
+        }
+    }
+    
+    // A device is only subscribed to by its owner; this drops what is still on the way after it moved
+    private boolean notOwned(TopicContext context) {
+        if (partitioner.owns(context.deviceKey())) {
+            return false;
+        }
+        metrics.messageReceived("unowned");
+        return true;
+    }
+    
+    private void handleStatus(TopicContext context, byte[] payload) {
+        if (notOwned(context)) {
+            return;
+        }
+        metrics.messageReceived(context.filter());
+        StatusPayload status = statusPayload;
+        if (!StatusPayloadDecoder.decode(payload, status)) {
+            metrics.parseFailure("json");
+            log.warn("Could not parse status payload on {}", context.topic());
+            return;
+        }
+        applyStatus(context, status);
+    }
+    
+    private void handleBinaryStatus(TopicContext context, byte[] payload) {
+        if (notOwned(context)) {
+            return;
+        }
+        metrics.messageReceived(context.filter());
+        StatusPayload status = statusPayload;
+        if (!StatusPayloadDecoder.decodeBinary(payload, status)) {
+            metrics.parseFailure("binary");
+            log.warn("Invalid binary status frame ({} bytes) on {}", payload.length, context.topic());
+            return;
+        }
+        applyStatus(context, status);
+    }
+    
+    private void applyStatus(TopicContext context, StatusPayload status) {
+        String deviceKey = context.deviceKey();
+        if (status.isHasState()) {
+            latencyTracker.onStatus(deviceKey, status.getStatus());
+        }
+        if (status.isFullStatus() && status.isHasState()) {
+            DeviceTelemetry snapshot = telemetryStateStore.update(deviceKey, s -> s.withReading(
+                    status.getStatus(),
+                    status.isHasCurrent() ? status.getCurrent() : s.current(),
+                    status.isHasPower() ? status.getPower() : s.power()));
+            trackSnapshot(snapshot);
+            
+            // Percentiles see every full reading, before rate limiting and deadband
+            sketchAggregator.record(deviceKey, snapshot.power(), snapshot.current(), snapshot.timestamp());
+            
+            // Over the per-device rate limit: keep the latest value in memory, skip persistence and logging.
+            // Physical switch events are never limited: they are rare and must always be recorded
+            if (!status.isPhysicalSwitch() && !rateLimiter.tryAcquire(deviceKey)) {
+                return;
+            }
+            
+            // Kiểm tra nếu là từ công tắc vật lý - lưu ngay lập tức
+            if (status.isPhysicalSwitch()) {
+                log.info("Physical switch state change detected on {}: {}", deviceKey, snapshot.status());
+            }
+            
+            // Queue for the writer when receiving status message (contains all data)
+            enqueueForPersistence(TelemetryReading.of(snapshot, status.isPhysicalSwitch()));
+        } else if (status.isHasState()) {
+            String newStatus = status.getStatus();
+            trackSnapshot(telemetryStateStore.update(deviceKey, s -> s.withStatus(newStatus)));
+        }
+    }
+    
+    private void handleCurrent(TopicContext context, byte[] payload) {
+        if (notOwned(context)) {
+            return;
+        }
+        metrics.messageReceived(context.filter());
+        double current = StatusPayloadDecoder.parseDouble(payload);
+        if (Double.isNaN(current)) {
+            metrics.parseFailure("number");
+            return;
+        }
+        trackSnapshot(telemetryStateStore.update(context.deviceKey(), s -> s.withCurrent(current)));
+    }
+    
+    private void handlePower(TopicContext context, byte[] payload) {
+        if (notOwned(context)) {
+            return;
+        }
+        metrics.messageReceived(context.filter());
+        double power = StatusPayloadDecoder.parseDouble(payload);
+        if (Double.isNaN(power)) {
+            metrics.parseFailure("number");
+            return;
+        }
+        trackSnapshot(telemetryStateStore.update(context.deviceKey(), s -> s.withPower(power)));
+    }
+    
+    // Every update counts here, including rate-limited and deadband-suppressed ones
+    private void trackSnapshot(DeviceTelemetry snapshot) {
+        long now = System.currentTimeMillis();
+        double power = "off".equals(snapshot.status()) ? 0 : snapshot.power();
+        energyAccumulator.record(snapshot.deviceKey(), power, now);
+        recentReadings.record(snapshot.deviceKey(), snapshot.status(), snapshot.current(), snapshot.power(), now);
+    }
+    
+    private void enqueueForPersistence(TelemetryReading reading) {
+        // Inside the deadband: no light_data row, but the rollups still count it
+        if (!persistencePolicy.shouldPersist(reading)) {
+            reading = reading.rollupOnly();
+        }
+        // Never touches the database here: the Paho callback thread must keep consuming
+        if (!ingestionQueue.offer(reading)) {
+            log.warn("Telemetry ingestion queue full, dropped reading from {}", reading.deviceKey());
         }
     }
     
@@ -215,53 +560,160 @@ public class MqttService {
         publish(controlTopic, command);
     }
     
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+    
+    // Cluster mode only: devices whose topics this replica is subscribed to
+    public int getSubscribedDeviceCount() {
+        return subscribedDevices.size();
+    }
+    
+    public int getPendingCommandCount() {
+        return commandJournal.size();
+    }
+    
+    public CompletableFuture<IMqttToken> publishControlAsync(String command) {
+        return publishAsync(controlTopic, command);
+    }
+    
+    /**
+     * Fire-and-forget publish for request threads and schedulers. Returns immediately;
+     * the outcome is logged when the broker acknowledges or the command expires.
+     */
     public void publish(String topic, String message) {
-        System.out.println("========== MQTT PUBLISH START ==========");
-        System.out.println("Topic: " + topic);
-        System.out.println("Message: " + message);
-        System.out.println("Connected: " + connected);
-        System.out.println("Client null: " + (mqttClient == null));
-        if (mqttClient != null) {
-            System.out.println("Client connected: " + mqttClient.isConnected());
+        publishAsync(topic, message).whenComplete((token, error) -> {
+            if (error != null) {
+                log.error("Failed to publish MQTT message to {}: {}", topic, error.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * Journals the command and publishes it with QoS 1 without blocking. The future completes
+     * with the delivery token once the broker has acknowledged the message. While the broker is
+     * unreachable or the in-flight window (mqtt.publish.max-inflight) is full the command stays
+     * in the journal and is replayed in order; it fails only when its TTL runs out first.
+     */
+    public CompletableFuture<IMqttToken> publishAsync(String topic, String message) {
+        CompletableFuture<IMqttToken> result = new CompletableFuture<>();
+        try {
+            connector.execute(() -> enqueue(topic, message, result));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new IllegalStateException("MQTT service is shutting down"));
         }
-        
-        if (!connected || mqttClient == null || !mqttClient.isConnected()) {
-            log.warn("MQTT not connected, attempting to reconnect...");
-            System.out.println("MQTT not connected, attempting to reconnect...");
-            connectToBroker();
+        return result;
+    }
+    
+    private void enqueue(String topic, String message, CompletableFuture<IMqttToken> result) {
+        PendingCommand command = commandJournal.append(topic, message);
+        commandFutures.put(command.seq(), result);
+        // Only the device's owner receives the status echo that resolves a command
+        if (partitioner.owns(TelemetryTopics.deviceKey(topic))) {
+            latencyTracker.track(command.seq(), topic, message);
         }
-        
+        log.debug("MQTT publish queued - Seq: {}, Topic: {}, Message: {}, Connected: {}",
+                command.seq(), topic, message, connected);
+        drainCommands();
+    }
+    
+    private void scheduleDrain() {
+        if (!connector.isShutdown()) {
+            connector.execute(this::drainCommands);
+        }
+    }
+    
+    // Sends durable journaled commands in order, as far as the connection and in-flight window
+    // allow. At most one command per device is in flight, so a failed publish that is retried can
+    // never land after a newer command for the same device. Runs on the connector thread only.
+    private void drainCommands() {
+        long now = System.currentTimeMillis();
+        Set<String> busyDevices = new HashSet<>();
+        for (PendingCommand command : commandJournal.pending()) {
+            String deviceKey = TelemetryTopics.deviceKey(command.topic());
+            if (publishing.contains(command.seq())) {
+                busyDevices.add(deviceKey);
+                continue;
+            }
+            if (command.isExpired(now)) {
+                commandJournal.expire(command);
+                metrics.publishExpired(command.createdAt());
+                CompletableFuture<IMqttToken> future = commandFutures.remove(command.seq());
+                if (future != null) {
+                    future.completeExceptionally(new IllegalStateException("Command expired before delivery"));
+                }
+                continue;
+            }
+            if (!commandJournal.isDurable(command.seq())) {
+                return; // neither is anything after it
+            }
+            if (!busyDevices.add(deviceKey)) {
+                continue;
+            }
+            if (!isConnected() || !inFlight.tryAcquire()) {
+                return;
+            }
+            publishing.add(command.seq());
+            send(command);
+        }
+    }
+    
+    private void send(PendingCommand command) {
         try {
-            if (mqttClient != null && mqttClient.isConnected()) {
-                MqttMessage mqttMessage = new MqttMessage(message.getBytes());
-                mqttMessage.setQos(1);
-                mqttMessage.setRetained(false);
-                mqttClient.publish(topic, mqttMessage);
-                log.info("Successfully published to {}: {}", topic, message);
-                System.out.println("SUCCESS: Published to " + topic + ": " + message);
+            MqttMessage mqttMessage = new MqttMessage(command.payload().getBytes());
+            mqttMessage.setQos(1);
+            mqttMessage.setRetained(false);
+            latencyTracker.sent(command.seq());
+            mqttClient.publish(command.topic(), mqttMessage, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    commandJournal.ack(command.seq());
+                    publishing.remove(command.seq());
+                    inFlight.release();
+                    metrics.published(command.createdAt());
+                    log.info("Successfully published to {}: {}", command.topic(), command.payload());
+                    updateLocalState(command.topic(), command.payload());
+                    CompletableFuture<IMqttToken> future = commandFutures.remove(command.seq());
+                    if (future != null) {
+                        future.complete(asyncActionToken);
+                    }
+                    scheduleDrain();
+                }
                 
-                // Update local state
-                if (message.equals("1") || message.equalsIgnoreCase("on")) {
-                    lastStatus = "on";
-                } else if (message.equals("0") || message.equalsIgnoreCase("off")) {
-                    lastStatus = "off";
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    // Stays journaled; retried on the next drain or reconnect
+                    publishing.remove(command.seq());
+                    inFlight.release();
+                    log.warn("MQTT publish of command {} failed, will retry: {}", command.seq(), exception.getMessage());
                 }
-            } else {
-                log.error("MQTT client not connected, cannot publish message");
-                System.out.println("ERROR: MQTT client not connected, cannot publish message");
-            }
+            });
         } catch (MqttException e) {
-            log.error("Failed to publish MQTT message: {}", e.getMessage());
-            System.out.println("EXCEPTION: Failed to publish - " + e.getMessage());
-            e.printStackTrace();
+            publishing.remove(command.seq());
+            inFlight.release();
+            log.warn("MQTT publish of command {} failed, will retry: {}", command.seq(), e.getMessage());
+        }
+    }
+    
+    private void updateLocalState(String topic, String message) {
+        String deviceKey = TelemetryTopics.deviceKey(topic);
+        if (!partitioner.owns(deviceKey)) {
+            return;
+        }
+        if (message.equals("1") || message.equalsIgnoreCase("on")) {
+            telemetryStateStore.update(deviceKey, s -> s.withStatus("on"));
+        } else if (message.equals("0") || message.equalsIgnoreCase("off")) {
+            telemetryStateStore.update(deviceKey, s -> s.withStatus("off"));
         }
-        System.out.println("========== MQTT PUBLISH END ==========");
     }
     
     public void disconnect() {
+        connector.shutdownNow();
         try {
-            if (mqttClient != null && mqttClient.isConnected()) {
-                mqttClient.disconnect();
+            if (mqttClient != null) {
+                if (mqttClient.isConnected()) {
+                    mqttClient.disconnect().waitForCompletion(5000);
+                }
                 mqttClient.close();
                 log.info("Disconnected from MQTT broker");
             }
@@ -274,15 +726,28 @@ public class MqttService {
         return connected && mqttClient != null && mqttClient.isConnected();
     }
     
+    public DeviceTelemetry getTelemetry(String deviceKey) {
+        return telemetryStateStore.get(deviceKey).orElse(null);
+    }
+    
+    public DeviceTelemetry getMostRecentTelemetry() {
+        return telemetryStateStore.getMostRecent().orElse(null);
+    }
+    
+    public Map<String, DeviceTelemetry> getAllTelemetry() {
+        return telemetryStateStore.getAll();
+    }
+    
+    // Legacy single-device view: the device that reported most recently
     public String getLastStatus() {
-        return lastStatus;
+        return telemetryStateStore.getMostRecent().map(DeviceTelemetry::status).orElse("off");
     }
     
     public Double getLastCurrent() {
-        return lastCurrent;
+        return telemetryStateStore.getMostRecent().map(DeviceTelemetry::current).orElse(0.0);
     }
     
     public Double getLastPower() {
-        return lastPower;
+        return telemetryStateStore.getMostRecent().map(DeviceTelemetry::power).orElse(0.0);
     }
 }
@@ -0,0 +1,156 @@
+package com.smartlight.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * File-backed append-only log of length-prefixed, CRC-checked records:
+ * [int length][int crc32][length bytes]. A torn or corrupt tail (e.g. after a crash mid-write)
+ * is detected on open and cut off, so every record read back is complete.
+ */
+public class AppendOnlyLog implements Closeable {
+
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+
+    private final Path path;
+    private volatile FileChannel channel;
+
+    public AppendOnlyLog(Path path) throws IOException {
+        this.path = path;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        this.channel = open(path);
+        long validEnd = scan(null);
+        if (validEnd < channel.size()) {
+            channel.truncate(validEnd);
+        }
+        channel.position(validEnd);
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public synchronized void append(byte[] record) throws IOException {
+        channel.write(frame(record));
+    }
+
+    /**
+     * Makes every record appended before the call durable. Not synchronized: appends may go on
+     * while the disk flushes, and are covered by the next force.
+     */
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Calls {@code consumer} with every complete record from the start of the log.
+     * The buffer passed in is only valid for the duration of the call.
+     */
+    public synchronized void replay(Consumer<ByteBuffer> consumer) throws IOException {
+        long end = channel.position();
+        scan(consumer);
+        channel.position(end);
+    }
+
+    /**
+     * Atomically replaces the log contents with {@code records} (write to temp file, then rename).
+     */
+    public synchronized void rewrite(List<byte[]> records) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (byte[] record : records) {
+                out.write(frame(record));
+            }
+            out.force(true);
+        }
+        channel.close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(path);
+        channel.position(channel.size());
+    }
+
+    /**
+     * Empties the log. Durable with the next {@link #force()}; until then a crash may bring back
+     * the old records.
+     */
+    public synchronized void truncate() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+    }
+
+    public synchronized long size() throws IOException {
+        return channel.position();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private static ByteBuffer frame(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + record.length);
+        buffer.putInt(record.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(record);
+        buffer.flip();
+        return buffer;
+    }
+
+    // Returns the offset just past the last valid record
+    private long scan(Consumer<ByteBuffer> consumer) throws IOException {
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int expectedCrc = header.getInt();
+            if (length < 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(body, position + HEADER_BYTES);
+            body.flip();
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            if (consumer != null) {
+                consumer.accept(body);
+            }
+            position += HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + path);
+            }
+            position += read;
+        }
+    }
+}
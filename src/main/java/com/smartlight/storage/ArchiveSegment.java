@@ -0,0 +1,529 @@
+package com.smartlight.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Immutable, memory-mapped file of archived light_data rows, compressed per device into columns:
+ * timestamps (delta-of-delta), ids (zigzag delta varints), current and power (Gorilla XOR) and
+ * on/off status (run-length). Written once through a temp file, an atomic rename and a directory fsync.
+ * The header also keeps each device's current and power sums and on count, so statistics over
+ * a window covering a device's whole series need no decoding.
+ * <p>
+ * A series is cut into blocks of up to {@link #BLOCK_ROWS} rows, each encoded from scratch, and
+ * the header lists every block's time range. That is the segment's time index: reads start at
+ * the first block that can hold the window instead of decoding the series from its first row.
+ * <pre>
+ * [int magic][int deviceCount]
+ * per device: [short keyLength][key][int rows][long minTs][long maxTs]
+ *             [double currentSum][double powerSum][int onCount][int blockCount]
+ *             per block: [int rows][long minTs][long maxTs][5 x int offset]
+ * column data
+ * </pre>
+ * Older segments are read as one block per series: LDA2 has the sums but no block index, LDA1
+ * neither and is always decoded.
+ */
+public class ArchiveSegment {
+
+    private static final int MAGIC_V1 = 0x4C444131; // "LDA1", no per-device sums
+    private static final int MAGIC_V2 = 0x4C444132; // "LDA2", one block per device
+    private static final int MAGIC = 0x4C444133; // "LDA3"
+    private static final int COLUMNS = 5;
+    static final int BLOCK_ROWS = 1024;
+
+    @FunctionalInterface
+    public interface RowConsumer {
+        void accept(String deviceKey, long id, long timestamp, boolean on, double current, double power);
+    }
+
+    @FunctionalInterface
+    public interface BlockConsumer {
+        void accept(long minTimestamp, long maxTimestamp, int rows);
+    }
+
+    /**
+     * Encodes one device's rows; they must arrive in (timestamp, id) order.
+     */
+    public static final class SeriesWriter {
+        private final String deviceKey;
+        private final int blockRows;
+        private final List<EncodedBlock> blocks = new ArrayList<>();
+        private GorillaCodec.TimestampEncoder timestamps;
+        private ByteArrayOutputStream ids;
+        private GorillaCodec.DoubleEncoder current;
+        private GorillaCodec.DoubleEncoder power;
+        private ByteArrayOutputStream status;
+        private int rows;
+        private long minTimestamp;
+        private long maxTimestamp;
+        private double currentSum;
+        private double powerSum;
+        private int onCount;
+        private int openRows;
+        private long openMinTimestamp;
+        private long previousId;
+        private boolean runValue;
+        private int runLength;
+
+        public SeriesWriter(String deviceKey) {
+            this(deviceKey, BLOCK_ROWS);
+        }
+
+        SeriesWriter(String deviceKey, int blockRows) {
+            this.deviceKey = deviceKey;
+            this.blockRows = blockRows;
+        }
+
+        public void add(long id, long timestamp, boolean on, double currentValue, double powerValue) {
+            if (openRows == blockRows) {
+                sealBlock();
+            }
+            if (openRows == 0) {
+                timestamps = new GorillaCodec.TimestampEncoder();
+                ids = new ByteArrayOutputStream();
+                current = new GorillaCodec.DoubleEncoder();
+                power = new GorillaCodec.DoubleEncoder();
+                status = new ByteArrayOutputStream();
+                openMinTimestamp = timestamp;
+                previousId = 0;
+            }
+            if (rows == 0) {
+                minTimestamp = timestamp;
+            }
+            maxTimestamp = timestamp;
+            timestamps.add(timestamp);
+            writeVarLong(ids, GorillaCodec.zigzag(id - previousId));
+            previousId = id;
+            current.add(currentValue);
+            power.add(powerValue);
+            currentSum += currentValue;
+            powerSum += powerValue;
+            if (on) {
+                onCount++;
+            }
+            if (runLength > 0 && on != runValue) {
+                flushRun();
+            }
+            runValue = on;
+            runLength++;
+            openRows++;
+            rows++;
+        }
+
+        public String getDeviceKey() {
+            return deviceKey;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        private void flushRun() {
+            status.write(runValue ? 1 : 0);
+            writeVarLong(status, runLength);
+            runLength = 0;
+        }
+
+        private void sealBlock() {
+            if (runLength > 0) {
+                flushRun();
+            }
+            blocks.add(new EncodedBlock(openRows, openMinTimestamp, maxTimestamp,
+                    new byte[][]{timestamps.toByteArray(), ids.toByteArray(), current.toByteArray(),
+                            power.toByteArray(), status.toByteArray()}));
+            openRows = 0;
+        }
+
+        List<EncodedBlock> blocks() {
+            if (openRows > 0) {
+                sealBlock();
+            }
+            return blocks;
+        }
+    }
+
+    private record EncodedBlock(int rows, long minTimestamp, long maxTimestamp, byte[][] columns) {
+    }
+
+    // Column offsets of rows encoded together, first row starting from fresh encoder state
+    private record Block(int rows, long minTimestamp, long maxTimestamp, int[] offsets) {
+    }
+
+    // Sums are NaN for LDA1 segments
+    private record DeviceEntry(String deviceKey, int rows, long minTimestamp, long maxTimestamp,
+                               double currentSum, double powerSum, int onCount, Block[] blocks) {
+        boolean hasSums() {
+            return !Double.isNaN(currentSum);
+        }
+
+        // First block that can hold a row at or after timestamp; blocks.length if none
+        int firstBlockFrom(long timestamp) {
+            int low = 0;
+            int high = blocks.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (blocks[mid].maxTimestamp() < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final Map<String, DeviceEntry> devices;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final long rows;
+
+    private ArchiveSegment(Path path, MappedByteBuffer buffer, Map<String, DeviceEntry> devices) {
+        this.path = path;
+        this.buffer = buffer;
+        this.devices = devices;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long total = 0;
+        for (DeviceEntry entry : devices.values()) {
+            min = Math.min(min, entry.minTimestamp());
+            max = Math.max(max, entry.maxTimestamp());
+            total += entry.rows();
+        }
+        this.minTimestamp = min;
+        this.maxTimestamp = max;
+        this.rows = total;
+    }
+
+    public static void write(Path path, List<SeriesWriter> series) throws IOException {
+        List<List<EncodedBlock>> blocks = new ArrayList<>(series.size());
+        int headerSize = 8;
+        for (SeriesWriter writer : series) {
+            List<EncodedBlock> seriesBlocks = writer.blocks();
+            blocks.add(seriesBlocks);
+            headerSize += 2 + writer.deviceKey.getBytes(StandardCharsets.UTF_8).length + 4 + 16 + 20 + 4
+                    + seriesBlocks.size() * (4 + 16 + COLUMNS * 4);
+        }
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(MAGIC).putInt(series.size());
+        int offset = headerSize;
+        for (int i = 0; i < series.size(); i++) {
+            SeriesWriter writer = series.get(i);
+            byte[] key = writer.deviceKey.getBytes(StandardCharsets.UTF_8);
+            header.putShort((short) key.length).put(key)
+                    .putInt(writer.rows).putLong(writer.minTimestamp).putLong(writer.maxTimestamp)
+                    .putDouble(writer.currentSum).putDouble(writer.powerSum).putInt(writer.onCount)
+                    .putInt(blocks.get(i).size());
+            for (EncodedBlock block : blocks.get(i)) {
+                header.putInt(block.rows()).putLong(block.minTimestamp()).putLong(block.maxTimestamp());
+                for (byte[] column : block.columns()) {
+                    header.putInt(offset);
+                    offset += column.length;
+                }
+            }
+        }
+        header.flip();
+
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header);
+            for (List<EncodedBlock> seriesBlocks : blocks) {
+                for (EncodedBlock block : seriesBlocks) {
+                    for (byte[] column : block.columns()) {
+                        writeFully(channel, ByteBuffer.wrap(column));
+                    }
+                }
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The rename lives in the directory: without this a crash can forget it after the caller
+        // has already dropped the source rows
+        syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    /**
+     * fsyncs a directory so renames and new entries in it survive a crash. A no-op on platforms
+     * that cannot open directories (Windows), where the rename is already durable on return.
+     */
+    public static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            if (!System.getProperty("os.name", "").toLowerCase().startsWith("windows")) {
+                throw e;
+            }
+        }
+    }
+
+    public static ArchiveSegment open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer header = buffer.duplicate();
+        int magic = header.getInt();
+        if (magic != MAGIC && magic != MAGIC_V2 && magic != MAGIC_V1) {
+            throw new IOException("Not an archive segment: " + path);
+        }
+        int deviceCount = header.getInt();
+        Map<String, DeviceEntry> devices = new LinkedHashMap<>();
+        for (int i = 0; i < deviceCount; i++) {
+            byte[] key = new byte[header.getShort()];
+            header.get(key);
+            int rows = header.getInt();
+            long min = header.getLong();
+            long max = header.getLong();
+            double currentSum = Double.NaN;
+            double powerSum = Double.NaN;
+            int onCount = 0;
+            if (magic != MAGIC_V1) {
+                currentSum = header.getDouble();
+                powerSum = header.getDouble();
+                onCount = header.getInt();
+            }
+            Block[] blocks;
+            if (magic == MAGIC) {
+                blocks = new Block[header.getInt()];
+                for (int b = 0; b < blocks.length; b++) {
+                    int blockRows = header.getInt();
+                    long blockMin = header.getLong();
+                    long blockMax = header.getLong();
+                    int[] offsets = new int[COLUMNS];
+                    for (int c = 0; c < COLUMNS; c++) {
+                        offsets[c] = header.getInt();
+                    }
+                    blocks[b] = new Block(blockRows, blockMin, blockMax, offsets);
+                }
+            } else {
+                int[] offsets = new int[COLUMNS];
+                for (int c = 0; c < COLUMNS; c++) {
+                    offsets[c] = header.getInt();
+                    header.getInt(); // length, implied by the row count
+                }
+                blocks = new Block[]{new Block(rows, min, max, offsets)};
+            }
+            String deviceKey = new String(key, StandardCharsets.UTF_8);
+            devices.put(deviceKey, new DeviceEntry(deviceKey, rows, min, max, currentSum, powerSum, onCount, blocks));
+        }
+        return new ArchiveSegment(path, buffer, devices);
+    }
+
+    /**
+     * Rows with minTimestamp <= timestamp <= maxTimestamp in (timestamp, id) order, merged across
+     * devices (or for one device when deviceKey is given). Decoding is streamed column by column
+     * and starts at each series' first block reaching minTimestamp.
+     */
+    public void scan(String deviceKey, long from, long to, RowConsumer consumer) {
+        if (from > maxTimestamp || to < minTimestamp) {
+            return;
+        }
+        PriorityQueue<SeriesCursor> queue = new PriorityQueue<>((a, b) -> a.timestamp != b.timestamp
+                ? Long.compare(a.timestamp, b.timestamp) : Long.compare(a.id, b.id));
+        for (DeviceEntry entry : deviceKey == null ? devices.values() : devicesFor(deviceKey)) {
+            if (entry.minTimestamp() > to || entry.maxTimestamp() < from) {
+                continue;
+            }
+            SeriesCursor cursor = new SeriesCursor(entry, from);
+            while (cursor.advance() && cursor.timestamp < from) {
+                // skip to the window
+            }
+            if (cursor.valid && cursor.timestamp <= to) {
+                queue.add(cursor);
+            }
+        }
+        while (!queue.isEmpty()) {
+            SeriesCursor cursor = queue.poll();
+            consumer.accept(cursor.entry.deviceKey(), cursor.id, cursor.timestamp, cursor.on, cursor.current, cursor.power);
+            if (cursor.advance() && cursor.timestamp <= to) {
+                queue.add(cursor);
+            }
+        }
+    }
+
+    /**
+     * Adds count, current sum, power sum and on count of the rows with from <= timestamp <= to
+     * (for one device when deviceKey is given) to {@code sums}. Series lying wholly inside the
+     * window are taken from the header; only those crossing a bound are decoded.
+     */
+    public void summarize(String deviceKey, long from, long to, double[] sums) {
+        if (from > maxTimestamp || to < minTimestamp) {
+            return;
+        }
+        for (DeviceEntry entry : deviceKey == null ? devices.values() : devicesFor(deviceKey)) {
+            if (entry.minTimestamp() > to || entry.maxTimestamp() < from) {
+                continue;
+            }
+            if (entry.hasSums() && entry.minTimestamp() >= from && entry.maxTimestamp() <= to) {
+                sums[0] += entry.rows();
+                sums[1] += entry.currentSum();
+                sums[2] += entry.powerSum();
+                sums[3] += entry.onCount();
+                continue;
+            }
+            SeriesCursor cursor = new SeriesCursor(entry, from);
+            while (cursor.advance()) {
+                if (cursor.timestamp > to) {
+                    break;
+                }
+                if (cursor.timestamp >= from) {
+                    sums[0]++;
+                    sums[1] += cursor.current;
+                    sums[2] += cursor.power;
+                    if (cursor.on) {
+                        sums[3]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Time range and row count of every block overlapping from <= timestamp <= to, without decoding.
+     */
+    public void blocks(String deviceKey, long from, long to, BlockConsumer consumer) {
+        if (from > maxTimestamp || to < minTimestamp) {
+            return;
+        }
+        for (DeviceEntry entry : deviceKey == null ? devices.values() : devicesFor(deviceKey)) {
+            for (int b = entry.firstBlockFrom(from); b < entry.blocks().length; b++) {
+                Block block = entry.blocks()[b];
+                if (block.minTimestamp() > to) {
+                    break;
+                }
+                consumer.accept(block.minTimestamp(), block.maxTimestamp(), block.rows());
+            }
+        }
+    }
+
+    private List<DeviceEntry> devicesFor(String deviceKey) {
+        DeviceEntry entry = devices.get(deviceKey);
+        return entry == null ? Collections.emptyList() : List.of(entry);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getSizeBytes() {
+        return buffer.capacity();
+    }
+
+    private final class SeriesCursor {
+        final DeviceEntry entry;
+        int block;
+        GorillaCodec.TimestampDecoder timestamps;
+        ByteBuffer ids;
+        GorillaCodec.DoubleDecoder currents;
+        GorillaCodec.DoubleDecoder powers;
+        ByteBuffer status;
+        int remaining;
+        int runRemaining;
+        boolean runValue;
+
+        boolean valid;
+        long timestamp;
+        long id;
+        boolean on;
+        double current;
+        double power;
+
+        // Positioned before the first row of the first block that can hold one at or after from
+        SeriesCursor(DeviceEntry entry, long from) {
+            this.entry = entry;
+            this.block = entry.firstBlockFrom(from) - 1;
+        }
+
+        private boolean openNextBlock() {
+            if (++block >= entry.blocks().length) {
+                return false;
+            }
+            int[] offsets = entry.blocks()[block].offsets();
+            timestamps = new GorillaCodec.TimestampDecoder(new BitInput(buffer, offsets[0]));
+            ids = buffer.duplicate().position(offsets[1]);
+            currents = new GorillaCodec.DoubleDecoder(new BitInput(buffer, offsets[2]));
+            powers = new GorillaCodec.DoubleDecoder(new BitInput(buffer, offsets[3]));
+            status = buffer.duplicate().position(offsets[4]);
+            remaining = entry.blocks()[block].rows();
+            runRemaining = 0;
+            id = 0;
+            return true;
+        }
+
+        boolean advance() {
+            if (remaining == 0 && !openNextBlock()) {
+                valid = false;
+                return false;
+            }
+            remaining--;
+            timestamp = timestamps.next();
+            id += GorillaCodec.unzigzag(readVarLong(ids));
+            current = currents.next();
+            power = powers.next();
+            if (runRemaining == 0) {
+                runValue = status.get() != 0;
+                runRemaining = (int) readVarLong(status);
+            }
+            runRemaining--;
+            on = runValue;
+            valid = true;
+            return true;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,33 @@
+package com.smartlight.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a {@link BitOutput} stream from a region of a (usually memory-mapped) buffer.
+ */
+public class BitInput {
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private long bitPosition;
+
+    public BitInput(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    public boolean readBit() {
+        int b = buffer.get(offset + (int) (bitPosition >>> 3));
+        boolean bit = (b & (0x80 >>> (bitPosition & 7))) != 0;
+        bitPosition++;
+        return bit;
+    }
+
+    public long readBits(int count) {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 1) | (readBit() ? 1 : 0);
+        }
+        return value;
+    }
+}
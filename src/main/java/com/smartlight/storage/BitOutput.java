@@ -0,0 +1,38 @@
+package com.smartlight.storage;
+
+import java.util.Arrays;
+
+/**
+ * Growable big-endian bit stream used by the archive encoders.
+ */
+public class BitOutput {
+
+    private byte[] bytes = new byte[256];
+    private long bitLength;
+
+    public void writeBit(boolean bit) {
+        ensure(bitLength + 1);
+        if (bit) {
+            bytes[(int) (bitLength >>> 3)] |= (byte) (0x80 >>> (bitLength & 7));
+        }
+        bitLength++;
+    }
+
+    // Lowest `count` bits of value, most significant first
+    public void writeBits(long value, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            writeBit(((value >>> i) & 1) != 0);
+        }
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, (int) ((bitLength + 7) >>> 3));
+    }
+
+    private void ensure(long bits) {
+        int needed = (int) ((bits + 7) >>> 3);
+        if (needed > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+        }
+    }
+}
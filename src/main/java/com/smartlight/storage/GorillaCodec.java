@@ -0,0 +1,176 @@
+package com.smartlight.storage;
+
+/**
+ * Column encodings from Facebook's Gorilla paper, as used by the telemetry archive.
+ * Timestamps: delta-of-delta with variable-width buckets, so a steady reporting interval costs
+ * one bit per reading. Doubles: XOR with the previous value, storing only the meaningful bits,
+ * so an unchanged reading costs one bit and a small change a few bits.
+ */
+public final class GorillaCodec {
+
+    private GorillaCodec() {
+    }
+
+    public static final class TimestampEncoder {
+        private final BitOutput out = new BitOutput();
+        private long previous;
+        private long previousDelta;
+        private int count;
+
+        public void add(long timestamp) {
+            if (count == 0) {
+                out.writeBits(timestamp, 64);
+            } else if (count == 1) {
+                previousDelta = timestamp - previous;
+                out.writeBits(previousDelta, 64);
+            } else {
+                long delta = timestamp - previous;
+                // Unsigned: jumps near the long range zigzag above 2^63
+                long zigzag = zigzag(delta - previousDelta);
+                if (zigzag == 0) {
+                    out.writeBit(false);
+                } else if (zigzag >>> 7 == 0) {
+                    out.writeBits(0b10, 2);
+                    out.writeBits(zigzag, 7);
+                } else if (zigzag >>> 9 == 0) {
+                    out.writeBits(0b110, 3);
+                    out.writeBits(zigzag, 9);
+                } else if (zigzag >>> 12 == 0) {
+                    out.writeBits(0b1110, 4);
+                    out.writeBits(zigzag, 12);
+                } else if (zigzag >>> 32 == 0) {
+                    out.writeBits(0b11110, 5);
+                    out.writeBits(zigzag, 32);
+                } else {
+                    out.writeBits(0b11111, 5);
+                    out.writeBits(zigzag, 64);
+                }
+                previousDelta = delta;
+            }
+            previous = timestamp;
+            count++;
+        }
+
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    public static final class TimestampDecoder {
+        private final BitInput in;
+        private long previous;
+        private long previousDelta;
+        private int count;
+
+        public TimestampDecoder(BitInput in) {
+            this.in = in;
+        }
+
+        public long next() {
+            if (count == 0) {
+                previous = in.readBits(64);
+            } else if (count == 1) {
+                previousDelta = in.readBits(64);
+                previous += previousDelta;
+            } else {
+                int width;
+                if (!in.readBit()) {
+                    width = 0;
+                } else if (!in.readBit()) {
+                    width = 7;
+                } else if (!in.readBit()) {
+                    width = 9;
+                } else if (!in.readBit()) {
+                    width = 12;
+                } else {
+                    width = in.readBit() ? 64 : 32;
+                }
+                long deltaOfDelta = width == 0 ? 0 : unzigzag(in.readBits(width));
+                previousDelta += deltaOfDelta;
+                previous += previousDelta;
+            }
+            count++;
+            return previous;
+        }
+    }
+
+    public static final class DoubleEncoder {
+        private final BitOutput out = new BitOutput();
+        private long previous;
+        private int previousLeading = -1;
+        private int previousTrailing;
+        private boolean first = true;
+
+        public void add(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (first) {
+                out.writeBits(bits, 64);
+                first = false;
+                previous = bits;
+                return;
+            }
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.writeBit(false);
+                return;
+            }
+            out.writeBit(true);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                // Fits in the previous meaningful-bit window
+                out.writeBit(false);
+                out.writeBits(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int significant = 64 - leading - trailing;
+                out.writeBit(true);
+                out.writeBits(leading, 5);
+                out.writeBits(significant - 1, 6);
+                out.writeBits(xor >>> trailing, significant);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    public static final class DoubleDecoder {
+        private final BitInput in;
+        private long previous;
+        private int previousLeading;
+        private int previousTrailing;
+        private boolean first = true;
+
+        public DoubleDecoder(BitInput in) {
+            this.in = in;
+        }
+
+        public double next() {
+            if (first) {
+                first = false;
+                previous = in.readBits(64);
+            } else if (in.readBit()) {
+                if (in.readBit()) {
+                    previousLeading = (int) in.readBits(5);
+                    int significant = (int) in.readBits(6) + 1;
+                    previousTrailing = 64 - previousLeading - significant;
+                }
+                long xor = in.readBits(64 - previousLeading - previousTrailing) << previousTrailing;
+                previous ^= xor;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
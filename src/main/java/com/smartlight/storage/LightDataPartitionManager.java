@@ -0,0 +1,380 @@
+package com.smartlight.storage;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps light_data as a PostgreSQL table range-partitioned on timestamp.
+ * <p>
+ * Runs before the JPA EntityManagerFactory (see {@code StorageConfig}) so Hibernate's ddl-auto
+ * finds the partitioned table already in place, and startup fails if it cannot. A legacy heap
+ * table is not copied: it is attached as the partition covering everything up to the end of its
+ * newest interval. Upcoming partitions are created ahead of time; retention drops whole partitions
+ * instead of deleting rows. Every pass holds a transaction-scoped advisory lock so replicas never
+ * race on DDL.
+ * <p>
+ * Rows no range partition covers (late readings or spill replays for a month already dropped or
+ * archived, clocks far ahead) land in light_data_default. Each maintenance pass moves them into a
+ * new partition for their interval, which retention and archiving then treat like any other;
+ * rows already past retention are deleted instead.
+ */
+@Component
+@Slf4j
+public class LightDataPartitionManager {
+
+    private static final String TABLE = "light_data";
+    private static final String DEFAULT_PARTITION = "light_data_default";
+    private static final Pattern BOUND = Pattern.compile(
+            "FROM \\((?:'([^']+)'|MINVALUE)\\) TO \\((?:'([^']+)'|MAXVALUE)\\)");
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final String DROP_LOCK_TIMEOUT = "10s";
+
+    public enum Interval {
+        DAY, WEEK, MONTH;
+
+        LocalDateTime floor(LocalDateTime time) {
+            LocalDateTime day = time.truncatedTo(ChronoUnit.DAYS);
+            return switch (this) {
+                case DAY -> day;
+                case WEEK -> day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH -> day.withDayOfMonth(1);
+            };
+        }
+
+        LocalDateTime next(LocalDateTime start) {
+            return switch (this) {
+                case DAY -> start.plusDays(1);
+                case WEEK -> start.plusWeeks(1);
+                case MONTH -> start.plusMonths(1);
+            };
+        }
+    }
+
+    public record Partition(String name, LocalDateTime from, LocalDateTime to) {
+        // null from = MINVALUE, null to = MAXVALUE
+        boolean overlaps(LocalDateTime start, LocalDateTime end) {
+            return (from == null || from.isBefore(end)) && (to == null || to.isAfter(start));
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Interval interval;
+    private final int premake;
+    private final long retentionDays;
+
+    public LightDataPartitionManager(DataSource dataSource,
+                                     @Value("${telemetry.partitioning.enabled:true}") boolean enabled,
+                                     @Value("${telemetry.partitioning.interval:MONTH}") Interval interval,
+                                     @Value("${telemetry.partitioning.premake:3}") int premake,
+                                     @Value("${telemetry.partitioning.retention-days:0}") long retentionDays) {
+        // Own JDBC transaction manager: the JPA one does not exist yet when this runs
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.enabled = enabled;
+        this.interval = interval;
+        this.premake = premake;
+        this.retentionDays = retentionDays;
+    }
+
+    // Without partitions every reading outside the premade range would be rejected, so do not start
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(tx -> {
+            lock();
+            String relkind = relkind(TABLE);
+            if (relkind == null) {
+                createParent();
+            } else if ("r".equals(relkind)) {
+                convertLegacyTable();
+            } else if (!"p".equals(relkind)) {
+                throw new IllegalStateException(TABLE + " exists but is neither a table nor a partitioned table");
+            }
+            createDefaultPartition();
+        });
+        runMaintenance();
+    }
+
+    @Scheduled(cron = "${telemetry.partitioning.maintenance-cron:0 5 0 * * *}")
+    public void maintain() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            runMaintenance();
+        } catch (Exception e) {
+            log.error("light_data partition maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    private void runMaintenance() {
+        transactionTemplate.executeWithoutResult(tx -> {
+            lock();
+            if (!"p".equals(relkind(TABLE))) {
+                return;
+            }
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime cutoff = retentionDays > 0 ? now.minusDays(retentionDays) : null;
+            createUpcomingPartitions(now);
+            rehomeDefaultRows(cutoff);
+            if (cutoff != null) {
+                dropExpiredPartitions(cutoff);
+            }
+        });
+    }
+
+    public List<Partition> listPartitions() {
+        List<Partition> partitions = new ArrayList<>();
+        jdbcTemplate.query(
+                "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i " +
+                "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = to_regclass(?) ORDER BY c.relname",
+                rs -> {
+                    Partition partition = partition(rs.getString(1), rs.getString(2));
+                    if (partition != null) {
+                        partitions.add(partition);
+                    }
+                }, TABLE);
+        return partitions;
+    }
+
+    // From pg_get_expr(relpartbound): null for the default partition ("DEFAULT")
+    static Partition partition(String name, String bound) {
+        Matcher m = BOUND.matcher(bound);
+        return m.find() ? new Partition(name, parse(m.group(1)), parse(m.group(2))) : null;
+    }
+
+    /**
+     * Drops one partition of light_data, e.g. once its rows have been archived. Readers hold
+     * ACCESS SHARE on light_data for their whole transaction (an export can take minutes) and
+     * would queue behind the waiting DROP, so it gives up after a short wait and is retried.
+     */
+    public void dropPartition(String name) {
+        transactionTemplate.executeWithoutResult(tx -> {
+            lock();
+            jdbcTemplate.execute("SET LOCAL lock_timeout = '" + DROP_LOCK_TIMEOUT + "'");
+            if (listPartitions().stream().noneMatch(p -> p.name().equals(name))) {
+                throw new IllegalArgumentException(name + " is not a partition of " + TABLE);
+            }
+            jdbcTemplate.execute("DROP TABLE " + name);
+        });
+        log.info("Dropped partition {}", name);
+    }
+
+    private void createParent() {
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS light_data_id_seq");
+        jdbcTemplate.execute("CREATE TABLE light_data (" +
+                "id bigint NOT NULL DEFAULT nextval('light_data_id_seq'), " +
+                "device_key varchar(255), " +
+                "status varchar(255) NOT NULL, " +
+                "current double precision NOT NULL, " +
+                "power double precision NOT NULL, " +
+                "timestamp timestamp(6) NOT NULL, " +
+                "PRIMARY KEY (id, timestamp)" +
+                ") PARTITION BY RANGE (timestamp)");
+        jdbcTemplate.execute("ALTER SEQUENCE light_data_id_seq OWNED BY light_data.id");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_light_data_timestamp_id ON light_data (timestamp, id)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_light_data_device_key_timestamp ON light_data (device_key, timestamp)");
+        log.info("Created light_data partitioned by {} on timestamp", interval);
+    }
+
+    private void createDefaultPartition() {
+        if (defaultPartition() == null) {
+            jdbcTemplate.execute("CREATE TABLE " + DEFAULT_PARTITION + " PARTITION OF light_data DEFAULT");
+            log.info("Created default partition {}", DEFAULT_PARTITION);
+        }
+    }
+
+    // Name of light_data's default partition, or null if it has none
+    private String defaultPartition() {
+        List<String> names = jdbcTemplate.queryForList("SELECT c.relname FROM pg_partitioned_table t " +
+                "JOIN pg_class c ON c.oid = t.partdefid WHERE t.partrelid = to_regclass(?)", String.class, TABLE);
+        return names.isEmpty() ? null : names.get(0);
+    }
+
+    private void convertLegacyTable() {
+        Timestamp newest = jdbcTemplate.queryForObject("SELECT MAX(timestamp) FROM light_data", Timestamp.class);
+        Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM light_data", Long.class);
+
+        jdbcTemplate.execute("ALTER TABLE light_data RENAME TO light_data_legacy");
+        jdbcTemplate.execute("ALTER TABLE light_data_legacy DROP CONSTRAINT IF EXISTS light_data_pkey");
+        renameLegacyIndexes();
+        jdbcTemplate.execute("ALTER TABLE light_data_legacy ALTER COLUMN id DROP IDENTITY IF EXISTS");
+        jdbcTemplate.execute("ALTER TABLE light_data_legacy ALTER COLUMN id DROP DEFAULT");
+        jdbcTemplate.execute("ALTER TABLE light_data_legacy ALTER COLUMN id SET NOT NULL");
+        // Tables from before per-device topics have no device_key; ATTACH needs identical columns
+        jdbcTemplate.execute("ALTER TABLE light_data_legacy ADD COLUMN IF NOT EXISTS device_key varchar(255)");
+        createParent();
+        jdbcTemplate.execute("SELECT setval('light_data_id_seq', " + ((maxId != null ? maxId : 0) + 1) + ", false)");
+
+        if (newest == null) {
+            jdbcTemplate.execute("DROP TABLE light_data_legacy");
+            log.info("Replaced empty light_data heap table with a partitioned table");
+            return;
+        }
+        // The CHECK lets ATTACH skip the validation scan of the legacy rows
+        String bound = Timestamp.valueOf(interval.next(interval.floor(newest.toLocalDateTime()))).toString();
+        jdbcTemplate.execute("ALTER TABLE light_data_legacy ADD CONSTRAINT light_data_legacy_range " +
+                "CHECK (timestamp IS NOT NULL AND timestamp < '" + bound + "')");
+        jdbcTemplate.execute("ALTER TABLE light_data ATTACH PARTITION light_data_legacy " +
+                "FOR VALUES FROM (MINVALUE) TO ('" + bound + "')");
+        log.info("Converted light_data to a partitioned table; existing rows kept in light_data_legacy (< {})", bound);
+    }
+
+    /**
+     * Indexes keep their names when the table is renamed, and createParent() uses
+     * CREATE INDEX IF NOT EXISTS: any legacy index still called like a parent index (or one
+     * Hibernate generated) would make that a silent no-op. Rename them all out of the way.
+     */
+    private void renameLegacyIndexes() {
+        List<String> indexes = jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid " +
+                "WHERE i.indrelid = to_regclass('light_data_legacy')", String.class);
+        for (String index : indexes) {
+            String renamed = legacyIndexName(index);
+            if (renamed != null) {
+                jdbcTemplate.execute("ALTER INDEX \"" + index + "\" RENAME TO \"" + renamed + "\"");
+            }
+        }
+    }
+
+    // New name for an index of the legacy table, or null if it is already out of the way
+    static String legacyIndexName(String index) {
+        if (index.startsWith("light_data_legacy") || index.contains("_light_data_legacy")) {
+            return null;
+        }
+        String renamed = index.contains(TABLE) ? index.replaceFirst(TABLE, TABLE + "_legacy") : index + "_legacy";
+        // PostgreSQL identifiers are at most 63 bytes
+        return renamed.length() > 63 ? renamed.substring(0, 63) : renamed;
+    }
+
+    private void createUpcomingPartitions(LocalDateTime now) {
+        List<Partition> existing = listPartitions();
+        LocalDateTime start = interval.floor(now);
+        for (int i = 0; i <= premake; i++) {
+            LocalDateTime end = interval.next(start);
+            LocalDateTime from = start;
+            if (existing.stream().noneMatch(p -> p.overlaps(from, end))) {
+                String name = TABLE + "_p" + SUFFIX.format(start);
+                createPartition(name, start, end);
+                log.info("Created partition {} [{}, {})", name, start, end);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Moves the rows of light_data_default into a new partition per interval. The new partition
+     * gets a unique name: the interval may already have an archive segment under the plain one.
+     */
+    private void rehomeDefaultRows(LocalDateTime cutoff) {
+        String defaultPartition = defaultPartition();
+        if (defaultPartition == null) {
+            return;
+        }
+        if (cutoff != null) {
+            int expired = jdbcTemplate.update("DELETE FROM " + defaultPartition + " WHERE timestamp < ?",
+                    Timestamp.valueOf(cutoff));
+            if (expired > 0) {
+                log.info("Deleted {} rows of {} past {} days retention", expired, defaultPartition, retentionDays);
+            }
+        }
+        List<LocalDateTime> intervals = new ArrayList<>();
+        for (Timestamp start : jdbcTemplate.queryForList("SELECT DISTINCT date_trunc('" + truncUnit() + "', timestamp) " +
+                "FROM " + defaultPartition + " ORDER BY 1", Timestamp.class)) {
+            intervals.add(start.toLocalDateTime());
+        }
+        if (intervals.isEmpty()) {
+            return;
+        }
+        List<Partition> existing = listPartitions();
+        String suffix = "_r" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+        for (LocalDateTime start : intervals) {
+            LocalDateTime end = interval.next(start);
+            if (existing.stream().anyMatch(p -> p.overlaps(start, end))) {
+                // Only after an interval change: the rows stay readable in the default partition
+                log.warn("Rows of {} in [{}, {}) overlap an existing partition, leaving them there",
+                        defaultPartition, start, end);
+                continue;
+            }
+            String name = TABLE + "_p" + SUFFIX.format(start) + suffix;
+            int moved = createPartition(name, start, end);
+            log.info("Moved {} rows from {} into new partition {} [{}, {})", moved, defaultPartition, name, start, end);
+        }
+    }
+
+    /**
+     * Creates and attaches a partition, first moving any rows for its range out of the default
+     * partition (attaching fails while the default still holds some). Writers to the default
+     * partition wait for the enclosing transaction.
+     */
+    private int createPartition(String name, LocalDateTime from, LocalDateTime to) {
+        String bounds = "FROM ('" + Timestamp.valueOf(from) + "') TO ('" + Timestamp.valueOf(to) + "')";
+        String defaultPartition = defaultPartition();
+        if (defaultPartition == null) {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF light_data FOR VALUES " + bounds);
+            return 0;
+        }
+        jdbcTemplate.execute("LOCK TABLE " + defaultPartition + " IN ACCESS EXCLUSIVE MODE");
+        jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE light_data INCLUDING DEFAULTS)");
+        int moved = jdbcTemplate.update("WITH moved AS (DELETE FROM " + defaultPartition +
+                " WHERE timestamp >= ? AND timestamp < ? RETURNING id, device_key, status, current, power, timestamp) " +
+                "INSERT INTO " + name + " (id, device_key, status, current, power, timestamp) SELECT * FROM moved",
+                Timestamp.valueOf(from), Timestamp.valueOf(to));
+        jdbcTemplate.execute("ALTER TABLE light_data ATTACH PARTITION " + name + " FOR VALUES " + bounds);
+        return moved;
+    }
+
+    private String truncUnit() {
+        return switch (interval) {
+            case DAY -> "day";
+            case WEEK -> "week"; // ISO weeks start on Monday, like Interval.WEEK
+            case MONTH -> "month";
+        };
+    }
+
+    private void dropExpiredPartitions(LocalDateTime cutoff) {
+        for (Partition partition : listPartitions()) {
+            if (partition.to() != null && !partition.to().isAfter(cutoff)) {
+                jdbcTemplate.execute("DROP TABLE " + partition.name());
+                log.info("Dropped partition {} (data before {}) past {} days retention",
+                        partition.name(), partition.to(), retentionDays);
+            }
+        }
+    }
+
+    private void lock() {
+        jdbcTemplate.execute("SELECT pg_advisory_xact_lock(hashtext('light_data_partitioning'))");
+    }
+
+    private String relkind(String table) {
+        List<String> kinds = jdbcTemplate.queryForList(
+                "SELECT c.relkind::text FROM pg_class c WHERE c.oid = to_regclass(?)", String.class, table);
+        return kinds.isEmpty() ? null : kinds.get(0);
+    }
+
+    private static LocalDateTime parse(String bound) {
+        return bound == null ? null : Timestamp.valueOf(bound).toLocalDateTime();
+    }
+}
@@ -0,0 +1,139 @@
+package com.smartlight.telemetry;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * DDSketch quantile sketch (Masson, Rim and Lee, 2019) for non-negative readings.
+ * Values fall into logarithmic bins of ratio gamma = (1 + a) / (1 - a), so any quantile is
+ * returned within relative error a of the true value. Sketches merge exactly by adding bin
+ * counts, which is what lets bucket sketches be combined into any period.
+ * Values at or below {@link #MIN_VALUE} (an "off" light) are counted in a separate zero bin.
+ */
+public class DDSketch {
+
+    public static final double RELATIVE_ACCURACY = 0.01;
+    private static final double MIN_VALUE = 1e-6;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final int MAX_BINS = 4096;
+    private static final int MIN_INDEX = (int) Math.ceil(Math.log(MIN_VALUE) / LOG_GAMMA);
+
+    private long zeroCount;
+    private long[] counts = new long[0];
+    private int offset; // bin index of counts[0]
+    private long count;
+
+    public void add(double value) {
+        count++;
+        if (!(value > MIN_VALUE)) {
+            zeroCount++;
+            return;
+        }
+        // Absurdly large values share the top bin instead of growing the array without bound
+        int index = Math.min((int) Math.ceil(Math.log(value) / LOG_GAMMA), MIN_INDEX + MAX_BINS - 1);
+        grow(index, index);
+        counts[index - offset]++;
+    }
+
+    public void merge(DDSketch other) {
+        count += other.count;
+        zeroCount += other.zeroCount;
+        if (other.counts.length == 0) {
+            return;
+        }
+        grow(other.offset, other.offset + other.counts.length - 1);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[other.offset + i - offset] += other.counts[i];
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Value at quantile q in [0, 1], or NaN for an empty sketch.
+     */
+    public double getValueAtQuantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.floor(Math.max(0, Math.min(1, q)) * (count - 1));
+        if (rank < zeroCount) {
+            return 0;
+        }
+        long seen = zeroCount;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                return 2 * Math.pow(GAMMA, offset + i) / (GAMMA + 1);
+            }
+        }
+        return 2 * Math.pow(GAMMA, offset + counts.length - 1) / (GAMMA + 1);
+    }
+
+    // Varints: [count][zeroCount][zigzag offset][bins][bins x count]; empty bins cost one byte
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + counts.length);
+        writeVarLong(out, count);
+        writeVarLong(out, zeroCount);
+        writeVarLong(out, (offset << 1) ^ (offset >> 31));
+        writeVarLong(out, counts.length);
+        for (long c : counts) {
+            writeVarLong(out, c);
+        }
+        return out.toByteArray();
+    }
+
+    public static DDSketch fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        DDSketch sketch = new DDSketch();
+        sketch.count = readVarLong(buffer);
+        sketch.zeroCount = readVarLong(buffer);
+        int zigzag = (int) readVarLong(buffer);
+        sketch.offset = (zigzag >>> 1) ^ -(zigzag & 1);
+        sketch.counts = new long[(int) readVarLong(buffer)];
+        for (int i = 0; i < sketch.counts.length; i++) {
+            sketch.counts[i] = readVarLong(buffer);
+        }
+        return sketch;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private void grow(int minIndex, int maxIndex) {
+        if (counts.length == 0) {
+            offset = minIndex;
+            counts = new long[maxIndex - minIndex + 1];
+            return;
+        }
+        int newMin = Math.min(offset, minIndex);
+        int newMax = Math.max(offset + counts.length - 1, maxIndex);
+        if (newMin == offset && newMax == offset + counts.length - 1) {
+            return;
+        }
+        long[] grown = new long[newMax - newMin + 1];
+        System.arraycopy(counts, 0, grown, offset - newMin, counts.length);
+        counts = grown;
+        offset = newMin;
+    }
+}
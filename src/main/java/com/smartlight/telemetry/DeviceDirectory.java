@@ -0,0 +1,40 @@
+package com.smartlight.telemetry;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Device keys of every registered device: Device.mqttTopic and MobileDevice.topic, plus the device
+ * behind the legacy mqtt.topic.status, which is not necessarily registered. Keys that are not
+ * usable as a topic prefix (empty, or containing a wildcard) are left out.
+ */
+@Component
+public class DeviceDirectory {
+
+    private static final String DEVICE_TOPICS_SQL =
+            "SELECT mqtt_topic FROM devices WHERE mqtt_topic IS NOT NULL " +
+            "UNION SELECT topic FROM mobile_devices WHERE topic IS NOT NULL";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String statusTopic;
+
+    public DeviceDirectory(JdbcTemplate jdbcTemplate,
+                           @Value("${mqtt.topic.status:/light/status}") String statusTopic) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.statusTopic = statusTopic;
+    }
+
+    public Set<String> deviceKeys() {
+        Set<String> keys = new TreeSet<>();
+        keys.add(TelemetryTopics.deviceKey(statusTopic));
+        for (String topic : jdbcTemplate.queryForList(DEVICE_TOPICS_SQL, String.class)) {
+            keys.add(TelemetryTopics.deviceKey(topic.trim()));
+        }
+        keys.removeIf(key -> key.isEmpty() || key.contains("+") || key.contains("#"));
+        return keys;
+    }
+}
@@ -0,0 +1,197 @@
+package com.smartlight.telemetry;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits telemetry ingestion across backend replicas by device. In cluster mode every replica
+ * heartbeats into {@link IngestionMembership}, and each registered device ({@link DeviceDirectory})
+ * is owned by one live replica, chosen by rendezvous hashing over the live node ids, so a replica
+ * joining or leaving only moves the devices it gains or loses. Only the owner subscribes to a
+ * device's topics: it alone receives, decodes, keeps in-memory state for and persists the device,
+ * and sees all of its messages in order.
+ * <p>
+ * A node whose heartbeats keep failing for longer than the liveness timeout gives up all of its
+ * devices, since its peers have reassigned them by then. Listeners run on the heartbeat thread after
+ * every heartbeat and when the devices are given up, so they may do blocking I/O.
+ * <p>
+ * Without cluster mode this process owns every device and never touches the membership table.
+ */
+@Component
+@Slf4j
+public class DevicePartitioner {
+
+    private final boolean clustered;
+    private final IngestionMembership membership;
+    private final DeviceDirectory directory;
+    private final long heartbeatIntervalMs;
+    private final long livenessTimeoutMs;
+    private final long settleMs;
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private volatile List<String> nodes = List.of();
+    private volatile Set<String> ownedDevices = Set.of();
+    // Only touched from the heartbeat thread
+    private long lastHeartbeatMillis;
+    private ScheduledExecutorService heartbeats;
+
+    public DevicePartitioner(@Value("${mqtt.ingestion.cluster.enabled:false}") boolean clustered,
+                             IngestionMembership membership,
+                             DeviceDirectory directory,
+                             @Value("${mqtt.ingestion.cluster.heartbeat-interval-ms:5000}") long heartbeatIntervalMs,
+                             @Value("${mqtt.ingestion.cluster.liveness-timeout-ms:15000}") long livenessTimeoutMs,
+                             @Value("${mqtt.ingestion.cluster.settle-ms:10000}") long settleMs) {
+        if (heartbeatIntervalMs <= 0 || livenessTimeoutMs <= heartbeatIntervalMs) {
+            throw new IllegalArgumentException(
+                    "mqtt.ingestion.cluster.liveness-timeout-ms must be longer than heartbeat-interval-ms");
+        }
+        if (settleMs < heartbeatIntervalMs) {
+            throw new IllegalArgumentException("mqtt.ingestion.cluster.settle-ms must be at least heartbeat-interval-ms");
+        }
+        this.clustered = clustered;
+        this.membership = membership;
+        this.directory = directory;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+        this.livenessTimeoutMs = livenessTimeoutMs;
+        this.settleMs = settleMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!clustered) {
+            return;
+        }
+        heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ingestion-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats.scheduleWithFixedDelay(this::refresh, 0, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (heartbeats == null) {
+            return;
+        }
+        heartbeats.shutdownNow();
+        membership.leave();
+    }
+
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        List<String> live;
+        Set<String> devices;
+        try {
+            live = membership.heartbeat();
+            devices = directory.deviceKeys();
+            lastHeartbeatMillis = now;
+        } catch (Exception e) {
+            if (!ownedDevices.isEmpty() && now - lastHeartbeatMillis > livenessTimeoutMs) {
+                log.error("Ingestion heartbeats failing for over {} ms, giving up {} devices: {}",
+                        livenessTimeoutMs, ownedDevices.size(), e.getMessage());
+                update(List.of(), Set.of());
+            } else {
+                log.warn("Ingestion heartbeat failed: {}", e.getMessage());
+            }
+            return;
+        }
+        String self = membership.getNodeId();
+        Set<String> owned = new HashSet<>();
+        for (String deviceKey : devices) {
+            if (self.equals(ownerOf(deviceKey, live))) {
+                owned.add(deviceKey);
+            }
+        }
+        update(live, owned);
+    }
+
+    private void update(List<String> live, Set<String> owned) {
+        if (!live.equals(nodes)) {
+            log.info("Ingestion group changed: {} live nodes, this node ({}) owns {} devices",
+                    live.size(), membership.getNodeId(), owned.size());
+        }
+        nodes = List.copyOf(live);
+        ownedDevices = Set.copyOf(owned);
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.error("Ownership listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    public boolean owns(String deviceKey) {
+        return !clustered || ownedDevices.contains(deviceKey);
+    }
+
+    /**
+     * The node owning the device among the given live nodes, or null if there are none.
+     */
+    public static String ownerOf(String deviceKey, List<String> nodes) {
+        long key = mix(deviceKey != null ? deviceKey.hashCode() : 0);
+        String owner = null;
+        long best = Long.MIN_VALUE;
+        for (String node : nodes) {
+            long weight = mix(key ^ mix(node.hashCode() * 0x9E3779B97F4A7C15L));
+            if (owner == null || weight > best) {
+                best = weight;
+                owner = node;
+            }
+        }
+        return owner;
+    }
+
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public boolean isClustered() {
+        return clustered;
+    }
+
+    public Set<String> getOwnedDevices() {
+        return ownedDevices;
+    }
+
+    public long getHeartbeatIntervalMs() {
+        return heartbeatIntervalMs;
+    }
+
+    // A gained device is only taken up once the previous owner has had a heartbeat to let go of it
+    public long getSettleMs() {
+        return settleMs;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("clustered", clustered);
+        if (clustered) {
+            metrics.put("nodeId", membership.getNodeId());
+            metrics.put("liveNodes", nodes.size());
+            metrics.put("ownedDevices", ownedDevices.size());
+        }
+        return metrics;
+    }
+
+    // splitmix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
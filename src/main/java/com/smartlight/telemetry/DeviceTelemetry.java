@@ -0,0 +1,30 @@
+package com.smartlight.telemetry;
+
+import java.time.LocalDateTime;
+
+/**
+ * Immutable snapshot of the latest readings reported by one device.
+ * A new instance is created for every update so readers never see a half-written state.
+ */
+public record DeviceTelemetry(String deviceKey, String status, double current, double power, LocalDateTime timestamp) {
+
+    public static DeviceTelemetry initial(String deviceKey) {
+        return new DeviceTelemetry(deviceKey, "off", 0.0, 0.0, LocalDateTime.now());
+    }
+
+    public DeviceTelemetry withStatus(String newStatus) {
+        return new DeviceTelemetry(deviceKey, newStatus, current, power, LocalDateTime.now());
+    }
+
+    public DeviceTelemetry withCurrent(double newCurrent) {
+        return new DeviceTelemetry(deviceKey, status, newCurrent, power, LocalDateTime.now());
+    }
+
+    public DeviceTelemetry withPower(double newPower) {
+        return new DeviceTelemetry(deviceKey, status, current, newPower, LocalDateTime.now());
+    }
+
+    public DeviceTelemetry withReading(String newStatus, double newCurrent, double newPower) {
+        return new DeviceTelemetry(deviceKey, newStatus, newCurrent, newPower, LocalDateTime.now());
+    }
+}
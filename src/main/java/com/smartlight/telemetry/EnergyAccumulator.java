@@ -0,0 +1,249 @@
+package com.smartlight.telemetry;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running energy counter per device, integrated from every power update on the ingestion path
+ * with the trapezoid rule: (P1 + P2) / 2 * dt between consecutive readings.
+ * An interval longer than max-gap-seconds means the device was offline or lost messages; it is
+ * skipped rather than guessed, and the next reading starts a new interval.
+ * Counters are checkpointed to energy_counter and restored on startup, so they never go back.
+ * <p>
+ * Only the device's owner (see {@link DevicePartitioner}) integrates and checkpoints it. A node
+ * losing a device writes a last checkpoint and forgets it; the node taking it over continues from
+ * there ({@link #adopt}). Rows carry the writing process's node_id; a counter is read as the
+ * newest checkpoint of each node, combined with MAX, so a handover or restart never makes it
+ * appear to drop. Checkpoints older than retention-days are deleted once a newer one supersedes them.
+ */
+@Component
+@Slf4j
+public class EnergyAccumulator {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO energy_counter (device_key, node_id, checkpoint_time, energy_wh) VALUES (?, ?, ?, ?)";
+    // Newest checkpoint per device and node at or before the bound, then the largest across nodes
+    private static final String COUNTERS_SQL =
+            "SELECT device_key, MAX(energy_wh) FROM (" +
+            "SELECT DISTINCT ON (device_key, node_id) device_key, energy_wh FROM energy_counter " +
+            "WHERE checkpoint_time <= ? ORDER BY device_key, node_id, checkpoint_time DESC) latest " +
+            "GROUP BY device_key";
+    // Keeps at least the newest, largest checkpoint of every device
+    private static final String RETENTION_SQL =
+            "DELETE FROM energy_counter c WHERE c.checkpoint_time < ? AND EXISTS (" +
+            "SELECT 1 FROM energy_counter n WHERE n.device_key = c.device_key AND n.id <> c.id " +
+            "AND n.checkpoint_time >= c.checkpoint_time AND n.energy_wh >= c.energy_wh)";
+    private static final double MILLIS_PER_HOUR = 3_600_000.0;
+
+    private static final class Counter {
+        double energyWh;
+        double lastPower;
+        long lastMillis;
+        boolean dirty;
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DevicePartitioner partitioner;
+    private final long maxGapMillis;
+    private final long retentionDays;
+    // New per process, like the sketch rows: checkpoints written before a restart stay valid
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final AtomicLong gaps = new AtomicLong();
+    private final AtomicLong checkpoints = new AtomicLong();
+
+    public EnergyAccumulator(JdbcTemplate jdbcTemplate,
+                             DevicePartitioner partitioner,
+                             @Value("${telemetry.energy.max-gap-seconds:600}") long maxGapSeconds,
+                             @Value("${telemetry.energy.retention-days:0}") long retentionDays) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.partitioner = partitioner;
+        this.maxGapMillis = maxGapSeconds * 1000;
+        this.retentionDays = retentionDays;
+    }
+
+    @PostConstruct
+    public void restore() {
+        if (partitioner.isClustered()) {
+            return; // devices are restored one by one as they are adopted
+        }
+        try {
+            countersAt(LocalDateTime.now()).forEach((deviceKey, energyWh) -> {
+                Counter counter = new Counter();
+                counter.energyWh = energyWh;
+                counters.put(deviceKey, counter);
+            });
+            log.info("Restored energy counters for {} devices", counters.size());
+        } catch (Exception e) {
+            log.error("Could not restore energy counters: {}", e.getMessage());
+        }
+    }
+
+    public void record(String deviceKey, double power, long atMillis) {
+        counters.compute(deviceKey, (key, counter) -> {
+            if (counter == null) {
+                counter = new Counter();
+            }
+            if (counter.lastMillis > 0) {
+                long dt = atMillis - counter.lastMillis;
+                if (dt > maxGapMillis) {
+                    gaps.incrementAndGet();
+                } else if (dt > 0) {
+                    counter.energyWh += (counter.lastPower + power) / 2 * dt / MILLIS_PER_HOUR;
+                    counter.dirty = true;
+                }
+            }
+            if (atMillis >= counter.lastMillis) {
+                counter.lastPower = power;
+                counter.lastMillis = atMillis;
+            }
+            return counter;
+        });
+    }
+
+    public double getEnergyWh(String deviceKey) {
+        // Read under the map's bin lock, the same one record() mutates under
+        double[] energy = new double[1];
+        counters.computeIfPresent(deviceKey, (key, counter) -> {
+            energy[0] = counter.energyWh;
+            return counter;
+        });
+        return energy[0];
+    }
+
+    /**
+     * Takes up devices this node now owns, continuing from their newest checkpoint.
+     */
+    public void adopt(Collection<String> deviceKeys) {
+        Map<String, Double> checkpointed = countersAt(LocalDateTime.now());
+        for (String deviceKey : deviceKeys) {
+            Double energyWh = checkpointed.get(deviceKey);
+            if (energyWh == null) {
+                continue;
+            }
+            counters.compute(deviceKey, (key, counter) -> {
+                if (counter == null) {
+                    counter = new Counter();
+                }
+                counter.energyWh = Math.max(counter.energyWh, energyWh);
+                return counter;
+            });
+        }
+    }
+
+    /**
+     * Checkpoints devices that moved to another node one last time and stops tracking them.
+     */
+    public void release(Collection<String> deviceKeys) {
+        write(deviceKeys);
+        deviceKeys.forEach(counters::remove);
+    }
+
+    /**
+     * Checkpointed counter of every device as of the given time, in one query.
+     */
+    public Map<String, Double> countersAt(LocalDateTime time) {
+        Map<String, Double> values = new HashMap<>();
+        jdbcTemplate.query(COUNTERS_SQL, rs -> {
+            values.put(rs.getString(1), rs.getDouble(2));
+        }, Timestamp.valueOf(time));
+        return values;
+    }
+
+    /**
+     * Current counter of every device: the checkpoints, overlaid with the live counters of the
+     * devices integrated here, which run ahead of their last checkpoint.
+     */
+    public Map<String, Double> countersNow() {
+        Map<String, Double> values = countersAt(LocalDateTime.now());
+        for (String deviceKey : counters.keySet()) {
+            values.merge(deviceKey, getEnergyWh(deviceKey), Math::max);
+        }
+        return values;
+    }
+
+    @Scheduled(fixedDelayString = "${telemetry.energy.checkpoint-interval-ms:60000}")
+    public void checkpoint() {
+        List<String> owned = new ArrayList<>();
+        for (String deviceKey : counters.keySet()) {
+            if (partitioner.owns(deviceKey)) {
+                owned.add(deviceKey);
+            }
+        }
+        write(owned);
+    }
+
+    private void write(Collection<String> deviceKeys) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Object[]> rows = new ArrayList<>();
+        for (String deviceKey : deviceKeys) {
+            counters.computeIfPresent(deviceKey, (key, counter) -> {
+                if (counter.dirty) {
+                    rows.add(new Object[]{key, nodeId, Timestamp.valueOf(now), counter.energyWh});
+                    counter.dirty = false;
+                }
+                return counter;
+            });
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+            checkpoints.addAndGet(rows.size());
+        } catch (Exception e) {
+            log.error("Failed to checkpoint {} energy counters: {}", rows.size(), e.getMessage());
+            for (Object[] row : rows) {
+                counters.computeIfPresent((String) row[0], (key, counter) -> {
+                    counter.dirty = true;
+                    return counter;
+                });
+            }
+        }
+    }
+
+    @Scheduled(cron = "${telemetry.energy.retention-cron:0 15 0 * * *}")
+    public void applyRetention() {
+        if (retentionDays <= 0) {
+            return;
+        }
+        try {
+            int deleted = jdbcTemplate.update(RETENTION_SQL, Timestamp.valueOf(LocalDateTime.now().minusDays(retentionDays)));
+            log.info("Deleted {} energy checkpoints older than {} days", deleted, retentionDays);
+        } catch (Exception e) {
+            log.error("energy_counter retention failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void flush() {
+        checkpoint();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("nodeId", nodeId);
+        metrics.put("devices", counters.size());
+        metrics.put("gaps", gaps.get());
+        metrics.put("checkpoints", checkpoints.get());
+        return metrics;
+    }
+}
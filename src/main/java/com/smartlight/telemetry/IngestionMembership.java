@@ -0,0 +1,23 @@
+package com.smartlight.telemetry;
+
+import java.util.List;
+
+/**
+ * The set of backend processes currently sharing telemetry ingestion, kept alive by heartbeats.
+ * A process that stops heartbeating for longer than the liveness timeout drops out of every
+ * other process's view, and its devices are reassigned.
+ */
+public interface IngestionMembership {
+
+    String getNodeId();
+
+    /**
+     * Records that this node is alive and returns the ids of all live nodes, this one included, sorted.
+     */
+    List<String> heartbeat();
+
+    /**
+     * Leaves the group at once instead of waiting for the liveness timeout.
+     */
+    void leave();
+}
@@ -0,0 +1,59 @@
+package com.smartlight.telemetry;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link IngestionMembership} backed by the ingestion_node table. Every time comparison uses the
+ * database clock. Rows of nodes dead for much longer than the timeout are deleted on the way.
+ */
+@Component
+@Slf4j
+public class JdbcIngestionMembership implements IngestionMembership {
+
+    private static final String HEARTBEAT_SQL =
+            "INSERT INTO ingestion_node (node_id, heartbeat_at) VALUES (?, LOCALTIMESTAMP) " +
+            "ON CONFLICT (node_id) DO UPDATE SET heartbeat_at = LOCALTIMESTAMP";
+    private static final String LIVE_SQL =
+            "SELECT node_id FROM ingestion_node " +
+            "WHERE heartbeat_at > LOCALTIMESTAMP - make_interval(secs => ?) ORDER BY node_id";
+    private static final String EXPIRE_SQL =
+            "DELETE FROM ingestion_node WHERE heartbeat_at < LOCALTIMESTAMP - make_interval(secs => ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final double livenessSeconds;
+    // New per process: a restarted backend joins as a new node
+    private final String nodeId = UUID.randomUUID().toString();
+
+    public JdbcIngestionMembership(JdbcTemplate jdbcTemplate,
+                                   @Value("${mqtt.ingestion.cluster.liveness-timeout-ms:15000}") long livenessTimeoutMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.livenessSeconds = livenessTimeoutMs / 1000.0;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public List<String> heartbeat() {
+        jdbcTemplate.update(HEARTBEAT_SQL, nodeId);
+        jdbcTemplate.update(EXPIRE_SQL, livenessSeconds * 10);
+        return jdbcTemplate.queryForList(LIVE_SQL, String.class, livenessSeconds);
+    }
+
+    @Override
+    public void leave() {
+        try {
+            jdbcTemplate.update("DELETE FROM ingestion_node WHERE node_id = ?", nodeId);
+        } catch (Exception e) {
+            log.warn("Could not leave the ingestion group, peers will time this node out: {}", e.getMessage());
+        }
+    }
+}
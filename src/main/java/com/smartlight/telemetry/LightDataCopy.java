@@ -0,0 +1,85 @@
+package com.smartlight.telemetry;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Writes readings with PostgreSQL's COPY ... FROM STDIN in text format: one round trip and no
+ * per-row statement parsing, planning or parameter binding. Ids come from the column default
+ * (light_data_id_seq) exactly as with the INSERT path.
+ */
+public final class LightDataCopy {
+
+    public static final String COLUMNS = "(device_key, status, current, power, timestamp)";
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
+
+    private LightDataCopy() {
+    }
+
+    // False for pools or drivers that are not PostgreSQL's (tests, H2): use the INSERT batch there
+    public static boolean isSupported(Connection con) throws SQLException {
+        return con.isWrapperFor(PGConnection.class);
+    }
+
+    /**
+     * Copies the rows into table (light_data or a table shaped like it) on the caller's
+     * connection, so inside its transaction. Returns the number of rows copied.
+     */
+    public static long copy(Connection con, String table, List<TelemetryReading> rows) throws SQLException {
+        StringBuilder text = new StringBuilder(rows.size() * 64);
+        for (TelemetryReading reading : rows) {
+            appendText(text, reading.deviceKey());
+            text.append('\t');
+            appendText(text, reading.status());
+            text.append('\t').append(reading.current())
+                    .append('\t').append(reading.power())
+                    .append('\t');
+            appendTimestamp(text, reading.timestamp());
+            text.append('\n');
+        }
+        byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+        CopyIn copy = con.unwrap(PGConnection.class).getCopyAPI()
+                .copyIn("COPY " + table + " " + COLUMNS + " FROM STDIN");
+        try {
+            copy.writeToCopy(data, 0, data.length);
+            return copy.endCopy();
+        } finally {
+            if (copy.isActive()) {
+                copy.cancelCopy();
+            }
+        }
+    }
+
+    private static void appendTimestamp(StringBuilder text, LocalDateTime timestamp) {
+        if (timestamp == null) {
+            text.append("\\N");
+        } else {
+            TIMESTAMP.formatTo(timestamp, text);
+        }
+    }
+
+    // Text format: \N is NULL; backslash, tab, newline and carriage return are escaped
+    private static void appendText(StringBuilder text, String value) {
+        if (value == null) {
+            text.append("\\N");
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> text.append("\\\\");
+                case '\t' -> text.append("\\t");
+                case '\n' -> text.append("\\n");
+                case '\r' -> text.append("\\r");
+                default -> text.append(c);
+            }
+        }
+    }
+}
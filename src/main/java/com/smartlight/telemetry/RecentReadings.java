@@ -0,0 +1,88 @@
+package com.smartlight.telemetry;
+
+/**
+ * Fixed-size ring of one device's most recent readings held in parallel primitive arrays,
+ * so a thousand readings cost a few tens of kilobytes and no per-reading objects.
+ * Guarded by its own monitor: one writer (the MQTT callback) and occasional readers.
+ */
+public class RecentReadings {
+
+    private final long[] timestamps; // epoch millis
+    private final double[] current;
+    private final double[] power;
+    private final boolean[] on;
+    private int head; // next slot to write
+    private int size;
+
+    public RecentReadings(int capacity) {
+        this.timestamps = new long[capacity];
+        this.current = new double[capacity];
+        this.power = new double[capacity];
+        this.on = new boolean[capacity];
+    }
+
+    public synchronized void add(long timestamp, boolean isOn, double currentValue, double powerValue) {
+        if (size > 0 && timestamp < timestamps[index(0)]) {
+            return; // keep the ring time-ordered; late readings are only in the database
+        }
+        timestamps[head] = timestamp;
+        on[head] = isOn;
+        current[head] = currentValue;
+        power[head] = powerValue;
+        head = (head + 1) % timestamps.length;
+        if (size < timestamps.length) {
+            size++;
+        }
+    }
+
+    public synchronized long getLatestTimestamp() {
+        return size == 0 ? 0 : timestamps[index(0)];
+    }
+
+    /**
+     * Readings at or after sinceMillis, oldest first, copied into columnar arrays.
+     */
+    public synchronized Series since(long sinceMillis) {
+        int count = 0;
+        while (count < size && timestamps[index(count)] >= sinceMillis) {
+            count++;
+        }
+        Series series = new Series(count);
+        for (int i = 0; i < count; i++) {
+            int slot = index(count - 1 - i);
+            series.timestamps[i] = timestamps[slot];
+            series.on[i] = on[slot];
+            series.current[i] = current[slot];
+            series.power[i] = power[slot];
+        }
+        return series;
+    }
+
+    public synchronized Series latest() {
+        return since(getLatestTimestamp());
+    }
+
+    // Slot of the reading that is age positions older than the newest one
+    private int index(int age) {
+        int slot = head - 1 - age;
+        return slot < 0 ? slot + timestamps.length : slot;
+    }
+
+    public static final class Series {
+        public final long[] timestamps;
+        public final boolean[] on;
+        public final double[] current;
+        public final double[] power;
+
+        Series(int size) {
+            this.timestamps = new long[size];
+            this.on = new boolean[size];
+            this.current = new double[size];
+            this.power = new double[size];
+        }
+
+        public int size() {
+            return timestamps.length;
+        }
+    }
+}
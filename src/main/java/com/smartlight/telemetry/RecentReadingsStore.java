@@ -0,0 +1,138 @@
+package com.smartlight.telemetry;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-device {@link RecentReadings} fed by the ingestion path, for "latest" and sparkline queries
+ * that would otherwise sort light_data. Warmed up from the last warmup-minutes of light_data at
+ * startup, before the MQTT client connects: at most capacity rows per device, read from a cursor
+ * so the warm-up never holds more than one fetch in memory. In cluster mode only the devices this
+ * replica owns are kept: each is warmed up when the replica takes it over and dropped when it moves.
+ */
+@Component
+@Slf4j
+public class RecentReadingsStore {
+
+    // Newest capacity rows per device, replayed oldest first
+    private static final String WARMUP_SQL =
+            "SELECT device_key, timestamp, status, current, power FROM (" +
+            "SELECT device_key, timestamp, id, status, current, power, " +
+            "ROW_NUMBER() OVER (PARTITION BY device_key ORDER BY timestamp DESC, id DESC) AS rn " +
+            "FROM light_data WHERE timestamp > ? AND device_key IS NOT NULL%s) recent " +
+            "WHERE rn <= ? ORDER BY timestamp, id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DevicePartitioner partitioner;
+    private final int capacity;
+    private final long warmupMinutes;
+    private final int fetchSize;
+
+    private final ConcurrentHashMap<String, RecentReadings> devices = new ConcurrentHashMap<>();
+    private volatile String mostRecentDevice;
+
+    public RecentReadingsStore(JdbcTemplate jdbcTemplate,
+                               TransactionTemplate transactionTemplate,
+                               DevicePartitioner partitioner,
+                               @Value("${telemetry.recent.capacity:1024}") int capacity,
+                               @Value("${telemetry.recent.warmup-minutes:60}") long warmupMinutes,
+                               @Value("${telemetry.export.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.partitioner = partitioner;
+        this.capacity = capacity;
+        this.warmupMinutes = warmupMinutes;
+        this.fetchSize = fetchSize;
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        if (!partitioner.isClustered()) {
+            warmUp(null);
+        }
+    }
+
+    /**
+     * Loads the recent readings of the given devices, or of every device if null.
+     */
+    public void warmUp(Collection<String> deviceKeys) {
+        if (warmupMinutes <= 0) {
+            return;
+        }
+        try {
+            long[] loaded = new long[1];
+            Timestamp since = Timestamp.valueOf(LocalDateTime.now().minusMinutes(warmupMinutes));
+            String sql = String.format(WARMUP_SQL, deviceKeys != null ? " AND device_key = ANY(?)" : "");
+            // PostgreSQL only streams with a fetch size inside a transaction
+            transactionTemplate.executeWithoutResult(tx -> jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(fetchSize);
+                int i = 1;
+                ps.setTimestamp(i++, since);
+                if (deviceKeys != null) {
+                    ps.setArray(i++, con.createArrayOf("varchar", deviceKeys.toArray()));
+                }
+                ps.setInt(i, capacity);
+                return ps;
+            }, rs -> {
+                record(rs.getString(1), rs.getString(3), rs.getDouble(4), rs.getDouble(5),
+                        toMillis(rs.getTimestamp(2).toLocalDateTime()));
+                loaded[0]++;
+            }));
+            log.info("Warmed up recent readings for {} devices from {} rows",
+                    deviceKeys != null ? deviceKeys.size() : devices.size(), loaded[0]);
+        } catch (Exception e) {
+            log.error("Could not warm up recent readings: {}", e.getMessage());
+        }
+    }
+
+    public void record(String deviceKey, String status, double current, double power, long atMillis) {
+        devices.computeIfAbsent(deviceKey, k -> new RecentReadings(capacity))
+                .add(atMillis, "on".equals(status), current, power);
+        mostRecentDevice = deviceKey;
+    }
+
+    public void remove(String deviceKey) {
+        devices.remove(deviceKey);
+    }
+
+    public RecentReadings get(String deviceKey) {
+        return devices.get(deviceKey);
+    }
+
+    public String getMostRecentDevice() {
+        return mostRecentDevice;
+    }
+
+    public Set<String> getDeviceKeys() {
+        return devices.keySet();
+    }
+
+    public Map<String, Object> getMetrics() {
+        return Map.of("devices", devices.size(), "capacityPerDevice", capacity);
+    }
+
+    public static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
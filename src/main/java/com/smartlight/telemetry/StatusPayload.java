@@ -0,0 +1,70 @@
+package com.smartlight.telemetry;
+
+import lombok.Getter;
+
+/**
+ * Fields decoded from one ESP32 status message. Instances are mutable and meant to be
+ * reused by a single thread (the MQTT callback thread) to avoid per-message allocation.
+ */
+@Getter
+public class StatusPayload {
+    private boolean json;
+    private boolean binary;
+    private boolean hasState;
+    private boolean on;
+    private boolean hasCurrent;
+    private double current;
+    private boolean hasPower;
+    private double power;
+    private boolean physicalSwitch;
+
+    void reset() {
+        json = false;
+        binary = false;
+        hasState = false;
+        on = false;
+        hasCurrent = false;
+        current = 0.0;
+        hasPower = false;
+        power = 0.0;
+        physicalSwitch = false;
+    }
+
+    void setJson(boolean json) {
+        this.json = json;
+    }
+
+    void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * True for a complete status report (JSON object or binary frame), as opposed to a bare on/off.
+     */
+    public boolean isFullStatus() {
+        return json || binary;
+    }
+
+    void setState(boolean on) {
+        this.hasState = true;
+        this.on = on;
+    }
+
+    void setCurrent(double current) {
+        this.hasCurrent = true;
+        this.current = current;
+    }
+
+    void setPower(double power) {
+        this.hasPower = true;
+        this.power = power;
+    }
+
+    void setPhysicalSwitch(boolean physicalSwitch) {
+        this.physicalSwitch = physicalSwitch;
+    }
+
+    public String getStatus() {
+        return on ? "on" : "off";
+    }
+}
@@ -0,0 +1,365 @@
+package com.smartlight.telemetry;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Single-pass decoder for ESP32 status payloads working directly on the MQTT payload bytes.
+ * Accepts flat JSON such as {"state":"on","current":0.512,"power":112.6,"source":"physical_switch"}
+ * as well as the bare "on" / "off" form. No regex, no intermediate Strings; numbers are parsed
+ * straight into primitives.
+ * <p>
+ * Devices on metered links can instead publish the fixed 10-byte binary frame to
+ * {@code <status topic>/bin} (see {@link #decodeBinary}), about a quarter of the JSON size.
+ */
+public final class StatusPayloadDecoder {
+
+    private static final byte[] KEY_STATE = {'s', 't', 'a', 't', 'e'};
+    private static final byte[] KEY_CURRENT = {'c', 'u', 'r', 'r', 'e', 'n', 't'};
+    private static final byte[] KEY_POWER = {'p', 'o', 'w', 'e', 'r'};
+    private static final byte[] KEY_SOURCE = {'s', 'o', 'u', 'r', 'c', 'e'};
+    private static final byte[] VALUE_ON = {'o', 'n'};
+    private static final byte[] VALUE_OFF = {'o', 'f', 'f'};
+    private static final byte[] VALUE_PHYSICAL_SWITCH =
+            {'p', 'h', 'y', 's', 'i', 'c', 'a', 'l', '_', 's', 'w', 'i', 't', 'c', 'h'};
+
+    // Largest mantissa a double holds exactly
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** First byte of a binary status frame (format version 1). */
+    public static final byte BINARY_MAGIC = (byte) 0xB1;
+    public static final int BINARY_FRAME_BYTES = 10;
+    public static final int FLAG_ON = 0x01;
+    public static final int FLAG_PHYSICAL_SWITCH = 0x02;
+    public static final int FLAG_HAS_CURRENT = 0x04;
+    public static final int FLAG_HAS_POWER = 0x08;
+
+    private StatusPayloadDecoder() {
+    }
+
+    /**
+     * Decodes the binary status frame, big-endian:
+     * <pre>
+     * byte 0     magic 0xB1
+     * byte 1     flags: 0x01 on, 0x02 physical switch, 0x04 current present, 0x08 power present
+     * bytes 2-5  current, IEEE 754 float32, Ampere
+     * bytes 6-9  power, IEEE 754 float32, Watt
+     * </pre>
+     *
+     * @return false if the payload is not a valid frame, or a value it carries is NaN or infinite
+     */
+    public static boolean decodeBinary(byte[] payload, StatusPayload out) {
+        out.reset();
+        if (payload.length != BINARY_FRAME_BYTES || payload[0] != BINARY_MAGIC) {
+            return false;
+        }
+        int flags = payload[1];
+        float current = Float.intBitsToFloat(readInt(payload, 2));
+        float power = Float.intBitsToFloat(readInt(payload, 6));
+        if (((flags & FLAG_HAS_CURRENT) != 0 && !Float.isFinite(current))
+                || ((flags & FLAG_HAS_POWER) != 0 && !Float.isFinite(power))) {
+            return false;
+        }
+        out.setBinary(true);
+        out.setState((flags & FLAG_ON) != 0);
+        out.setPhysicalSwitch((flags & FLAG_PHYSICAL_SWITCH) != 0);
+        if ((flags & FLAG_HAS_CURRENT) != 0) {
+            out.setCurrent(current);
+        }
+        if ((flags & FLAG_HAS_POWER) != 0) {
+            out.setPower(power);
+        }
+        return true;
+    }
+
+    /**
+     * Encodes a binary status frame; used by simulators and tests of the wire format.
+     */
+    public static byte[] encodeBinary(boolean on, boolean physicalSwitch, float current, float power) {
+        byte[] frame = new byte[BINARY_FRAME_BYTES];
+        frame[0] = BINARY_MAGIC;
+        frame[1] = (byte) ((on ? FLAG_ON : 0) | (physicalSwitch ? FLAG_PHYSICAL_SWITCH : 0)
+                | FLAG_HAS_CURRENT | FLAG_HAS_POWER);
+        writeInt(frame, 2, Float.floatToIntBits(current));
+        writeInt(frame, 6, Float.floatToIntBits(power));
+        return frame;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Decodes {@code payload} into {@code out}, which is reset first.
+     *
+     * @return false if the payload is neither a JSON object nor a bare on/off value
+     */
+    public static boolean decode(byte[] payload, StatusPayload out) {
+        out.reset();
+        int length = payload.length;
+        int i = skipWhitespace(payload, 0, length);
+        if (i >= length) {
+            return false;
+        }
+        if (payload[i] != '{') {
+            int end = trimEnd(payload, i, length);
+            if (regionEquals(payload, i, end, VALUE_ON)) {
+                out.setState(true);
+                return true;
+            }
+            if (regionEquals(payload, i, end, VALUE_OFF)) {
+                out.setState(false);
+                return true;
+            }
+            return false;
+        }
+        out.setJson(true);
+        i++;
+
+        while (i < length) {
+            i = skipWhitespace(payload, i, length);
+            if (i >= length || payload[i] == '}') {
+                return true;
+            }
+            if (payload[i] == ',') {
+                i++;
+                continue;
+            }
+            if (payload[i] != '"') {
+                return false;
+            }
+            int keyStart = i + 1;
+            int keyEnd = skipString(payload, i, length);
+            if (keyEnd < 0) {
+                return false;
+            }
+            i = skipWhitespace(payload, keyEnd + 1, length);
+            if (i >= length || payload[i] != ':') {
+                return false;
+            }
+            i = skipWhitespace(payload, i + 1, length);
+            if (i >= length) {
+                return false;
+            }
+
+            if (payload[i] == '"') {
+                int valueStart = i + 1;
+                int valueEnd = skipString(payload, i, length);
+                if (valueEnd < 0) {
+                    return false;
+                }
+                if (regionEquals(payload, keyStart, keyEnd, KEY_STATE)) {
+                    if (regionEquals(payload, valueStart, valueEnd, VALUE_ON)) {
+                        out.setState(true);
+                    } else if (regionEquals(payload, valueStart, valueEnd, VALUE_OFF)) {
+                        out.setState(false);
+                    }
+                } else if (regionEquals(payload, keyStart, keyEnd, KEY_SOURCE)) {
+                    out.setPhysicalSwitch(regionEquals(payload, valueStart, valueEnd, VALUE_PHYSICAL_SWITCH));
+                }
+                i = valueEnd + 1;
+            } else if (payload[i] == '{' || payload[i] == '[') {
+                i = skipNested(payload, i, length);
+                if (i < 0) {
+                    return false;
+                }
+            } else {
+                int valueEnd = scanScalar(payload, i, length);
+                if (regionEquals(payload, keyStart, keyEnd, KEY_CURRENT)) {
+                    double value = parseDouble(payload, i, valueEnd);
+                    if (!Double.isNaN(value)) {
+                        out.setCurrent(value);
+                    }
+                } else if (regionEquals(payload, keyStart, keyEnd, KEY_POWER)) {
+                    double value = parseDouble(payload, i, valueEnd);
+                    if (!Double.isNaN(value)) {
+                        out.setPower(value);
+                    }
+                }
+                i = valueEnd;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a whole payload holding a single number, as sent on /light/current and /light/power.
+     *
+     * @return the value, or NaN if the payload is not a finite number
+     */
+    public static double parseDouble(byte[] payload) {
+        int start = skipWhitespace(payload, 0, payload.length);
+        return parseDouble(payload, start, trimEnd(payload, start, payload.length));
+    }
+
+    /**
+     * Correctly rounded, like {@link Double#parseDouble}. The common short decimals take the
+     * exact fast path (mantissa below 2^53 and a power of ten up to 22, one rounding step);
+     * anything else is handed to Double.parseDouble.
+     */
+    static double parseDouble(byte[] bytes, int start, int end) {
+        int i = start;
+        if (i >= end) {
+            return Double.NaN;
+        }
+        boolean negative = false;
+        if (bytes[i] == '-' || bytes[i] == '+') {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        boolean truncated = false;
+        while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+            seenDigit = true;
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (bytes[i] - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                truncated |= bytes[i] != '0';
+                scale++;
+            }
+            i++;
+        }
+        if (i < end && bytes[i] == '.') {
+            i++;
+            while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+                seenDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (bytes[i] - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    scale--;
+                } else {
+                    truncated |= bytes[i] != '0';
+                }
+                i++;
+            }
+        }
+        if (!seenDigit) {
+            return Double.NaN;
+        }
+        if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int exponent = 0;
+            boolean seenExponentDigit = false;
+            while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+                seenExponentDigit = true;
+                if (exponent < 1000) {
+                    exponent = exponent * 10 + (bytes[i] - '0');
+                }
+                i++;
+            }
+            if (!seenExponentDigit) {
+                return Double.NaN;
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i != end) {
+            return Double.NaN;
+        }
+        double value;
+        if (!truncated && mantissa <= MAX_EXACT_MANTISSA && scale > -POWERS_OF_TEN.length && scale < POWERS_OF_TEN.length) {
+            value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+            value = negative ? -value : value;
+        } else {
+            // The syntax is already checked, and Double.parseDouble accepts all of it
+            value = Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+        }
+        return Double.isFinite(value) ? value : Double.NaN;
+    }
+
+    private static int skipWhitespace(byte[] bytes, int i, int end) {
+        while (i < end && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\n' || bytes[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimEnd(byte[] bytes, int start, int end) {
+        while (end > start && (bytes[end - 1] == ' ' || bytes[end - 1] == '\t'
+                || bytes[end - 1] == '\n' || bytes[end - 1] == '\r')) {
+            end--;
+        }
+        return end;
+    }
+
+    // Returns the index of the closing quote of the string opening at i, or -1
+    private static int skipString(byte[] bytes, int i, int end) {
+        i++;
+        while (i < end) {
+            if (bytes[i] == '\\') {
+                i += 2;
+            } else if (bytes[i] == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipNested(byte[] bytes, int i, int end) {
+        int depth = 0;
+        while (i < end) {
+            byte b = bytes[i];
+            if (b == '"') {
+                i = skipString(bytes, i, end);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static int scanScalar(byte[] bytes, int i, int end) {
+        while (i < end && bytes[i] != ',' && bytes[i] != '}' && bytes[i] != ' '
+                && bytes[i] != '\t' && bytes[i] != '\n' && bytes[i] != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean regionEquals(byte[] bytes, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int k = 0; k < expected.length; k++) {
+            if (bytes[start + k] != expected[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,496 @@
+package com.smartlight.telemetry;
+
+import com.smartlight.entity.LightData;
+import com.smartlight.storage.ArchiveSegment;
+import com.smartlight.storage.LightDataPartitionManager;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Cold tier for light_data. Closed partitions older than after-days are re-encoded into
+ * {@link ArchiveSegment} files (around 2 bytes per reading instead of a ~70 byte heap row) and
+ * then dropped from PostgreSQL. Segments are memory-mapped and read alongside the database by
+ * the history, stats and export paths; the minute/hour/day rollups stay in the database.
+ * Since whole partitions move, archived rows are older than every row left in light_data, except
+ * late rows moved out of light_data_default into a partition of their own until that one is
+ * archived too (its segment may then overlap older ones).
+ * <p>
+ * With several replicas the archive directory must be shared storage (NFS, EFS, a shared volume)
+ * mounted at the same path on all of them: every replica reads every segment. Archiving and
+ * dropping run under a session advisory lock, so one replica does each pass, and a partition is
+ * dropped only drop-delay-ms after its segment was written. Reads go through {@link #view()} in
+ * the same transaction as their light_data query: it locks light_data so no partition can be
+ * dropped until the read ends, lists the partitions that exist, re-lists the directory if one
+ * known at the last listing is gone (or the listing is older than half the drop delay), and
+ * hides exactly the segments whose partition exists. Every replica therefore sees each row
+ * exactly once, from the database or from the archive, whichever replica dropped it.
+ */
+@Component
+@Slf4j
+public class TelemetryArchive {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String LOCK_SQL = "SELECT pg_try_advisory_lock(hashtext('light_data_archiving'))";
+    private static final String UNLOCK_SQL = "SELECT pg_advisory_unlock(hashtext('light_data_archiving'))";
+    private static final Comparator<LightData> KEYSET_ORDER =
+            Comparator.comparing(LightData::getTimestamp).thenComparing(LightData::getId);
+
+    private final LightDataPartitionManager partitionManager;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Path directory;
+    private final long afterDays;
+    private final long dropDelayMs;
+    private final int fetchSize;
+
+    // Every segment file in the directory, by path; guarded by this
+    private final Map<Path, ArchiveSegment> loaded = new HashMap<>();
+    // Partitions that existed when the directory was last listed, and when that listing started;
+    // guarded by this
+    private Set<String> listedPartitions = Set.of();
+    private long listedAt;
+    // As of the last refresh, for metrics; reads take a view instead
+    private volatile List<ArchiveSegment> segments = List.of();
+
+    public TelemetryArchive(LightDataPartitionManager partitionManager,
+                            JdbcTemplate jdbcTemplate,
+                            TransactionTemplate transactionTemplate,
+                            @Value("${telemetry.archive.dir:./data/archive}") String directory,
+                            @Value("${telemetry.archive.after-days:0}") long afterDays,
+                            @Value("${telemetry.archive.drop-delay-ms:120000}") long dropDelayMs,
+                            @Value("${telemetry.export.fetch-size:1000}") int fetchSize) {
+        this.partitionManager = partitionManager;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.directory = Paths.get(directory);
+        this.afterDays = afterDays;
+        this.dropDelayMs = dropDelayMs;
+        this.fetchSize = fetchSize;
+    }
+
+    @PostConstruct
+    public void load() {
+        reload();
+        log.info("Loaded {} archive segments ({} rows) from {}", segments.size(), getRows(), directory);
+    }
+
+    /**
+     * Picks up segments written by any replica and forgets deleted ones, so reads rarely list the
+     * directory themselves. The archiving replica also drops partitions whose segment is old enough.
+     */
+    @Scheduled(fixedDelayString = "${telemetry.archive.refresh-interval-ms:30000}",
+            initialDelayString = "${telemetry.archive.refresh-interval-ms:30000}")
+    public void refresh() {
+        reload();
+        if (afterDays > 0) {
+            withArchiveLock(this::dropArchivedPartitions);
+        }
+    }
+
+    @Scheduled(cron = "${telemetry.archive.cron:0 30 0 * * *}")
+    public void archiveClosedPartitions() {
+        if (afterDays <= 0) {
+            return;
+        }
+        withArchiveLock(() -> {
+            LocalDateTime cutoff = LocalDateTime.now().minusDays(afterDays);
+            for (LightDataPartitionManager.Partition partition : partitionManager.listPartitions()) {
+                if (partition.to() != null && !partition.to().isAfter(cutoff)
+                        && !Files.exists(segmentPath(partition.name()))) {
+                    try {
+                        archive(partition);
+                    } catch (Exception e) {
+                        log.error("Failed to archive partition {}: {}", partition.name(), e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Encodes every row of the partition into one segment and makes it durable (file and directory
+     * entry fsynced). The segment stays hidden until the partition is dropped, which
+     * {@link #refresh()} does once drop-delay-ms have passed.
+     */
+    public void archive(LightDataPartitionManager.Partition partition) throws IOException {
+        List<ArchiveSegment.SeriesWriter> series = new ArrayList<>();
+        long[] rows = new long[1];
+        transactionTemplate.executeWithoutResult(tx -> jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT id, device_key, timestamp, status, current, power FROM " + partition.name() +
+                    " ORDER BY device_key, timestamp, id", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            return ps;
+        }, rs -> {
+            String deviceKey = rs.getString(2) != null ? rs.getString(2) : "";
+            ArchiveSegment.SeriesWriter writer = series.isEmpty() ? null : series.get(series.size() - 1);
+            if (writer == null || !writer.getDeviceKey().equals(deviceKey)) {
+                writer = new ArchiveSegment.SeriesWriter(deviceKey);
+                series.add(writer);
+            }
+            writer.add(rs.getLong(1), RecentReadingsStore.toMillis(rs.getTimestamp(3).toLocalDateTime()),
+                    "on".equals(rs.getString(4)), rs.getDouble(5), rs.getDouble(6));
+            rows[0]++;
+        }));
+
+        if (rows[0] == 0) {
+            partitionManager.dropPartition(partition.name());
+            return;
+        }
+        Path file = segmentPath(partition.name());
+        ArchiveSegment.write(file, series);
+        reload();
+        log.info("Archived {} rows of {} into {} ({} bytes), dropping it in {} ms",
+                rows[0], partition.name(), file, Files.size(file), dropDelayMs);
+    }
+
+    private void dropArchivedPartitions() {
+        long now = System.currentTimeMillis();
+        for (LightDataPartitionManager.Partition partition : partitionManager.listPartitions()) {
+            Path file = segmentPath(partition.name());
+            try {
+                if (!Files.exists(file) || now - Files.getLastModifiedTime(file).toMillis() < dropDelayMs) {
+                    continue;
+                }
+                ArchiveSegment segment = ArchiveSegment.open(file);
+                Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + partition.name(), Long.class);
+                if (count == null || count != segment.getRows()) {
+                    // Rows arrived after archiving (e.g. a spill replay): archive it again next pass
+                    log.warn("Partition {} has {} rows but its segment {}, re-archiving", partition.name(), count, segment.getRows());
+                    Files.delete(file);
+                    reload();
+                    continue;
+                }
+                partitionManager.dropPartition(partition.name());
+            } catch (Exception e) {
+                log.error("Failed to drop archived partition {}: {}", partition.name(), e.getMessage());
+            }
+        }
+        reload();
+    }
+
+    // Runs the task only if no other replica is archiving; the lock is held by one pooled session
+    private void withArchiveLock(Runnable task) {
+        try {
+            jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+                boolean locked;
+                try (Statement statement = con.createStatement(); ResultSet rs = statement.executeQuery(LOCK_SQL)) {
+                    locked = rs.next() && rs.getBoolean(1);
+                }
+                if (!locked) {
+                    log.debug("Another replica holds the archive lock, skipping");
+                    return null;
+                }
+                try {
+                    task.run();
+                } finally {
+                    try (Statement statement = con.createStatement()) {
+                        statement.execute(UNLOCK_SQL);
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("Archive pass failed: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void reload() {
+        if (!listDirectory()) {
+            return;
+        }
+        Set<String> live;
+        try {
+            live = livePartitions();
+        } catch (Exception e) {
+            // Database unreachable: keep the current view rather than risk double counting
+            log.warn("Could not list light_data partitions, archive view unchanged: {}", e.getMessage());
+            return;
+        }
+        // Listed after the directory: any partition missing here was dropped after its segment
+        // had been on disk for drop-delay-ms, so the listing has it
+        listedPartitions = live;
+        segments = visible(live);
+    }
+
+    private synchronized boolean listDirectory() {
+        long startedAt = System.currentTimeMillis();
+        Set<Path> present = new HashSet<>();
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files.filter(f -> f.toString().endsWith(SEGMENT_SUFFIX))::iterator) {
+                    present.add(file);
+                    if (!loaded.containsKey(file)) {
+                        try {
+                            loaded.put(file, ArchiveSegment.open(file));
+                        } catch (IOException e) {
+                            log.error("Skipping unreadable archive segment {}: {}", file, e.getMessage());
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Could not list archive directory {}: {}", directory, e.getMessage());
+                return false;
+            }
+        }
+        loaded.keySet().retainAll(present);
+        listedAt = startedAt;
+        return true;
+    }
+
+    private Set<String> livePartitions() {
+        Set<String> live = new HashSet<>();
+        for (LightDataPartitionManager.Partition partition : partitionManager.listPartitions()) {
+            live.add(partition.name());
+        }
+        return live;
+    }
+
+    // Loaded segments whose partition is not in live, oldest first
+    private synchronized List<ArchiveSegment> visible(Set<String> live) {
+        List<ArchiveSegment> visible = new ArrayList<>();
+        for (ArchiveSegment segment : loaded.values()) {
+            String name = segment.getPath().getFileName().toString();
+            if (!live.contains(name.substring(0, name.length() - SEGMENT_SUFFIX.length()))) {
+                visible.add(segment);
+            }
+        }
+        visible.sort(Comparator.comparingLong(ArchiveSegment::getMinTimestamp));
+        return List.copyOf(visible);
+    }
+
+    private Path segmentPath(String partition) {
+        return directory.resolve(partition + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * The archived rows a read sees alongside light_data. Must be called inside the transaction
+     * that reads light_data, before it does: ACCESS SHARE on light_data covers every partition,
+     * so none can be dropped before that transaction ends, and a segment is visible exactly when
+     * its partition was gone at this point. Segments of partitions dropped since the last listing
+     * (possibly by another replica) are picked up by listing the directory again first.
+     */
+    public View view() {
+        jdbcTemplate.execute("LOCK TABLE light_data IN ACCESS SHARE MODE");
+        Set<String> live = livePartitions();
+        synchronized (this) {
+            if (!live.containsAll(listedPartitions) || System.currentTimeMillis() - listedAt > dropDelayMs / 2) {
+                // Listed after the partitions: every segment whose partition is missing is on disk
+                if (listDirectory()) {
+                    listedPartitions = live;
+                }
+            }
+            return new View(visible(live));
+        }
+    }
+
+    public static final class View {
+        private final List<ArchiveSegment> segments;
+
+        View(List<ArchiveSegment> segments) {
+            this.segments = segments;
+        }
+
+        // Newest archived timestamp, null when nothing is archived
+        public LocalDateTime getMaxTimestamp() {
+            long max = Long.MIN_VALUE;
+            for (ArchiveSegment segment : segments) {
+                max = Math.max(max, segment.getMaxTimestamp());
+            }
+            return max == Long.MIN_VALUE ? null : RecentReadingsStore.toLocalDateTime(max);
+        }
+
+        /**
+         * Archived rows with from <= timestamp <= to, oldest first. Null bounds are open.
+         */
+        public void scan(LocalDateTime from, LocalDateTime to, String deviceKey, ArchiveSegment.RowConsumer consumer) {
+            long fromMillis = from != null ? RecentReadingsStore.toMillis(from) : Long.MIN_VALUE;
+            long toMillis = to != null ? RecentReadingsStore.toMillis(to) : Long.MAX_VALUE;
+            for (ArchiveSegment segment : segments) {
+                segment.scan(deviceKey, fromMillis, toMillis, consumer);
+            }
+        }
+
+        /**
+         * Adds count, current sum, power sum and on count of the archived rows with
+         * from <= timestamp <= to to {@code sums}, mostly from the segment headers.
+         */
+        public void summarize(LocalDateTime from, LocalDateTime to, String deviceKey, double[] sums) {
+            long fromMillis = from != null ? RecentReadingsStore.toMillis(from) : Long.MIN_VALUE;
+            long toMillis = to != null ? RecentReadingsStore.toMillis(to) : Long.MAX_VALUE;
+            for (ArchiveSegment segment : segments) {
+                segment.summarize(deviceKey, fromMillis, toMillis, sums);
+            }
+        }
+
+        /**
+         * Newest-first page of archived rows strictly before (beforeTimestamp, beforeId), continuing
+         * the keyset order of light_data. The block index first gives the oldest timestamp the page
+         * can reach, so only the blocks from there up to the cursor are decoded. Segments of rows
+         * re-homed from light_data_default can overlap older ones, so each segment reaching that far
+         * is scanned and the newest rows kept across all of them; a scan keeps just the newest rows
+         * still needed in a fixed-size ring, so memory stays at one page.
+         */
+        public List<LightData> findPageBefore(LocalDateTime start, LocalDateTime end,
+                                              LocalDateTime beforeTimestamp, Long beforeId, int limit) {
+            long fromMillis = start != null ? RecentReadingsStore.toMillis(start) : Long.MIN_VALUE;
+            long toMillis = end != null ? RecentReadingsStore.toMillis(end) : Long.MAX_VALUE;
+            long beforeMillis = beforeTimestamp != null ? RecentReadingsStore.toMillis(beforeTimestamp) : Long.MAX_VALUE;
+            long beforeKey = beforeId != null ? beforeId : Long.MAX_VALUE;
+            long upTo = Math.min(toMillis, beforeMillis);
+            long lowest = pageLowerBound(segments, fromMillis, upTo, beforeMillis, limit);
+            // Oldest kept row on top, evicted first
+            PriorityQueue<LightData> newest = new PriorityQueue<>(limit + 1, KEYSET_ORDER);
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                ArchiveSegment segment = segments.get(i);
+                if (newest.size() == limit
+                        && segment.getMaxTimestamp() < RecentReadingsStore.toMillis(newest.peek().getTimestamp())) {
+                    continue;
+                }
+                PageRing ring = new PageRing(limit);
+                segment.scan(null, lowest, upTo, (deviceKey, id, timestamp, on, currentValue, power) -> {
+                    if (timestamp < beforeMillis || (timestamp == beforeMillis && id < beforeKey)) {
+                        ring.add(deviceKey, id, timestamp, on, currentValue, power);
+                    }
+                });
+                List<LightData> rows = new ArrayList<>(ring.size);
+                ring.drainNewestFirst(rows);
+                for (LightData row : rows) {
+                    newest.add(row);
+                    if (newest.size() > limit) {
+                        newest.poll();
+                    }
+                }
+            }
+            List<LightData> page = new ArrayList<>(newest);
+            page.sort(KEYSET_ORDER.reversed());
+            return page;
+        }
+    }
+
+    /**
+     * Oldest timestamp the page can reach: the smallest block start among the newest blocks that
+     * lie wholly inside [from, upTo], before the cursor, and hold at least limit rows together.
+     * Those rows alone fill the page, so nothing older is needed. From only when they do not.
+     */
+    static long pageLowerBound(List<ArchiveSegment> segments, long from, long upTo, long beforeMillis, int limit) {
+        // Counted blocks as {minTimestamp, rows}, oldest start on top
+        PriorityQueue<long[]> newestBlocks = new PriorityQueue<>(Comparator.comparingLong(block -> block[0]));
+        long[] counted = new long[1];
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            long reach = counted[0] >= limit ? newestBlocks.peek()[0] : from;
+            segments.get(i).blocks(null, reach, upTo, (minTimestamp, maxTimestamp, rows) -> {
+                if (minTimestamp < from || maxTimestamp > upTo || maxTimestamp >= beforeMillis) {
+                    return;
+                }
+                newestBlocks.add(new long[]{minTimestamp, rows});
+                counted[0] += rows;
+                while (counted[0] - newestBlocks.peek()[1] >= limit) {
+                    counted[0] -= newestBlocks.poll()[1];
+                }
+            });
+        }
+        return counted[0] >= limit ? newestBlocks.peek()[0] : from;
+    }
+
+    // Last `capacity` rows offered, in parallel arrays; older ones are overwritten
+    private static final class PageRing {
+        private final String[] deviceKeys;
+        private final long[] ids;
+        private final long[] timestamps;
+        private final boolean[] on;
+        private final double[] currents;
+        private final double[] powers;
+        private int next;
+        private int size;
+
+        PageRing(int capacity) {
+            deviceKeys = new String[capacity];
+            ids = new long[capacity];
+            timestamps = new long[capacity];
+            on = new boolean[capacity];
+            currents = new double[capacity];
+            powers = new double[capacity];
+        }
+
+        void add(String deviceKey, long id, long timestamp, boolean isOn, double current, double power) {
+            deviceKeys[next] = deviceKey;
+            ids[next] = id;
+            timestamps[next] = timestamp;
+            on[next] = isOn;
+            currents[next] = current;
+            powers[next] = power;
+            next = (next + 1) % deviceKeys.length;
+            size = Math.min(size + 1, deviceKeys.length);
+        }
+
+        void drainNewestFirst(List<LightData> page) {
+            for (int k = 1; k <= size; k++) {
+                int index = Math.floorMod(next - k, deviceKeys.length);
+                page.add(toLightData(deviceKeys[index], ids[index], timestamps[index], on[index], currents[index], powers[index]));
+            }
+        }
+    }
+
+    public long getRows() {
+        long rows = 0;
+        for (ArchiveSegment segment : segments) {
+            rows += segment.getRows();
+        }
+        return rows;
+    }
+
+    public Map<String, Object> getMetrics() {
+        long bytes = 0;
+        for (ArchiveSegment segment : segments) {
+            bytes += segment.getSizeBytes();
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("segments", segments.size());
+        metrics.put("rows", getRows());
+        metrics.put("bytes", bytes);
+        metrics.put("pendingDrop", loadedCount() - segments.size());
+        metrics.put("afterDays", afterDays);
+        return metrics;
+    }
+
+    private synchronized int loadedCount() {
+        return loaded.size();
+    }
+
+    public static LightData toLightData(String deviceKey, long id, long timestamp, boolean on, double current, double power) {
+        LightData data = new LightData();
+        data.setId(id);
+        data.setDeviceKey(deviceKey.isEmpty() ? null : deviceKey);
+        data.setTimestamp(RecentReadingsStore.toLocalDateTime(timestamp));
+        data.setStatus(on ? "on" : "off");
+        data.setCurrent(current);
+        data.setPower(power);
+        return data;
+    }
+}
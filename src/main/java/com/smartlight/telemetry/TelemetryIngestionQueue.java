@@ -0,0 +1,215 @@
+package com.smartlight.telemetry;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer between the MQTT callback thread and {@link TelemetryWriter}.
+ * The callback only enqueues; what happens when the ring is full is decided by the overflow policy.
+ */
+@Component
+@Slf4j
+public class TelemetryIngestionQueue {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,     // overwrite the oldest queued reading
+        BLOCK,           // wait up to block-timeout-ms for space, then drop the new reading
+        OVERFLOW_BUFFER; // move overflow to a secondary in-memory buffer, drained after the ring
+
+        // SPILL is the former name of OVERFLOW_BUFFER; the on-disk spill is telemetry.spill.*
+        static OverflowPolicy parse(String value) {
+            String name = value.trim().toUpperCase();
+            if (name.equals("SPILL")) {
+                log.warn("telemetry.ingestion.overflow-policy=SPILL is deprecated, use OVERFLOW_BUFFER");
+                return OVERFLOW_BUFFER;
+            }
+            return valueOf(name);
+        }
+    }
+
+    private final TelemetryReading[] ring;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMs;
+    private final int overflowCapacity;
+    private final ArrayDeque<TelemetryReading> overflow = new ArrayDeque<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int head;
+    private int size;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+    private volatile int highWatermark;
+
+    public TelemetryIngestionQueue(
+            @Value("${telemetry.ingestion.capacity:10000}") int capacity,
+            @Value("${telemetry.ingestion.overflow-policy:DROP_OLDEST}") String overflowPolicy,
+            @Value("${telemetry.ingestion.block-timeout-ms:100}") long blockTimeoutMs,
+            @Value("${telemetry.ingestion.overflow-capacity:${telemetry.ingestion.spill-capacity:100000}}") int overflowCapacity,
+            MeterRegistry registry) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("telemetry.ingestion.capacity must be positive");
+        }
+        this.ring = new TelemetryReading[capacity];
+        this.overflowPolicy = OverflowPolicy.parse(overflowPolicy);
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.overflowCapacity = overflowCapacity;
+        Gauge.builder("telemetry.ingestion.queue.depth", this, TelemetryIngestionQueue::getDepth)
+                .description("Readings waiting for the telemetry writer")
+                .register(registry);
+        FunctionCounter.builder("telemetry.ingestion.dropped", dropped, AtomicLong::get)
+                .description("Readings dropped because the ingestion queue was full")
+                .register(registry);
+        FunctionCounter.builder("telemetry.ingestion.overflowed", overflowed, AtomicLong::get)
+                .description("Readings moved to the in-memory overflow buffer")
+                .register(registry);
+        log.info("Telemetry ingestion queue: capacity={}, overflowPolicy={}", capacity, this.overflowPolicy);
+    }
+
+    /**
+     * Enqueues a reading. Never blocks unless the BLOCK policy is configured.
+     *
+     * @return false if the reading was dropped
+     */
+    public boolean offer(TelemetryReading reading) {
+        lock.lock();
+        try {
+            if (!overflow.isEmpty()) {
+                // Keep FIFO order: once overflowing, new readings queue behind the buffered ones
+                return overflowLocked(reading);
+            }
+            if (size == ring.length) {
+                switch (overflowPolicy) {
+                    case DROP_OLDEST:
+                        ring[head] = null;
+                        head = (head + 1) % ring.length;
+                        size--;
+                        dropped.incrementAndGet();
+                        break;
+                    case BLOCK:
+                        long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+                        while (size == ring.length) {
+                            if (nanos <= 0) {
+                                dropped.incrementAndGet();
+                                return false;
+                            }
+                            nanos = notFull.awaitNanos(nanos);
+                        }
+                        break;
+                    case OVERFLOW_BUFFER:
+                        return overflowLocked(reading);
+                }
+            }
+            ring[(head + size) % ring.length] = reading;
+            size++;
+            if (size > highWatermark) {
+                highWatermark = size;
+            }
+            enqueued.incrementAndGet();
+            notEmpty.signal();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean overflowLocked(TelemetryReading reading) {
+        if (overflow.size() >= overflowCapacity) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        overflow.addLast(reading);
+        overflowed.incrementAndGet();
+        enqueued.incrementAndGet();
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * Moves up to {@code maxElements} readings into {@code sink}, waiting up to {@code timeoutMs}
+     * for the first one.
+     *
+     * @return number of readings drained
+     */
+    public int drainTo(List<TelemetryReading> sink, int maxElements, long timeoutMs) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (size == 0 && overflow.isEmpty()) {
+                if (nanos <= 0) {
+                    return 0;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            int drained = 0;
+            while (drained < maxElements && size > 0) {
+                sink.add(ring[head]);
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+                drained++;
+            }
+            while (drained < maxElements && !overflow.isEmpty()) {
+                sink.add(overflow.pollFirst());
+                drained++;
+            }
+            if (drained > 0) {
+                notFull.signalAll();
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return size + overflow.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            metrics.put("depth", size);
+            metrics.put("overflowDepth", overflow.size());
+        } finally {
+            lock.unlock();
+        }
+        metrics.put("capacity", ring.length);
+        metrics.put("highWatermark", highWatermark);
+        metrics.put("overflowPolicy", overflowPolicy.name());
+        metrics.put("enqueued", enqueued.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("overflowed", overflowed.get());
+        return metrics;
+    }
+}
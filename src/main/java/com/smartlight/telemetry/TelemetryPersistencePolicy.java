@@ -0,0 +1,86 @@
+package com.smartlight.telemetry;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which readings are worth a light_data row. A reading is persisted when the state flips,
+ * current or power leave the deadband around the last persisted value, the heartbeat interval has
+ * elapsed, or it comes from the physical switch. Everything else only updates the in-memory state
+ * and the rollups.
+ */
+@Component
+@Slf4j
+public class TelemetryPersistencePolicy {
+
+    private final boolean enabled;
+    private final double currentDeadband;
+    private final double powerDeadband;
+    private final double relativeDeadband;
+    private final long heartbeatMs;
+
+    private final ConcurrentHashMap<String, TelemetryReading> lastPersisted = new ConcurrentHashMap<>();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public TelemetryPersistencePolicy(
+            @Value("${telemetry.persistence.change-only:true}") boolean enabled,
+            @Value("${telemetry.persistence.deadband.current:0.01}") double currentDeadband,
+            @Value("${telemetry.persistence.deadband.power:2.0}") double powerDeadband,
+            @Value("${telemetry.persistence.deadband.relative:0.05}") double relativeDeadband,
+            @Value("${telemetry.persistence.heartbeat-ms:300000}") long heartbeatMs) {
+        this.enabled = enabled;
+        this.currentDeadband = currentDeadband;
+        this.powerDeadband = powerDeadband;
+        this.relativeDeadband = relativeDeadband;
+        this.heartbeatMs = heartbeatMs;
+        log.info("Telemetry persistence policy: changeOnly={}, deadband current={}A power={}W relative={}, heartbeat={}ms",
+                enabled, currentDeadband, powerDeadband, relativeDeadband, heartbeatMs);
+    }
+
+    public boolean shouldPersist(TelemetryReading reading) {
+        if (!enabled) {
+            accepted.incrementAndGet();
+            return true;
+        }
+        TelemetryReading previous = lastPersisted.get(reading.deviceKey());
+        boolean persist = previous == null
+                || reading.physicalSwitch()
+                || !reading.status().equals(previous.status())
+                || outsideDeadband(reading.current(), previous.current(), currentDeadband)
+                || outsideDeadband(reading.power(), previous.power(), powerDeadband)
+                || Duration.between(previous.timestamp(), reading.timestamp()).toMillis() >= heartbeatMs;
+        if (persist) {
+            lastPersisted.put(reading.deviceKey(), reading);
+            accepted.incrementAndGet();
+        } else {
+            suppressed.incrementAndGet();
+        }
+        return persist;
+    }
+
+    // The device moved to another replica: its next reading here must not be compared with a stale one
+    public void forget(String deviceKey) {
+        lastPersisted.remove(deviceKey);
+    }
+
+    private boolean outsideDeadband(double value, double reference, double absolute) {
+        double delta = Math.abs(value - reference);
+        return delta > absolute && delta > relativeDeadband * Math.abs(reference);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("changeOnly", enabled);
+        metrics.put("accepted", accepted.get());
+        metrics.put("suppressed", suppressed.get());
+        return metrics;
+    }
+}
@@ -0,0 +1,151 @@
+package com.smartlight.telemetry;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token-bucket rate limit per device, so one misbehaving device flooding its status topics
+ * cannot starve the writer for everyone else. Over-limit messages still update the in-memory
+ * state; they are just not persisted.
+ * Each bucket is a single AtomicLong holding the theoretical arrival time (GCRA form of the
+ * token bucket), so acquiring a token is one lock-free CAS with no allocation.
+ * <p>
+ * A bucket whose theoretical arrival time has passed is full, i.e. indistinguishable from a new
+ * one, so idle buckets are swept once max-devices is reached. Devices beyond that while every
+ * bucket is busy share one overflow bucket.
+ */
+@Component
+@Slf4j
+public class TelemetryRateLimiter {
+
+    private static final class Bucket {
+        final AtomicLong theoreticalArrivalNanos = new AtomicLong();
+        final AtomicLong allowed = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+    }
+
+    private static final String OVERFLOW_KEY = "*";
+
+    private final boolean enabled;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final int maxDevices;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Bucket overflow = new Bucket();
+    // Drop counts of swept buckets, so the exported counter never goes back
+    private final AtomicLong sweptDropped = new AtomicLong();
+
+    public TelemetryRateLimiter(@Value("${telemetry.rate-limit.enabled:true}") boolean enabled,
+                                @Value("${telemetry.rate-limit.messages-per-second:5}") double ratePerSecond,
+                                @Value("${telemetry.rate-limit.burst:20}") int burst,
+                                @Value("${telemetry.rate-limit.max-devices:100000}") int maxDevices,
+                                MeterRegistry registry) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("telemetry.rate-limit needs a positive rate and a burst of at least 1");
+        }
+        this.enabled = enabled;
+        this.emissionIntervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+        this.maxDevices = maxDevices;
+        FunctionCounter.builder("telemetry.rate_limit.dropped", this, TelemetryRateLimiter::getTotalDropped)
+                .description("Status messages not persisted because their device exceeded the rate limit")
+                .register(registry);
+        log.info("Telemetry rate limit: enabled={}, {} msg/s per device, burst {}, max {} devices",
+                enabled, ratePerSecond, burst, maxDevices);
+    }
+
+    /**
+     * @return true if a message from {@code deviceKey} may be persisted now
+     */
+    public boolean tryAcquire(String deviceKey) {
+        if (!enabled) {
+            return true;
+        }
+        long now = System.nanoTime();
+        Bucket bucket = buckets.get(deviceKey);
+        if (bucket == null) {
+            bucket = newBucket(deviceKey, now);
+        }
+        while (true) {
+            long tat = bucket.theoreticalArrivalNanos.get();
+            long start = tat == 0 ? now : Math.max(tat, now);
+            if (start - now > burstToleranceNanos) {
+                bucket.dropped.incrementAndGet();
+                return false;
+            }
+            if (bucket.theoreticalArrivalNanos.compareAndSet(tat, start + emissionIntervalNanos)) {
+                bucket.allowed.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    private Bucket newBucket(String deviceKey, long now) {
+        if (buckets.size() >= maxDevices) {
+            synchronized (this) {
+                if (buckets.size() >= maxDevices) {
+                    sweep(now);
+                }
+            }
+            if (buckets.size() >= maxDevices) {
+                return overflow;
+            }
+        }
+        return buckets.computeIfAbsent(deviceKey, k -> new Bucket());
+    }
+
+    private void sweep(long now) {
+        buckets.forEach((key, bucket) -> {
+            long tat = bucket.theoreticalArrivalNanos.get();
+            if (tat - now <= 0 && buckets.remove(key, bucket)) {
+                sweptDropped.addAndGet(bucket.dropped.get());
+            }
+        });
+    }
+
+    public long getTotalDropped() {
+        long total = sweptDropped.get() + overflow.dropped.get();
+        for (Bucket bucket : buckets.values()) {
+            total += bucket.dropped.get();
+        }
+        return total;
+    }
+
+    public long getDropped(String deviceKey) {
+        Bucket bucket = buckets.get(deviceKey);
+        return bucket == null ? 0 : bucket.dropped.get();
+    }
+
+    /**
+     * Allowed/dropped counters for every tracked device that has had at least one message dropped.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> limited = new TreeMap<>();
+        long totalDropped = sweptDropped.get() + overflow.dropped.get();
+        if (overflow.dropped.get() > 0) {
+            limited.put(OVERFLOW_KEY, Map.of("allowed", overflow.allowed.get(), "dropped", overflow.dropped.get()));
+        }
+        for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+            long dropped = entry.getValue().dropped.get();
+            totalDropped += dropped;
+            if (dropped > 0) {
+                limited.put(entry.getKey(), Map.of("allowed", entry.getValue().allowed.get(), "dropped", dropped));
+            }
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("devices", buckets.size());
+        metrics.put("dropped", totalDropped);
+        metrics.put("limitedDevices", limited);
+        return metrics;
+    }
+}
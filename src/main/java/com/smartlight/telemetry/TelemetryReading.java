@@ -0,0 +1,22 @@
+package com.smartlight.telemetry;
+
+import java.time.LocalDateTime;
+
+/**
+ * One reading accepted by the MQTT callback and queued for persistence.
+ * The timestamp is taken on arrival so it stays correct however late the writer runs.
+ * A reading that is not {@code stored} (suppressed by the deadband) gets no light_data row but
+ * is still counted in the rollups, so sample counts and power sums cover every reading.
+ */
+public record TelemetryReading(String deviceKey, String status, double current, double power,
+                               LocalDateTime timestamp, boolean physicalSwitch, boolean stored) {
+
+    public static TelemetryReading of(DeviceTelemetry snapshot, boolean physicalSwitch) {
+        return new TelemetryReading(snapshot.deviceKey(), snapshot.status(), snapshot.current(),
+                snapshot.power(), snapshot.timestamp(), physicalSwitch, true);
+    }
+
+    public TelemetryReading rollupOnly() {
+        return new TelemetryReading(deviceKey, status, current, power, timestamp, physicalSwitch, false);
+    }
+}
@@ -0,0 +1,187 @@
+package com.smartlight.telemetry;
+
+import com.smartlight.entity.LightDataRollup.Granularity;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds each written telemetry batch into the minute/hour/day rows of light_data_rollup.
+ * Deltas are summed in memory per bucket and applied as one batch of upserts, so the cost per
+ * batch depends on the number of touched buckets, not on how much history already exists.
+ * On-time is the interval since the device's previous reading while that reading said "on",
+ * split across bucket boundaries; gaps longer than max-gap-seconds are treated as offline.
+ * Called only from the telemetry-writer thread, inside the batch's transaction.
+ * <p>
+ * Retention deletes buckets per granularity after its retention days, from light_data_rollup and
+ * from light_data_sketch alike (including rows of every node_id), so percentiles are available
+ * for exactly the buckets the rollups still have.
+ */
+@Component
+@Slf4j
+public class TelemetryRollupAggregator {
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO light_data_rollup (granularity, device_key, bucket_start, sample_count, power_sum, " +
+            "power_min, power_max, current_sum, on_seconds) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (granularity, device_key, bucket_start) DO UPDATE SET " +
+            "sample_count = light_data_rollup.sample_count + EXCLUDED.sample_count, " +
+            "power_sum = light_data_rollup.power_sum + EXCLUDED.power_sum, " +
+            "power_min = LEAST(light_data_rollup.power_min, EXCLUDED.power_min), " +
+            "power_max = GREATEST(light_data_rollup.power_max, EXCLUDED.power_max), " +
+            "current_sum = light_data_rollup.current_sum + EXCLUDED.current_sum, " +
+            "on_seconds = light_data_rollup.on_seconds + EXCLUDED.on_seconds";
+
+    // Fixed lock order across batches so concurrent writers cannot deadlock on the same buckets
+    private static final Comparator<BucketKey> KEY_ORDER = Comparator
+            .comparing(BucketKey::granularity)
+            .thenComparing(BucketKey::deviceKey)
+            .thenComparing(BucketKey::bucketStart);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final long maxGapMillis;
+    private final Map<Granularity, Long> retentionDays = new EnumMap<>(Granularity.class);
+
+    private final Map<String, TelemetryReading> lastReading = new HashMap<>();
+
+    public TelemetryRollupAggregator(JdbcTemplate jdbcTemplate,
+                                     @Value("${telemetry.rollup.enabled:true}") boolean enabled,
+                                     @Value("${telemetry.rollup.max-gap-seconds:600}") long maxGapSeconds,
+                                     @Value("${telemetry.rollup.retention.minute-days:30}") long minuteRetentionDays,
+                                     @Value("${telemetry.rollup.retention.hour-days:0}") long hourRetentionDays,
+                                     @Value("${telemetry.rollup.retention.day-days:0}") long dayRetentionDays) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.maxGapMillis = maxGapSeconds * 1000;
+        retentionDays.put(Granularity.MINUTE, minuteRetentionDays);
+        retentionDays.put(Granularity.HOUR, hourRetentionDays);
+        retentionDays.put(Granularity.DAY, dayRetentionDays);
+    }
+
+    public void apply(List<TelemetryReading> batch) {
+        if (!enabled || batch.isEmpty()) {
+            return;
+        }
+        Map<BucketKey, Delta> deltas = new HashMap<>();
+        Map<String, TelemetryReading> latest = new HashMap<>();
+        for (TelemetryReading reading : batch) {
+            String deviceKey = reading.deviceKey() != null ? reading.deviceKey() : "";
+            TelemetryReading previous = latest.containsKey(deviceKey) ? latest.get(deviceKey) : lastReading.get(deviceKey);
+            for (Granularity granularity : Granularity.values()) {
+                delta(deltas, granularity, deviceKey, granularity.floor(reading.timestamp())).add(reading);
+            }
+            if (previous != null && reading.timestamp().isBefore(previous.timestamp())) {
+                continue; // late reading: counted, but it must not rewind the on-time cursor
+            }
+            if (previous != null && "on".equals(previous.status())) {
+                addOnTime(deltas, deviceKey, previous.timestamp(), reading.timestamp());
+            }
+            latest.put(deviceKey, reading);
+        }
+
+        List<Map.Entry<BucketKey, Delta>> rows = new ArrayList<>(deltas.entrySet());
+        rows.sort(Map.Entry.comparingByKey(KEY_ORDER));
+        jdbcTemplate.batchUpdate(UPSERT_SQL, rows, rows.size(), (ps, row) -> {
+            BucketKey key = row.getKey();
+            Delta delta = row.getValue();
+            ps.setString(1, key.granularity().name());
+            ps.setString(2, key.deviceKey());
+            ps.setTimestamp(3, Timestamp.valueOf(key.bucketStart()));
+            ps.setLong(4, delta.count);
+            ps.setDouble(5, delta.powerSum);
+            ps.setObject(6, delta.count > 0 ? delta.powerMin : null, Types.DOUBLE);
+            ps.setObject(7, delta.count > 0 ? delta.powerMax : null, Types.DOUBLE);
+            ps.setDouble(8, delta.currentSum);
+            ps.setDouble(9, delta.onMillis / 1000.0);
+        });
+        // Only once committed: a batch rolled back here is retried (e.g. from the spill buffer) from the same state
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    lastReading.putAll(latest);
+                }
+            });
+        } else {
+            lastReading.putAll(latest);
+        }
+        log.debug("Applied {} rollup bucket updates for {} readings", rows.size(), batch.size());
+    }
+
+    @Scheduled(cron = "${telemetry.rollup.retention.cron:0 45 0 * * *}")
+    public void applyRetention() {
+        LocalDateTime now = LocalDateTime.now();
+        for (Map.Entry<Granularity, Long> entry : retentionDays.entrySet()) {
+            if (entry.getValue() <= 0) {
+                continue;
+            }
+            Timestamp cutoff = Timestamp.valueOf(entry.getKey().floor(now.minusDays(entry.getValue())));
+            for (String table : List.of("light_data_rollup", "light_data_sketch")) {
+                try {
+                    int deleted = jdbcTemplate.update("DELETE FROM " + table + " WHERE granularity = ? AND bucket_start < ?",
+                            entry.getKey().name(), cutoff);
+                    log.info("Deleted {} {} rows of {} older than {} days", deleted, entry.getKey(), table, entry.getValue());
+                } catch (Exception e) {
+                    log.error("{} retention for {} failed: {}", table, entry.getKey(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void addOnTime(Map<BucketKey, Delta> deltas, String deviceKey, LocalDateTime from, LocalDateTime to) {
+        long gapMillis = Duration.between(from, to).toMillis();
+        if (gapMillis <= 0 || gapMillis > maxGapMillis) {
+            return;
+        }
+        for (Granularity granularity : Granularity.values()) {
+            LocalDateTime cursor = from;
+            while (cursor.isBefore(to)) {
+                LocalDateTime bucket = granularity.floor(cursor);
+                LocalDateTime boundary = granularity.next(bucket);
+                LocalDateTime end = boundary.isBefore(to) ? boundary : to;
+                delta(deltas, granularity, deviceKey, bucket).onMillis += Duration.between(cursor, end).toMillis();
+                cursor = end;
+            }
+        }
+    }
+
+    private static Delta delta(Map<BucketKey, Delta> deltas, Granularity granularity, String deviceKey, LocalDateTime bucket) {
+        return deltas.computeIfAbsent(new BucketKey(granularity, deviceKey, bucket), k -> new Delta());
+    }
+
+    private record BucketKey(Granularity granularity, String deviceKey, LocalDateTime bucketStart) {
+    }
+
+    private static final class Delta {
+        long count;
+        double powerSum;
+        double currentSum;
+        double powerMin = Double.POSITIVE_INFINITY;
+        double powerMax = Double.NEGATIVE_INFINITY;
+        long onMillis;
+
+        void add(TelemetryReading reading) {
+            count++;
+            powerSum += reading.power();
+            currentSum += reading.current();
+            powerMin = Math.min(powerMin, reading.power());
+            powerMax = Math.max(powerMax, reading.power());
+        }
+    }
+}
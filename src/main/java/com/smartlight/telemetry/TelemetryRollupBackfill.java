@@ -0,0 +1,206 @@
+package com.smartlight.telemetry;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds light_data_rollup for the history that predates the rollups, one day per transaction.
+ * Each day is recomputed in PostgreSQL from light_data (minute buckets, then hours from minutes
+ * and the day from hours) and overwrites whatever buckets that day already had, with the same
+ * on-time rules as {@link TelemetryRollupAggregator}. Running it again gives the same rows.
+ * <p>
+ * Days are processed newest first, starting with the day live rollups began on (only partly
+ * covered), so an interrupted run resumes where it stopped. Once the oldest day of light_data
+ * has rollups there is nothing left to do. Archived partitions are not backfilled. Only stored rows
+ * are counted, so days written with the deadband on get fewer samples than the live rollups would.
+ * Runs once shortly after startup and on demand; one replica at a time (advisory lock).
+ */
+@Component
+@Slf4j
+public class TelemetryRollupBackfill {
+
+    private static final String LOCK_SQL = "SELECT pg_try_advisory_lock(hashtext('light_data_rollup_backfill'))";
+    private static final String UNLOCK_SQL = "SELECT pg_advisory_unlock(hashtext('light_data_rollup_backfill'))";
+
+    private static final String OVERWRITE =
+            " ON CONFLICT (granularity, device_key, bucket_start) DO UPDATE SET " +
+            "sample_count = EXCLUDED.sample_count, power_sum = EXCLUDED.power_sum, " +
+            "power_min = EXCLUDED.power_min, power_max = EXCLUDED.power_max, " +
+            "current_sum = EXCLUDED.current_sum, on_seconds = EXCLUDED.on_seconds";
+
+    // Readings up to max-gap around the day, so on-time crossing midnight is split correctly
+    private static final String MINUTE_SQL =
+            "WITH params AS (SELECT ?::timestamp AS day_start, ?::timestamp AS day_end, " +
+            "make_interval(secs => ?) AS max_gap), " +
+            "readings AS (SELECT COALESCE(d.device_key, '') AS device_key, d.timestamp, d.status, d.power, d.current, " +
+            "LEAD(d.timestamp) OVER (PARTITION BY COALESCE(d.device_key, '') ORDER BY d.timestamp, d.id) AS next_ts " +
+            "FROM light_data d, params p " +
+            "WHERE d.timestamp >= p.day_start - p.max_gap AND d.timestamp < p.day_end + p.max_gap), " +
+            "samples AS (SELECT r.device_key, date_trunc('minute', r.timestamp) AS bucket, COUNT(*) AS n, " +
+            "SUM(r.power) AS power_sum, MIN(r.power) AS power_min, MAX(r.power) AS power_max, SUM(r.current) AS current_sum " +
+            "FROM readings r, params p WHERE r.timestamp >= p.day_start AND r.timestamp < p.day_end GROUP BY 1, 2), " +
+            "on_time AS (SELECT r.device_key, m.bucket, " +
+            "SUM(EXTRACT(EPOCH FROM LEAST(r.next_ts, m.bucket + interval '1 minute') - GREATEST(r.timestamp, m.bucket))) AS seconds " +
+            "FROM readings r CROSS JOIN params p " +
+            "CROSS JOIN LATERAL generate_series(date_trunc('minute', GREATEST(r.timestamp, p.day_start)), " +
+            "LEAST(r.next_ts, p.day_end) - interval '1 microsecond', interval '1 minute') AS m(bucket) " +
+            "WHERE r.status = 'on' AND r.next_ts > r.timestamp AND r.next_ts - r.timestamp <= p.max_gap " +
+            "AND r.next_ts > p.day_start AND r.timestamp < p.day_end GROUP BY 1, 2) " +
+            "INSERT INTO light_data_rollup (granularity, device_key, bucket_start, sample_count, power_sum, " +
+            "power_min, power_max, current_sum, on_seconds) " +
+            "SELECT 'MINUTE', COALESCE(s.device_key, o.device_key), COALESCE(s.bucket, o.bucket), COALESCE(s.n, 0), " +
+            "COALESCE(s.power_sum, 0), s.power_min, s.power_max, COALESCE(s.current_sum, 0), COALESCE(o.seconds, 0) " +
+            "FROM samples s FULL JOIN on_time o ON o.device_key = s.device_key AND o.bucket = s.bucket" + OVERWRITE;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long maxGapSeconds;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    // On-demand runs; a backfill can take minutes and must not hold a shared pool thread
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "rollup-backfill");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong daysBackfilled = new AtomicLong();
+    private volatile LocalDate lastDay;
+
+    public TelemetryRollupBackfill(JdbcTemplate jdbcTemplate,
+                                   TransactionTemplate transactionTemplate,
+                                   @Value("${telemetry.rollup.enabled:true}") boolean rollupEnabled,
+                                   @Value("${telemetry.rollup.backfill.enabled:true}") boolean backfillEnabled,
+                                   @Value("${telemetry.rollup.max-gap-seconds:600}") long maxGapSeconds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = rollupEnabled && backfillEnabled;
+        this.maxGapSeconds = maxGapSeconds;
+    }
+
+    // Once, after startup has settled
+    @Scheduled(initialDelayString = "${telemetry.rollup.backfill.initial-delay-ms:60000}", fixedDelay = Long.MAX_VALUE)
+    public void runAtStartup() {
+        if (enabled) {
+            run();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs a backfill on the rollup-backfill thread unless one is already running here.
+     */
+    public void start() {
+        if (!running.get()) {
+            executor.execute(this::run);
+        }
+    }
+
+    /**
+     * @return false if a backfill is already running in this process
+     */
+    public boolean run() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+                boolean locked;
+                try (Statement statement = con.createStatement(); ResultSet rs = statement.executeQuery(LOCK_SQL)) {
+                    locked = rs.next() && rs.getBoolean(1);
+                }
+                if (!locked) {
+                    log.info("Another replica is backfilling rollups, skipping");
+                    return null;
+                }
+                try {
+                    backfill();
+                } finally {
+                    try (Statement statement = con.createStatement()) {
+                        statement.execute(UNLOCK_SQL);
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("Rollup backfill failed: {}", e.getMessage());
+        } finally {
+            running.set(false);
+        }
+        return true;
+    }
+
+    private void backfill() {
+        Timestamp oldest = jdbcTemplate.queryForObject("SELECT MIN(timestamp) FROM light_data", Timestamp.class);
+        if (oldest == null) {
+            return;
+        }
+        Timestamp rolledUp = jdbcTemplate.queryForObject(
+                "SELECT MIN(bucket_start) FROM light_data_rollup WHERE granularity = 'DAY'", Timestamp.class);
+        LocalDate today = LocalDate.now();
+        LocalDate firstDay = oldest.toLocalDateTime().toLocalDate();
+        LocalDate liveSince = rolledUp != null ? rolledUp.toLocalDateTime().toLocalDate() : today;
+        if (!firstDay.isBefore(liveSince)) {
+            log.debug("Rollups already cover light_data since {}", firstDay);
+            return;
+        }
+        LocalDate day = liveSince.isBefore(today) ? liveSince : liveSince.minusDays(1);
+        log.info("Backfilling rollups from {} back to {}", day, firstDay);
+        for (; !day.isBefore(firstDay); day = day.minusDays(1)) {
+            backfillDay(day);
+            daysBackfilled.incrementAndGet();
+            lastDay = day;
+        }
+        log.info("Rollup backfill done: {} days", daysBackfilled.get());
+    }
+
+    private void backfillDay(LocalDate day) {
+        Timestamp start = Timestamp.valueOf(day.atStartOfDay());
+        Timestamp end = Timestamp.valueOf(day.plusDays(1).atStartOfDay());
+        transactionTemplate.executeWithoutResult(tx -> {
+            int minutes = jdbcTemplate.update(MINUTE_SQL, start, end, maxGapSeconds);
+            rollUp("MINUTE", "HOUR", "hour", start, end);
+            rollUp("HOUR", "DAY", "day", start, end);
+            log.debug("Backfilled {} minute buckets for {}", minutes, day);
+        });
+    }
+
+    private void rollUp(String from, String to, String unit, Timestamp start, Timestamp end) {
+        jdbcTemplate.update("INSERT INTO light_data_rollup (granularity, device_key, bucket_start, sample_count, " +
+                "power_sum, power_min, power_max, current_sum, on_seconds) " +
+                "SELECT '" + to + "', device_key, date_trunc('" + unit + "', bucket_start), SUM(sample_count), " +
+                "SUM(power_sum), MIN(power_min), MAX(power_max), SUM(current_sum), SUM(on_seconds) " +
+                "FROM light_data_rollup WHERE granularity = '" + from + "' AND bucket_start >= ? AND bucket_start < ? " +
+                "GROUP BY 2, 3" + OVERWRITE, start, end);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("running", running.get());
+        metrics.put("daysBackfilled", daysBackfilled.get());
+        metrics.put("lastDay", lastDay != null ? lastDay.toString() : null);
+        return metrics;
+    }
+}
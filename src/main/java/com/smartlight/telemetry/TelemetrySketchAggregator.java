@@ -0,0 +1,139 @@
+package com.smartlight.telemetry;
+
+import com.smartlight.entity.LightDataRollup.Granularity;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-device DDSketches of power and current for the open minute, hour and day buckets, fed
+ * with every status reading on the ingestion path. Dirty buckets are written to
+ * light_data_sketch every flush-interval-ms (replacing this node's row for the bucket) and
+ * forgotten once their bucket has closed and been written.
+ * <p>
+ * Buckets live in a ConcurrentHashMap and each is locked on its own, so the ingestion thread
+ * only ever waits for the one bucket being serialized, never for a whole flush or its database
+ * write. Old rows are deleted by the rollup retention (see {@link TelemetryRollupAggregator}).
+ */
+@Component
+@Slf4j
+public class TelemetrySketchAggregator {
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO light_data_sketch (granularity, device_key, bucket_start, node_id, power_sketch, current_sketch) " +
+            "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (granularity, device_key, bucket_start, node_id) DO UPDATE SET " +
+            "power_sketch = EXCLUDED.power_sketch, current_sketch = EXCLUDED.current_sketch";
+
+    private record BucketKey(Granularity granularity, String deviceKey, LocalDateTime bucketStart) {
+    }
+
+    private static final class Sketches {
+        final DDSketch power = new DDSketch();
+        final DDSketch current = new DDSketch();
+        boolean dirty;
+        boolean retired; // removed from the map; a recorder holding it must look again
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    // New per process: rows written before a restart stay valid and are merged by readers
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ConcurrentHashMap<BucketKey, Sketches> open = new ConcurrentHashMap<>();
+
+    public TelemetrySketchAggregator(JdbcTemplate jdbcTemplate,
+                                     @Value("${telemetry.sketch.enabled:true}") boolean enabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+    }
+
+    public void record(String deviceKey, double power, double current, LocalDateTime at) {
+        if (!enabled) {
+            return;
+        }
+        for (Granularity granularity : Granularity.values()) {
+            BucketKey key = new BucketKey(granularity, deviceKey, granularity.floor(at));
+            while (true) {
+                Sketches sketches = open.computeIfAbsent(key, k -> new Sketches());
+                synchronized (sketches) {
+                    if (sketches.retired) {
+                        continue;
+                    }
+                    sketches.power.add(power);
+                    sketches.current.add(current);
+                    sketches.dirty = true;
+                }
+                break;
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${telemetry.sketch.flush-interval-ms:30000}")
+    public void flush() {
+        List<Object[]> rows = new ArrayList<>();
+        List<Sketches> written = new ArrayList<>();
+        for (Map.Entry<BucketKey, Sketches> entry : open.entrySet()) {
+            BucketKey key = entry.getKey();
+            Sketches sketches = entry.getValue();
+            synchronized (sketches) {
+                if (sketches.dirty) {
+                    rows.add(new Object[]{key.granularity().name(), key.deviceKey(), Timestamp.valueOf(key.bucketStart()),
+                            nodeId, sketches.power.toBytes(), sketches.current.toBytes()});
+                    written.add(sketches);
+                    sketches.dirty = false;
+                }
+            }
+        }
+        if (!rows.isEmpty()) {
+            try {
+                jdbcTemplate.batchUpdate(UPSERT_SQL, rows);
+            } catch (Exception e) {
+                log.error("Failed to write {} telemetry sketches: {}", rows.size(), e.getMessage());
+                for (Sketches sketches : written) {
+                    synchronized (sketches) {
+                        sketches.dirty = true;
+                    }
+                }
+                return;
+            }
+        }
+        // Closed buckets whose final state is in the database are no longer needed in memory
+        LocalDateTime now = LocalDateTime.now();
+        for (Map.Entry<BucketKey, Sketches> entry : open.entrySet()) {
+            BucketKey key = entry.getKey();
+            if (key.granularity().next(key.bucketStart()).isAfter(now)) {
+                continue;
+            }
+            Sketches sketches = entry.getValue();
+            synchronized (sketches) {
+                if (!sketches.dirty && open.remove(key, sketches)) {
+                    sketches.retired = true;
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("openBuckets", open.size());
+        metrics.put("nodeId", nodeId);
+        return metrics;
+    }
+}
@@ -0,0 +1,494 @@
+package com.smartlight.telemetry;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.smartlight.storage.AppendOnlyLog;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local disk buffer for telemetry batches the database did not take.
+ * <p>
+ * Each batch is one {@link AppendOnlyLog} record in a compact binary form (device keys and
+ * statuses dictionary-coded, timestamps as microsecond deltas). Segments roll at segment-bytes;
+ * the replayer reads the oldest segment back one batch at a time and deletes it when every batch
+ * is committed. Appends are not fsynced one by one: the active segment is forced every
+ * fsync-interval-ms and whenever it rolls. Only the telemetry writer thread appends and replays.
+ * Readings the database will never accept end up in dead-letter.ndjson next to the segments.
+ */
+@Component
+@Slf4j
+public class TelemetrySpillBuffer {
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final String PREFIX = "spill-";
+    private static final String SUFFIX = ".log";
+    private static final String DEAD_LETTER_FILE = "dead-letter.ndjson";
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final int STATUS_OFF = 0;
+    private static final int STATUS_ON = 1;
+    private static final int STATUS_OTHER = 2;
+    private static final int FLAG_PHYSICAL_SWITCH = 4;
+    private static final int FLAG_ROLLUP_ONLY = 8;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long segmentBytes;
+    private final long maxBytes;
+
+    // Sealed segments waiting for replay, oldest first
+    private final TreeSet<Long> sealed = new TreeSet<>();
+    private AppendOnlyLog active;
+    private long activeSeq;
+    private boolean unsynced;
+    private long sealedBytes;
+
+    // Segment being replayed: its decoded batches and how many are already committed
+    private long headSeq = -1;
+    private List<List<TelemetryReading>> headBatches;
+    private int headIndex;
+
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    public TelemetrySpillBuffer(@Value("${telemetry.spill.enabled:true}") boolean enabled,
+                                @Value("${telemetry.spill.dir:./data/spill}") String directory,
+                                @Value("${telemetry.spill.segment-bytes:8388608}") long segmentBytes,
+                                @Value("${telemetry.spill.max-bytes:1073741824}") long maxBytes,
+                                MeterRegistry registry) {
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        FunctionCounter.builder("telemetry.spill.rows.spilled", spilled, AtomicLong::get)
+                .description("Readings written to the local spill buffer because the database write failed")
+                .register(registry);
+        FunctionCounter.builder("telemetry.spill.rows.replayed", replayed, AtomicLong::get)
+                .description("Spilled readings replayed into the database")
+                .register(registry);
+        FunctionCounter.builder("telemetry.spill.rows.dead_lettered", deadLettered, AtomicLong::get)
+                .description("Readings moved to the dead-letter file instead of the database")
+                .register(registry);
+        Gauge.builder("telemetry.spill.bytes", this, TelemetrySpillBuffer::getBytes)
+                .description("Bytes of telemetry waiting in the spill buffer")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public synchronized void open() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    sealed.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                    sealedBytes += Files.size(file);
+                }
+            }
+            activeSeq = sealed.isEmpty() ? 0 : sealed.last();
+            if (!sealed.isEmpty()) {
+                log.warn("Telemetry spill buffer holds {} segment(s), {} bytes, from a previous run; replaying",
+                        sealed.size(), sealedBytes);
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.error("Could not open telemetry spill buffer in {}: {}", directory, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (active != null) {
+            try {
+                active.force();
+                active.close();
+            } catch (IOException e) {
+                log.warn("Error closing telemetry spill segment: {}", e.getMessage());
+            }
+            active = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether readings are waiting on disk; newer batches must queue behind them to keep order.
+     */
+    public synchronized boolean hasBacklog() {
+        return headBatches != null || !sealed.isEmpty() || active != null;
+    }
+
+    /**
+     * Appends one batch. Returns false if the buffer is disabled, full or the disk write failed,
+     * in which case the caller still owns the readings.
+     */
+    public synchronized boolean append(List<TelemetryReading> batch) {
+        if (!enabled || batch.isEmpty()) {
+            return false;
+        }
+        try {
+            if (getBytes() >= maxBytes) {
+                rejected.addAndGet(batch.size());
+                log.error("Telemetry spill buffer full ({} bytes), not spilling {} readings", maxBytes, batch.size());
+                return false;
+            }
+            if (active == null) {
+                activeSeq++;
+                active = new AppendOnlyLog(segmentPath(activeSeq));
+            }
+            active.append(encode(batch));
+            unsynced = true;
+            spilled.addAndGet(batch.size());
+            if (active.size() >= segmentBytes) {
+                roll();
+            }
+            return true;
+        } catch (IOException e) {
+            rejected.addAndGet(batch.size());
+            log.error("Failed to spill {} telemetry readings to {}: {}", batch.size(), directory, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Oldest spilled batch not yet committed, or null when there is none. Returns the same batch
+     * until {@link #commit()} is called.
+     */
+    public synchronized List<TelemetryReading> peek() {
+        while (headBatches == null || headIndex >= headBatches.size()) {
+            if (headBatches != null) {
+                finishHead();
+            }
+            if (sealed.isEmpty()) {
+                if (active == null) {
+                    return null;
+                }
+                try {
+                    roll();
+                } catch (IOException e) {
+                    log.error("Failed to seal telemetry spill segment: {}", e.getMessage());
+                    return null;
+                }
+            }
+            loadHead(sealed.first());
+        }
+        return headBatches.get(headIndex);
+    }
+
+    /**
+     * Drops the first {@code rows} readings of the batch returned by {@link #peek()}, which have
+     * been written on their own. Kept in memory only: after a crash the whole batch is replayed.
+     */
+    public synchronized void skip(int rows) {
+        if (rows <= 0 || headBatches == null || headIndex >= headBatches.size()) {
+            return;
+        }
+        List<TelemetryReading> batch = headBatches.get(headIndex);
+        replayed.addAndGet(Math.min(rows, batch.size()));
+        headBatches.set(headIndex, new ArrayList<>(batch.subList(Math.min(rows, batch.size()), batch.size())));
+    }
+
+    /**
+     * Appends readings the database will not take to dead-letter.ndjson (one JSON object per
+     * reading, with the reason), where they can be inspected and re-imported by hand.
+     */
+    public synchronized void deadLetter(List<TelemetryReading> readings, String reason) {
+        deadLettered.addAndGet(readings.size());
+        log.error("Moving {} telemetry readings to the dead-letter file: {}", readings.size(), reason);
+        if (!enabled) {
+            return;
+        }
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        try (JsonGenerator json = JSON.createGenerator(lines)) {
+            json.setRootValueSeparator(null);
+            for (TelemetryReading reading : readings) {
+                json.writeStartObject();
+                json.writeStringField("deviceKey", reading.deviceKey());
+                json.writeStringField("status", reading.status());
+                json.writeNumberField("current", reading.current());
+                json.writeNumberField("power", reading.power());
+                json.writeStringField("timestamp", reading.timestamp().toString());
+                json.writeBooleanField("physicalSwitch", reading.physicalSwitch());
+                json.writeBooleanField("stored", reading.stored());
+                json.writeStringField("reason", reason);
+                json.writeEndObject();
+                json.writeRaw('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (FileChannel out = FileChannel.open(directory.resolve(DEAD_LETTER_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(false);
+        } catch (IOException e) {
+            log.error("Failed to write {} dead-letter readings to {}: {}", readings.size(), directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Marks the batch returned by {@link #peek()} as written to the database.
+     */
+    public synchronized void commit() {
+        if (headBatches == null || headIndex >= headBatches.size()) {
+            return;
+        }
+        replayed.addAndGet(headBatches.get(headIndex).size());
+        headBatches.set(headIndex, null);
+        headIndex++;
+        if (headIndex >= headBatches.size()) {
+            finishHead();
+            return;
+        }
+        // A crash before this lands replays at most the one batch again
+        try {
+            Path temp = offsetPath(headSeq).resolveSibling(offsetPath(headSeq).getFileName() + ".tmp");
+            Files.writeString(temp, Integer.toString(headIndex));
+            Files.move(temp, offsetPath(headSeq), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to record spill replay position: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${telemetry.spill.fsync-interval-ms:1000}")
+    public synchronized void sync() {
+        if (active == null || !unsynced) {
+            return;
+        }
+        try {
+            active.force();
+            unsynced = false;
+        } catch (IOException e) {
+            log.error("Failed to fsync telemetry spill segment: {}", e.getMessage());
+        }
+    }
+
+    public synchronized long getBytes() {
+        long bytes = sealedBytes;
+        if (active != null) {
+            try {
+                bytes += active.size();
+            } catch (IOException e) {
+                // size is only used for limits and metrics
+            }
+        }
+        return bytes;
+    }
+
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("spilled", spilled.get());
+        metrics.put("replayed", replayed.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("deadLettered", deadLettered.get());
+        metrics.put("segments", sealed.size() + (active != null ? 1 : 0));
+        metrics.put("bytes", getBytes());
+        return metrics;
+    }
+
+    private void roll() throws IOException {
+        active.force();
+        sealedBytes += active.size();
+        active.close();
+        active = null;
+        unsynced = false;
+        sealed.add(activeSeq);
+    }
+
+    private void loadHead(long seq) {
+        List<List<TelemetryReading>> batches = new ArrayList<>();
+        Path path = segmentPath(seq);
+        try (AppendOnlyLog segment = new AppendOnlyLog(path)) {
+            segment.replay(record -> batches.add(decode(record)));
+            Path offset = offsetPath(seq);
+            headIndex = Files.exists(offset) ? Integer.parseInt(Files.readString(offset).trim()) : 0;
+        } catch (IOException | RuntimeException e) {
+            // Keep the file for inspection but stop trying to replay it
+            log.error("Unreadable telemetry spill segment {}, moving it aside: {}", path, e.getMessage());
+            sealedBytes = Math.max(0, sealedBytes - path.toFile().length());
+            try {
+                Files.move(path, path.resolveSibling(path.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException moveError) {
+                log.error("Failed to move {} aside: {}", path, moveError.getMessage());
+            }
+            sealed.remove(seq);
+            headBatches = null;
+            return;
+        }
+        headSeq = seq;
+        headBatches = batches;
+        log.info("Replaying telemetry spill segment {} ({} batches, {} already done)", path, batches.size(), headIndex);
+    }
+
+    private void finishHead() {
+        Path path = segmentPath(headSeq);
+        try {
+            long size = Files.size(path);
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(offsetPath(headSeq));
+            sealedBytes = Math.max(0, sealedBytes - size);
+        } catch (IOException e) {
+            log.error("Failed to delete replayed telemetry spill segment {}: {}", path, e.getMessage());
+        }
+        sealed.remove(headSeq);
+        headSeq = -1;
+        headBatches = null;
+        headIndex = 0;
+    }
+
+    private Path segmentPath(long seq) {
+        return directory.resolve(String.format("%s%012d%s", PREFIX, seq, SUFFIX));
+    }
+
+    private Path offsetPath(long seq) {
+        return directory.resolve(String.format("%s%012d.offset", PREFIX, seq));
+    }
+
+    // [version][count][base micros] then per reading: device index, flags (+ status), delta micros, current, power
+    static byte[] encode(List<TelemetryReading> batch) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + batch.size() * 24);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            writeVarLong(out, batch.size());
+            long previousMicros = toMicros(batch.get(0).timestamp());
+            out.writeLong(previousMicros);
+            Map<String, Integer> devices = new HashMap<>();
+            for (TelemetryReading reading : batch) {
+                String deviceKey = reading.deviceKey() != null ? reading.deviceKey() : "";
+                Integer index = devices.get(deviceKey);
+                if (index == null) {
+                    writeVarLong(out, devices.size());
+                    writeUtf(out, deviceKey);
+                    devices.put(deviceKey, devices.size());
+                } else {
+                    writeVarLong(out, index);
+                }
+                int status = "on".equals(reading.status()) ? STATUS_ON
+                        : "off".equals(reading.status()) ? STATUS_OFF : STATUS_OTHER;
+                out.writeByte(status | (reading.physicalSwitch() ? FLAG_PHYSICAL_SWITCH : 0)
+                        | (reading.stored() ? 0 : FLAG_ROLLUP_ONLY));
+                if (status == STATUS_OTHER) {
+                    writeUtf(out, reading.status() != null ? reading.status() : "");
+                }
+                long micros = toMicros(reading.timestamp());
+                long delta = micros - previousMicros;
+                writeVarLong(out, (delta << 1) ^ (delta >> 63));
+                previousMicros = micros;
+                out.writeDouble(reading.current());
+                out.writeDouble(reading.power());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<TelemetryReading> decode(ByteBuffer in) {
+        if (in.get() != FORMAT_VERSION) {
+            throw new IllegalStateException("Unknown spill record version");
+        }
+        int count = (int) readVarLong(in);
+        long micros = in.getLong();
+        List<String> devices = new ArrayList<>();
+        List<TelemetryReading> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = (int) readVarLong(in);
+            if (index == devices.size()) {
+                devices.add(readUtf(in));
+            }
+            String deviceKey = devices.get(index);
+            int flags = in.get();
+            int status = flags & 3;
+            String statusText = status == STATUS_ON ? "on" : status == STATUS_OFF ? "off" : readUtf(in);
+            long zigzag = readVarLong(in);
+            micros += (zigzag >>> 1) ^ -(zigzag & 1);
+            double current = in.getDouble();
+            double power = in.getDouble();
+            batch.add(new TelemetryReading(deviceKey.isEmpty() ? null : deviceKey, statusText, current, power,
+                    fromMicros(micros), (flags & FLAG_PHYSICAL_SWITCH) != 0, (flags & FLAG_ROLLUP_ONLY) == 0));
+        }
+        return batch;
+    }
+
+    // The wall-clock fields as if UTC: exact round trip, no zone or DST involved
+    private static long toMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + time.getNano() / 1000;
+    }
+
+    private static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                (int) Math.floorMod(micros, 1_000_000) * 1000, ZoneOffset.UTC);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void writeUtf(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readUtf(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,55 @@
+package com.smartlight.telemetry;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Latest telemetry per device, keyed by {@link TelemetryTopics#deviceKey(String)}.
+ * Updates are lock-free compare-and-swap replacements of immutable snapshots.
+ */
+@Component
+public class TelemetryStateStore {
+
+    private final ConcurrentHashMap<String, DeviceTelemetry> states = new ConcurrentHashMap<>();
+    private volatile DeviceTelemetry mostRecent;
+
+    public DeviceTelemetry update(String deviceKey, UnaryOperator<DeviceTelemetry> change) {
+        while (true) {
+            DeviceTelemetry current = states.get(deviceKey);
+            if (current == null) {
+                DeviceTelemetry created = change.apply(DeviceTelemetry.initial(deviceKey));
+                if (states.putIfAbsent(deviceKey, created) == null) {
+                    mostRecent = created;
+                    return created;
+                }
+            } else {
+                DeviceTelemetry updated = change.apply(current);
+                if (states.replace(deviceKey, current, updated)) {
+                    mostRecent = updated;
+                    return updated;
+                }
+            }
+        }
+    }
+
+    public void remove(String deviceKey) {
+        states.remove(deviceKey);
+    }
+
+    public Optional<DeviceTelemetry> get(String deviceKey) {
+        return Optional.ofNullable(states.get(deviceKey));
+    }
+
+    public Optional<DeviceTelemetry> getMostRecent() {
+        return Optional.ofNullable(mostRecent);
+    }
+
+    public Map<String, DeviceTelemetry> getAll() {
+        return Collections.unmodifiableMap(states);
+    }
+}
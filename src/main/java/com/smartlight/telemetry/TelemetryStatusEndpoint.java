@@ -0,0 +1,44 @@
+package com.smartlight.telemetry;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * State of every telemetry pipeline stage in one document, at /actuator/telemetry: the counters
+ * of each stage together with its configuration and progress (backfill day, archive range, ...).
+ */
+@Component
+@Endpoint(id = "telemetry")
+@RequiredArgsConstructor
+public class TelemetryStatusEndpoint {
+
+    private final DevicePartitioner partitioner;
+    private final TelemetryIngestionQueue ingestionQueue;
+    private final TelemetryWriter telemetryWriter;
+    private final TelemetryPersistencePolicy persistencePolicy;
+    private final TelemetryRateLimiter rateLimiter;
+    private final EnergyAccumulator energyAccumulator;
+    private final TelemetryArchive telemetryArchive;
+    private final TelemetrySketchAggregator sketchAggregator;
+    private final TelemetryRollupBackfill rollupBackfill;
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("partitioning", partitioner.getMetrics());
+        status.put("ingestion", ingestionQueue.getMetrics());
+        status.put("writer", telemetryWriter.getMetrics());
+        status.put("persistence", persistencePolicy.getMetrics());
+        status.put("rateLimit", rateLimiter.getMetrics());
+        status.put("energy", energyAccumulator.getMetrics());
+        status.put("archive", telemetryArchive.getMetrics());
+        status.put("sketch", sketchAggregator.getMetrics());
+        status.put("rollupBackfill", rollupBackfill.getMetrics());
+        return status;
+    }
+}
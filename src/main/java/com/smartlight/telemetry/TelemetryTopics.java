@@ -0,0 +1,37 @@
+package com.smartlight.telemetry;
+
+/**
+ * Maps MQTT topics to the device key used to index telemetry.
+ * "/light/status", "/light/current" and "/light/control" all belong to device "/light",
+ * the same prefix stored in Device.mqttTopic / MobileDevice.topic. A trailing payload-format
+ * suffix such as "/bin" ("/light/status/bin") is ignored.
+ */
+public final class TelemetryTopics {
+
+    public static final String BINARY_SUFFIX = "/bin";
+
+    private static final String[] CHANNELS = {"status", "current", "power", "control"};
+
+    private TelemetryTopics() {
+    }
+
+    public static String deviceKey(String topic) {
+        if (topic == null || topic.isEmpty()) {
+            return "";
+        }
+        if (topic.endsWith(BINARY_SUFFIX)) {
+            topic = topic.substring(0, topic.length() - BINARY_SUFFIX.length());
+        }
+        int slash = topic.lastIndexOf('/');
+        if (slash < 0) {
+            return topic;
+        }
+        int segmentLength = topic.length() - slash - 1;
+        for (String channel : CHANNELS) {
+            if (channel.length() == segmentLength && topic.startsWith(channel, slash + 1)) {
+                return topic.substring(0, slash);
+            }
+        }
+        return topic;
+    }
+}
@@ -0,0 +1,337 @@
+package com.smartlight.telemetry;
+
+import com.smartlight.mqtt.LatencyHistogram;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dedicated writer stage: drains {@link TelemetryIngestionQueue} and persists readings,
+ * so a slow database never stalls MQTT delivery.
+ * Readings are collected for up to batch-size rows or flush-interval-ms and written with one
+ * COPY in a single transaction, together with the matching light_data_rollup upserts. With
+ * telemetry.writer.copy=false, or a connection that is not PostgreSQL's, the rows go as one JDBC
+ * batch instead (the PostgreSQL driver rewrites it into multi-row INSERTs). Readings the deadband
+ * suppressed get no row but are folded into the rollups like the rest.
+ * <p>
+ * A batch that fails because the database is unreachable or busy ({@link WriteFailure}) goes to
+ * {@link TelemetrySpillBuffer} instead of being dropped. While spilled batches are waiting, newer
+ * ones are spilled behind them so rows still reach the database in arrival order; the same thread
+ * replays the backlog one batch at a time, only while the ingestion queue is not backing up, and
+ * waits replay-retry-ms after a failed attempt. Rows the database rejects for their content, and
+ * spilled batches that keep failing replay-max-attempts times while it is reachable, are moved to
+ * the dead-letter file so they never hold up the rest.
+ */
+@Component
+@Slf4j
+public class TelemetryWriter {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO light_data (device_key, status, current, power, timestamp) VALUES (?, ?, ?, ?, ?)";
+
+    private final TelemetryIngestionQueue ingestionQueue;
+    private final TelemetryRollupAggregator rollupAggregator;
+    private final TelemetrySpillBuffer spillBuffer;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final boolean copy;
+    private final long flushIntervalMs;
+    private final long replayRetryMs;
+    private final int replayMaxAttempts;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    // Arrival-to-commit delay per row, in milliseconds
+    private final LatencyHistogram writeLagMs = new LatencyHistogram();
+    private final Timer saveTimer;
+    private final Timer lagTimer;
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private long nextReplayAt;
+    private int replayAttempts;
+    private volatile boolean running;
+    private Thread worker;
+
+    public TelemetryWriter(TelemetryIngestionQueue ingestionQueue,
+                           TelemetryRollupAggregator rollupAggregator,
+                           TelemetrySpillBuffer spillBuffer,
+                           JdbcTemplate jdbcTemplate,
+                           TransactionTemplate transactionTemplate,
+                           @Value("${telemetry.writer.batch-size:500}") int batchSize,
+                           @Value("${telemetry.writer.copy:true}") boolean copy,
+                           @Value("${telemetry.writer.flush-interval-ms:250}") long flushIntervalMs,
+                           @Value("${telemetry.writer.replay-retry-ms:5000}") long replayRetryMs,
+                           @Value("${telemetry.writer.replay-max-attempts:10}") int replayMaxAttempts,
+                           MeterRegistry registry) {
+        this.ingestionQueue = ingestionQueue;
+        this.rollupAggregator = rollupAggregator;
+        this.spillBuffer = spillBuffer;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.copy = copy;
+        this.flushIntervalMs = flushIntervalMs;
+        this.replayRetryMs = replayRetryMs;
+        this.replayMaxAttempts = replayMaxAttempts;
+        this.saveTimer = Timer.builder("telemetry.db.save")
+                .description("Duration of one batched light_data insert transaction")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.lagTimer = Timer.builder("telemetry.db.write.lag")
+                .description("Delay from MQTT arrival to committed row")
+                .register(registry);
+        FunctionCounter.builder("telemetry.db.rows.written", written, AtomicLong::get)
+                .register(registry);
+        FunctionCounter.builder("telemetry.db.rows.failed", failed, AtomicLong::get)
+                .register(registry);
+        FunctionCounter.builder("telemetry.db.rows.lost", lost, AtomicLong::get)
+                .description("Readings neither written nor spilled")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::run, "telemetry-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (worker != null) {
+            worker.join(5000);
+        }
+    }
+
+    private void run() {
+        List<TelemetryReading> batch = new ArrayList<>(batchSize);
+        long batchStartedAt = 0;
+        while (running || ingestionQueue.getDepth() > 0 || !batch.isEmpty()) {
+            try {
+                long waitMs = batch.isEmpty()
+                        ? flushIntervalMs
+                        : Math.max(0, batchStartedAt + flushIntervalMs - System.currentTimeMillis());
+                if (spillBuffer.hasBacklog()) {
+                    waitMs = Math.min(waitMs, Math.max(0, nextReplayAt - System.currentTimeMillis()));
+                }
+                int before = batch.size();
+                ingestionQueue.drainTo(batch, batchSize - batch.size(), waitMs);
+                if (before == 0 && !batch.isEmpty()) {
+                    batchStartedAt = System.currentTimeMillis();
+                }
+                boolean full = batch.size() >= batchSize;
+                boolean due = !batch.isEmpty() && System.currentTimeMillis() - batchStartedAt >= flushIntervalMs;
+                if (full || due || (!running && !batch.isEmpty())) {
+                    write(batch);
+                    batch.clear();
+                } else if (running && ingestionQueue.getDepth() < batchSize
+                        && System.currentTimeMillis() >= nextReplayAt && spillBuffer.hasBacklog()) {
+                    replayNext();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("Telemetry writer error: {}", e.getMessage());
+                discard(batch, e);
+                batch.clear();
+            }
+        }
+        log.info("Telemetry writer stopped");
+    }
+
+    // The batch could not be written, spilled or isolated; keep it in the dead-letter file if possible
+    private void discard(List<TelemetryReading> batch, Exception cause) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            spillBuffer.deadLetter(batch, "writer error: " + cause.getMessage());
+        } catch (Exception e) {
+            lost.addAndGet(batch.size());
+            log.error("Lost {} light data rows: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    private void write(List<TelemetryReading> batch) {
+        if (spillBuffer.hasBacklog()) {
+            spill(batch);
+            return;
+        }
+        WriteFailure failure = persist(batch);
+        if (failure == WriteFailure.PERMANENT) {
+            isolate(batch, false);
+        } else if (failure != null) {
+            nextReplayAt = System.currentTimeMillis() + replayRetryMs;
+            spill(batch);
+        }
+    }
+
+    private void replayNext() {
+        List<TelemetryReading> spilled = spillBuffer.peek();
+        if (spilled == null) {
+            return;
+        }
+        WriteFailure failure = persist(spilled);
+        if (failure == null) {
+            replayAttempts = 0;
+            spillBuffer.commit();
+        } else if (failure == WriteFailure.PERMANENT) {
+            replayAttempts = 0;
+            isolate(spilled, true);
+        } else if (failure == WriteFailure.TRANSIENT && ++replayAttempts >= replayMaxAttempts) {
+            // Keeps failing although the database is reachable: do not let it hold up the rest
+            replayAttempts = 0;
+            spillBuffer.deadLetter(spilled, "failed " + replayMaxAttempts + " replay attempts");
+            spillBuffer.commit();
+        } else {
+            // UNAVAILABLE is not counted: the database is down, nothing is wrong with the batch
+            nextReplayAt = System.currentTimeMillis() + replayRetryMs;
+        }
+    }
+
+    /**
+     * A batch was rejected for its content: write it row by row so one bad reading (an over-long
+     * device key, say) costs only itself, which goes to the dead-letter file. If the database becomes unavailable half way, the rest is spilled (or, for a spilled
+     * batch, stays at the head of the spill buffer) as usual.
+     */
+    private void isolate(List<TelemetryReading> batch, boolean fromSpill) {
+        for (int i = 0; i < batch.size(); i++) {
+            List<TelemetryReading> row = List.of(batch.get(i));
+            WriteFailure failure = persist(row);
+            if (failure == WriteFailure.PERMANENT) {
+                spillBuffer.deadLetter(row, "rejected by the database");
+            } else if (failure != null) {
+                nextReplayAt = System.currentTimeMillis() + replayRetryMs;
+                if (fromSpill) {
+                    spillBuffer.skip(i);
+                } else {
+                    spill(batch.subList(i, batch.size()));
+                }
+                return;
+            }
+        }
+        if (fromSpill) {
+            spillBuffer.commit();
+        }
+    }
+
+    private void spill(List<TelemetryReading> batch) {
+        if (!spillBuffer.append(batch)) {
+            lost.addAndGet(batch.size());
+            log.error("Lost {} light data rows: database write and spill both failed", batch.size());
+        }
+    }
+
+    // null on success
+    private WriteFailure persist(List<TelemetryReading> batch) {
+        long startNanos = System.nanoTime();
+        List<TelemetryReading> rows = stored(batch);
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                if (!rows.isEmpty()) {
+                    insert(rows);
+                }
+                rollupAggregator.apply(batch);
+            });
+            saveTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            written.addAndGet(rows.size());
+            batches.incrementAndGet();
+            LocalDateTime now = LocalDateTime.now();
+            for (TelemetryReading reading : batch) {
+                long lagMs = Duration.between(reading.timestamp(), now).toMillis();
+                writeLagMs.record(lagMs);
+                lagTimer.record(lagMs, TimeUnit.MILLISECONDS);
+            }
+            log.debug("Wrote {} telemetry rows, {} readings rolled up", rows.size(), batch.size());
+            return null;
+        } catch (Exception e) {
+            WriteFailure failure = WriteFailure.classify(e);
+            failed.addAndGet(batch.size());
+            log.error("Failed to save {} light data rows to database ({}): {}", batch.size(), failure, e.getMessage());
+            return failure;
+        }
+    }
+
+    private void insert(List<TelemetryReading> rows) {
+        boolean copied = copy && Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) con -> {
+            if (!LightDataCopy.isSupported(con)) {
+                return false;
+            }
+            LightDataCopy.copy(con, "light_data", rows);
+            return true;
+        }));
+        if (!copied) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, rows, rows.size(), (ps, reading) -> {
+                ps.setString(1, reading.deviceKey());
+                ps.setString(2, reading.status());
+                ps.setDouble(3, reading.current());
+                ps.setDouble(4, reading.power());
+                ps.setTimestamp(5, Timestamp.valueOf(reading.timestamp()));
+            });
+        }
+    }
+
+    private static List<TelemetryReading> stored(List<TelemetryReading> batch) {
+        List<TelemetryReading> rows = new ArrayList<>(batch.size());
+        for (TelemetryReading reading : batch) {
+            if (reading.stored()) {
+                rows.add(reading);
+            }
+        }
+        return rows;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getLost() {
+        return lost.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("written", written.get());
+        metrics.put("failed", failed.get());
+        metrics.put("lost", lost.get());
+        metrics.put("batches", batches.get());
+        metrics.put("writeLagP50Ms", writeLagMs.getValueAtPercentile(50));
+        metrics.put("writeLagP99Ms", writeLagMs.getValueAtPercentile(99));
+        metrics.put("writeLagMaxMs", writeLagMs.getMax());
+        metrics.put("batchSize", batchSize);
+        metrics.put("copy", copy);
+        metrics.put("flushIntervalMs", flushIntervalMs);
+        metrics.put("spill", spillBuffer.getMetrics());
+        return metrics;
+    }
+}
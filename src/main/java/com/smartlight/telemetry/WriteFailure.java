@@ -0,0 +1,51 @@
+package com.smartlight.telemetry;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+
+/**
+ * Why a telemetry write failed, which decides what the writer does with the batch:
+ * wait for the database ({@link #UNAVAILABLE}), retry a bounded number of times
+ * ({@link #TRANSIENT}) or give up on the rows ({@link #PERMANENT}).
+ */
+public enum WriteFailure {
+    UNAVAILABLE,    // no connection: nothing is wrong with the rows
+    TRANSIENT,      // deadlock, serialization failure, timeout, resource shortage
+    PERMANENT;      // the rows themselves are rejected (too long, no partition, constraint)
+
+    public static WriteFailure classify(Throwable error) {
+        boolean transientError = false;
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof CannotCreateTransactionException
+                    || t instanceof DataAccessResourceFailureException
+                    || t instanceof SQLTransientConnectionException
+                    || t instanceof SQLRecoverableException) {
+                return UNAVAILABLE;
+            }
+            if (t instanceof SQLException sql && sql.getSQLState() != null) {
+                String state = sql.getSQLState();
+                // 08: connection exception; 57P01-57P03: server shutting down or starting
+                if (state.startsWith("08") || state.startsWith("57P")) {
+                    return UNAVAILABLE;
+                }
+                // 40: serialization failure/deadlock; 53: insufficient resources; 55P03: lock timeout; 57014: cancelled
+                if (state.startsWith("40") || state.startsWith("53") || state.equals("55P03") || state.equals("57014")) {
+                    transientError = true;
+                }
+            }
+            if (t instanceof TransientDataAccessException
+                    || t instanceof RecoverableDataAccessException
+                    || t instanceof SQLTransientException) {
+                transientError = true;
+            }
+        }
+        return transientError ? TRANSIENT : PERMANENT;
+    }
+}
@@ -0,0 +1,144 @@
+package com.smartlight.benchmark;
+
+import com.smartlight.telemetry.LightDataCopy;
+import com.smartlight.telemetry.TelemetryReading;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing one telemetry batch to PostgreSQL: a committed INSERT per row (the former
+ * save() per message) against the JDBC batch, with and without the driver rewriting it into
+ * multi-row INSERTs, and the COPY TelemetryWriter uses by default. Needs a running database; the
+ * rows go to a scratch table shaped like light_data, which is dropped afterwards. Run with the
+ * command in the README (Benchmarks), e.g. with {@code -p jdbcUrl=jdbc:postgresql://localhost:5432/smart_light_db}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LightDataInsertBenchmark {
+
+    private static final String TABLE = "light_data_insert_benchmark";
+    private static final String INSERT_SQL =
+            "INSERT INTO " + TABLE + " (device_key, status, current, power, timestamp) VALUES (?, ?, ?, ?, ?)";
+
+    @Param("jdbc:postgresql://localhost:5432/smart_light_db")
+    public String jdbcUrl;
+
+    @Param("postgres")
+    public String username;
+
+    @Param("2909")
+    public String password;
+
+    // telemetry.writer.batch-size
+    @Param("500")
+    public int rows;
+
+    private SingleConnectionDataSource plainDataSource;
+    private SingleConnectionDataSource rewriteDataSource;
+    private JdbcTemplate plain;
+    private JdbcTemplate rewrite;
+    private TransactionTemplate plainTransactions;
+    private TransactionTemplate rewriteTransactions;
+    private final List<Object[]> batch = new ArrayList<>();
+    private final List<TelemetryReading> readings = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        plainDataSource = dataSource(false);
+        rewriteDataSource = dataSource(true);
+        plain = new JdbcTemplate(plainDataSource);
+        rewrite = new JdbcTemplate(rewriteDataSource);
+        plainTransactions = new TransactionTemplate(new DataSourceTransactionManager(plainDataSource));
+        rewriteTransactions = new TransactionTemplate(new DataSourceTransactionManager(rewriteDataSource));
+
+        plain.execute("DROP TABLE IF EXISTS " + TABLE);
+        plain.execute("CREATE TABLE " + TABLE + " (id bigserial PRIMARY KEY, device_key varchar(255), " +
+                "status varchar(255) NOT NULL, current double precision NOT NULL, " +
+                "power double precision NOT NULL, timestamp timestamp NOT NULL)");
+        plain.execute("CREATE INDEX ON " + TABLE + " (timestamp, id)");
+        plain.execute("CREATE INDEX ON " + TABLE + " (device_key, timestamp)");
+
+        LocalDateTime start = LocalDateTime.now();
+        for (int i = 0; i < rows; i++) {
+            TelemetryReading reading = new TelemetryReading("/light/" + (i % 50), i % 2 == 0 ? "on" : "off",
+                    0.5 + i % 7 * 0.01, 110.0 + i % 13, start.plusNanos(i * 1_000_000L), false, true);
+            readings.add(reading);
+            batch.add(new Object[]{reading.deviceKey(), reading.status(), reading.current(), reading.power(),
+                    Timestamp.valueOf(reading.timestamp())});
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncate() {
+        plain.execute("TRUNCATE " + TABLE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        plain.execute("DROP TABLE IF EXISTS " + TABLE);
+        plainDataSource.destroy();
+        rewriteDataSource.destroy();
+    }
+
+    @Benchmark
+    public int perRowInserts() {
+        int written = 0;
+        for (Object[] row : batch) {
+            written += plain.update(INSERT_SQL, row);
+        }
+        return written;
+    }
+
+    @Benchmark
+    public int[] batchInsert() {
+        return plainTransactions.execute(tx -> plain.batchUpdate(INSERT_SQL, batch));
+    }
+
+    @Benchmark
+    public int[] batchInsertRewritten() {
+        return rewriteTransactions.execute(tx -> rewrite.batchUpdate(INSERT_SQL, batch));
+    }
+
+    @Benchmark
+    public Long copyInsert() {
+        return plainTransactions.execute(tx ->
+                plain.execute((ConnectionCallback<Long>) con -> LightDataCopy.copy(con, TABLE, readings)));
+    }
+
+    private SingleConnectionDataSource dataSource(boolean reWriteBatchedInserts) {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(jdbcUrl, username, password, true);
+        dataSource.setDriverClassName("org.postgresql.Driver");
+        dataSource.setAutoCommit(true);
+        Properties properties = new Properties();
+        properties.setProperty("reWriteBatchedInserts", Boolean.toString(reWriteBatchedInserts));
+        dataSource.setConnectionProperties(properties);
+        return dataSource;
+    }
+}
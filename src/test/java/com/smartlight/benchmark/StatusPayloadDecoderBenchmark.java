@@ -0,0 +1,96 @@
+package com.smartlight.benchmark;
+
+import com.smartlight.telemetry.StatusPayload;
+import com.smartlight.telemetry.StatusPayloadDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decoding one status message on the MQTT callback thread, per wire format, against the
+ * String and regex parsing MqttService.handleMessage did before StatusPayloadDecoder.
+ * Run with the command in the README (Benchmarks).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatusPayloadDecoderBenchmark {
+
+    private final StatusPayload payload = new StatusPayload();
+    private final byte[] binary = StatusPayloadDecoder.encodeBinary(true, false, 0.512f, 112.6f);
+    private final byte[] json = bytes("{\"state\":\"on\",\"current\":0.512,\"power\":112.6,\"source\":\"physical_switch\"}");
+    // /light/power: a short reading takes the exact fast path, a long one falls back to Double.parseDouble
+    private final byte[] shortNumber = bytes("112.6");
+    private final byte[] longNumber = bytes("112.60000000000000142");
+
+    @Benchmark
+    public void decodeJson(Blackhole blackhole) {
+        blackhole.consume(StatusPayloadDecoder.decode(json, payload));
+        blackhole.consume(payload.getCurrent());
+        blackhole.consume(payload.getPower());
+    }
+
+    // The former handleMessage: payload to String, then one replaceAll per field
+    @Benchmark
+    public void decodeJsonRegexBaseline(Blackhole blackhole) {
+        String text = new String(json);
+        String state = null;
+        double current = 0;
+        double power = 0;
+        if (text.contains("\"state\"")) {
+            String stateStr = text.replaceAll(".*\"state\"\\s*:\\s*\"([^\"]+)\".*", "$1");
+            if (stateStr.equals("on") || stateStr.equals("off")) {
+                state = stateStr;
+            }
+            if (text.contains("\"current\"")) {
+                current = Double.parseDouble(text.replaceAll(".*\"current\"\\s*:\\s*([0-9.]+).*", "$1"));
+            }
+            if (text.contains("\"power\"")) {
+                power = Double.parseDouble(text.replaceAll(".*\"power\"\\s*:\\s*([0-9.]+).*", "$1"));
+            }
+            blackhole.consume(text.contains("\"source\":\"physical_switch\""));
+        }
+        blackhole.consume(state);
+        blackhole.consume(current);
+        blackhole.consume(power);
+    }
+
+    @Benchmark
+    public double parseShortNumberBaseline() {
+        return Double.parseDouble(new String(shortNumber));
+    }
+
+    @Benchmark
+    public double parseShortNumber() {
+        return StatusPayloadDecoder.parseDouble(shortNumber);
+    }
+
+    @Benchmark
+    public double parseLongNumber() {
+        return StatusPayloadDecoder.parseDouble(longNumber);
+    }
+
+    @Benchmark
+    public void decodeBinary(Blackhole blackhole) {
+        blackhole.consume(StatusPayloadDecoder.decodeBinary(binary, payload));
+        blackhole.consume(payload.getCurrent());
+        blackhole.consume(payload.getPower());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
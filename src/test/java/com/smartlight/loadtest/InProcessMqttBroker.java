@@ -0,0 +1,294 @@
+package com.smartlight.loadtest;
+
+import com.smartlight.mqtt.TopicRouter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal MQTT 3.1.1 broker bound to localhost for the load harness, so the real Paho clients of
+ * the backend and of the simulated fleet talk over TCP without any external broker.
+ * Supports CONNECT, SUBSCRIBE/UNSUBSCRIBE (including $share/group/ filters), PUBLISH with
+ * QoS 0/1, PINGREQ and DISCONNECT. No retained messages, no persistent sessions, no QoS 2.
+ */
+@Component
+@Profile("loadtest")
+@Slf4j
+public class InProcessMqttBroker {
+
+    private static final String SHARE_PREFIX = "$share/";
+
+    private record Subscription(Session session, String filter, String shareGroup, int qos) {
+    }
+
+    private final int port;
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Map<String, AtomicLong> shareCursors = new HashMap<>();
+    private final AtomicLong routed = new AtomicLong();
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    public InProcessMqttBroker(@Value("${loadtest.broker.port:18830}") int port) {
+        this.port = port;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 200, InetAddress.getLoopbackAddress());
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "loadtest-broker-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("In-process MQTT broker listening on tcp://localhost:{}", port);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        running = false;
+        serverSocket.close();
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    public long getRoutedCount() {
+        return routed.get();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Session session = new Session(socket);
+                sessions.add(session);
+                Thread reader = new Thread(session::readLoop, "loadtest-broker-session");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Broker accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void route(String topic, byte[] payload, int qos) {
+        routed.incrementAndGet();
+        Map<Session, Integer> direct = new LinkedHashMap<>();
+        Map<String, List<Subscription>> groups = new LinkedHashMap<>();
+        for (Subscription subscription : subscriptions) {
+            if (!TopicRouter.matches(subscription.filter(), topic)) {
+                continue;
+            }
+            if (subscription.shareGroup() == null) {
+                direct.merge(subscription.session(), subscription.qos(), Math::max);
+            } else {
+                groups.computeIfAbsent(subscription.shareGroup() + "/" + subscription.filter(), k -> new ArrayList<>())
+                        .add(subscription);
+            }
+        }
+        direct.forEach((session, subscriptionQos) -> session.deliver(topic, payload, Math.min(qos, subscriptionQos)));
+        groups.forEach((group, members) -> {
+            AtomicLong cursor;
+            synchronized (shareCursors) {
+                cursor = shareCursors.computeIfAbsent(group, k -> new AtomicLong());
+            }
+            Subscription chosen = members.get((int) (cursor.getAndIncrement() % members.size()));
+            chosen.session().deliver(topic, payload, Math.min(qos, chosen.qos()));
+        });
+    }
+
+    private final class Session {
+        private final Socket socket;
+        private final OutputStream out;
+        private int nextPacketId = 1;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        }
+
+        void readLoop() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 8192))) {
+                while (running) {
+                    int header = in.readUnsignedByte();
+                    byte[] body = new byte[readRemainingLength(in)];
+                    in.readFully(body);
+                    if (!handle(header, body)) {
+                        break;
+                    }
+                }
+            } catch (EOFException e) {
+                // client went away
+            } catch (IOException e) {
+                log.debug("Broker session closed: {}", e.getMessage());
+            } finally {
+                close();
+            }
+        }
+
+        private boolean handle(int header, byte[] body) throws IOException {
+            int type = header >>> 4;
+            switch (type) {
+                case 1: // CONNECT
+                    write(new byte[]{0x20, 0x02, 0x00, 0x00});
+                    return true;
+                case 3: { // PUBLISH
+                    int qos = (header >>> 1) & 0x03;
+                    int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+                    String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+                    int offset = 2 + topicLength;
+                    if (qos > 0) {
+                        write(new byte[]{0x40, 0x02, body[offset], body[offset + 1]});
+                        offset += 2;
+                    }
+                    byte[] payload = new byte[body.length - offset];
+                    System.arraycopy(body, offset, payload, 0, payload.length);
+                    route(topic, payload, Math.min(qos, 1));
+                    return true;
+                }
+                case 4: // PUBACK for our QoS 1 deliveries, nothing is retransmitted
+                    return true;
+                case 8: { // SUBSCRIBE
+                    List<Integer> granted = new ArrayList<>();
+                    int offset = 2;
+                    while (offset < body.length) {
+                        int length = ((body[offset] & 0xFF) << 8) | (body[offset + 1] & 0xFF);
+                        String filter = new String(body, offset + 2, length, StandardCharsets.UTF_8);
+                        int qos = Math.min(body[offset + 2 + length] & 0x03, 1);
+                        addSubscription(filter, qos);
+                        granted.add(qos);
+                        offset += 3 + length;
+                    }
+                    byte[] ack = new byte[4 + granted.size()];
+                    ack[0] = (byte) 0x90;
+                    ack[1] = (byte) (2 + granted.size());
+                    ack[2] = body[0];
+                    ack[3] = body[1];
+                    for (int i = 0; i < granted.size(); i++) {
+                        ack[4 + i] = granted.get(i).byteValue();
+                    }
+                    write(ack);
+                    return true;
+                }
+                case 10: { // UNSUBSCRIBE
+                    int offset = 2;
+                    while (offset < body.length) {
+                        int length = ((body[offset] & 0xFF) << 8) | (body[offset + 1] & 0xFF);
+                        String filter = new String(body, offset + 2, length, StandardCharsets.UTF_8);
+                        subscriptions.removeIf(s -> s.session() == this && fullFilter(s).equals(filter));
+                        offset += 2 + length;
+                    }
+                    write(new byte[]{(byte) 0xB0, 0x02, body[0], body[1]});
+                    return true;
+                }
+                case 12: // PINGREQ
+                    write(new byte[]{(byte) 0xD0, 0x00});
+                    return true;
+                case 14: // DISCONNECT
+                    return false;
+                default:
+                    log.debug("Ignoring MQTT packet type {}", type);
+                    return true;
+            }
+        }
+
+        private void addSubscription(String filter, int qos) {
+            String shareGroup = null;
+            if (filter.startsWith(SHARE_PREFIX)) {
+                int slash = filter.indexOf('/', SHARE_PREFIX.length());
+                shareGroup = filter.substring(SHARE_PREFIX.length(), slash);
+                filter = filter.substring(slash + 1);
+            }
+            subscriptions.add(new Subscription(this, filter, shareGroup, qos));
+        }
+
+        private String fullFilter(Subscription subscription) {
+            return subscription.shareGroup() == null
+                    ? subscription.filter()
+                    : SHARE_PREFIX + subscription.shareGroup() + "/" + subscription.filter();
+        }
+
+        void deliver(String topic, byte[] payload, int qos) {
+            byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+            int remaining = 2 + topicBytes.length + (qos > 0 ? 2 : 0) + payload.length;
+            try {
+                synchronized (this) {
+                    out.write(0x30 | (qos << 1));
+                    writeRemainingLength(remaining);
+                    out.write(topicBytes.length >>> 8);
+                    out.write(topicBytes.length & 0xFF);
+                    out.write(topicBytes);
+                    if (qos > 0) {
+                        int packetId = nextPacketId;
+                        nextPacketId = nextPacketId == 0xFFFF ? 1 : nextPacketId + 1;
+                        out.write(packetId >>> 8);
+                        out.write(packetId & 0xFF);
+                    }
+                    out.write(payload);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private synchronized void write(byte[] packet) throws IOException {
+            out.write(packet);
+            out.flush();
+        }
+
+        private void writeRemainingLength(int length) throws IOException {
+            do {
+                int digit = length % 128;
+                length /= 128;
+                out.write(length > 0 ? digit | 0x80 : digit);
+            } while (length > 0);
+        }
+
+        void close() {
+            subscriptions.removeIf(s -> s.session() == this);
+            sessions.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    private static int readRemainingLength(DataInputStream in) throws IOException {
+        int multiplier = 1;
+        int value = 0;
+        int digit;
+        do {
+            digit = in.readUnsignedByte();
+            value += (digit & 0x7F) * multiplier;
+            multiplier *= 128;
+        } while ((digit & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,18 @@
+package com.smartlight.loadtest;
+
+import com.smartlight.SmartLightApplication;
+import org.springframework.boot.SpringApplication;
+
+/**
+ * Starts the backend with the test classpath and the "loadtest" profile, so the in-process broker,
+ * simulated fleet and driver never ship in the production jar.
+ *
+ * <pre>mvn spring-boot:test-run</pre>
+ */
+public class LoadTestApplication {
+    public static void main(String[] args) {
+        SpringApplication application = new SpringApplication(SmartLightApplication.class);
+        application.setAdditionalProfiles("loadtest");
+        application.run(args);
+    }
+}
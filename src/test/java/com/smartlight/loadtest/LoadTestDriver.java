@@ -0,0 +1,137 @@
+package com.smartlight.loadtest;
+
+import com.smartlight.mqtt.CommandLatencyTracker;
+import com.smartlight.service.MqttService;
+import com.smartlight.telemetry.TelemetryIngestionQueue;
+import com.smartlight.telemetry.TelemetryWriter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Drives a load test when the "loadtest" profile is active: starts the simulated fleet against
+ * the in-process broker, issues control commands through MqttService, and periodically reports
+ * ingestion throughput, DB write lag and command round-trip latency.
+ *
+ * <pre>mvn spring-boot:test-run</pre> (see {@link LoadTestApplication})
+ */
+@Component
+@Profile("loadtest")
+@RequiredArgsConstructor
+@Slf4j
+public class LoadTestDriver implements ApplicationRunner {
+
+    private final MqttService mqttService;
+    private final TelemetryIngestionQueue ingestionQueue;
+    private final TelemetryWriter telemetryWriter;
+    private final CommandLatencyTracker commandLatencyTracker;
+    private final InProcessMqttBroker broker;
+    private final ConfigurableApplicationContext context;
+
+    @Value("${loadtest.broker.port:18830}")
+    private int brokerPort;
+
+    @Value("${loadtest.devices:1000}")
+    private int devices;
+
+    @Value("${loadtest.devices-per-connection:250}")
+    private int devicesPerConnection;
+
+    @Value("${loadtest.messages-per-device-per-second:1.0}")
+    private double messagesPerDevicePerSecond;
+
+    @Value("${loadtest.binary-payloads:false}")
+    private boolean binaryPayloads;
+
+    @Value("${loadtest.command-interval-ms:200}")
+    private long commandIntervalMs;
+
+    @Value("${loadtest.duration-seconds:60}")
+    private long durationSeconds;
+
+    @Value("${loadtest.report-interval-seconds:10}")
+    private long reportIntervalSeconds;
+
+    @Value("${loadtest.exit-on-finish:true}")
+    private boolean exitOnFinish;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        long connectDeadline = System.currentTimeMillis() + 30_000;
+        while (!mqttService.isConnected()) {
+            if (System.currentTimeMillis() > connectDeadline) {
+                log.error("Backend did not connect to the in-process broker, aborting load test");
+                return;
+            }
+            Thread.sleep(200);
+        }
+
+        try (SimulatedDeviceFleet fleet = new SimulatedDeviceFleet("tcp://localhost:" + brokerPort,
+                devices, devicesPerConnection, messagesPerDevicePerSecond, binaryPayloads)) {
+            fleet.start();
+            Snapshot start = snapshot(fleet);
+            Snapshot previous = start;
+            long startedAt = System.currentTimeMillis();
+            long nextReport = startedAt + reportIntervalSeconds * 1000;
+            long endAt = startedAt + durationSeconds * 1000;
+
+            while (System.currentTimeMillis() < endAt) {
+                int device = ThreadLocalRandom.current().nextInt(devices);
+                mqttService.publish(SimulatedDeviceFleet.controlTopic(device), ThreadLocalRandom.current().nextBoolean() ? "1" : "0");
+                Thread.sleep(commandIntervalMs);
+                if (System.currentTimeMillis() >= nextReport) {
+                    Snapshot current = snapshot(fleet);
+                    report("interval", previous, current);
+                    previous = current;
+                    nextReport += reportIntervalSeconds * 1000;
+                }
+            }
+            // Let in-flight acks and queued writes settle before the final numbers
+            Thread.sleep(2000);
+            report("total", start, snapshot(fleet));
+        }
+
+        if (exitOnFinish) {
+            System.exit(SpringApplication.exit(context, () -> 0));
+        }
+    }
+
+    private record Snapshot(long at, long published, long publishedBytes, long routed, long received,
+                            long enqueued, long written) {
+    }
+
+    private Snapshot snapshot(SimulatedDeviceFleet fleet) {
+        return new Snapshot(System.currentTimeMillis(), fleet.getPublished(), fleet.getPublishedBytes(), broker.getRoutedCount(),
+                mqttService.getMessagesReceived(), (Long) ingestionQueue.getMetrics().get("enqueued"),
+                telemetryWriter.getWritten());
+    }
+
+    private void report(String label, Snapshot from, Snapshot to) {
+        double seconds = Math.max(0.001, (to.at() - from.at()) / 1000.0);
+        long messages = to.published() - from.published();
+        log.info("LOADTEST [{}] {}s: fleet published {}/s ({} B/msg), broker routed {}/s, backend received {}/s, "
+                        + "queued for DB {}/s, written {}/s, queue depth {}",
+                label, String.format("%.1f", seconds),
+                rate(messages, seconds),
+                messages == 0 ? 0 : (to.publishedBytes() - from.publishedBytes()) / messages,
+                rate(to.routed() - from.routed(), seconds),
+                rate(to.received() - from.received(), seconds),
+                rate(to.enqueued() - from.enqueued(), seconds),
+                rate(to.written() - from.written(), seconds),
+                ingestionQueue.getDepth());
+        log.info("LOADTEST [{}] writer: {}", label, telemetryWriter.getMetrics());
+        log.info("LOADTEST [{}] command latency: {}", label, commandLatencyTracker.getSnapshot());
+    }
+
+    private static String rate(long count, double seconds) {
+        return String.format("%.1f", count / seconds);
+    }
+}
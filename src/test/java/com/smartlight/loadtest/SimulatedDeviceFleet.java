@@ -0,0 +1,206 @@
+package com.smartlight.loadtest;
+
+import com.smartlight.telemetry.StatusPayloadDecoder;
+import com.smartlight.telemetry.TelemetryTopics;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulated ESP32 fleet. Device i reports JSON status on /light/sim-i/status at a fixed rate and
+ * answers "1"/"0" on /light/sim-i/control with an immediate status echo, like the firmware.
+ * Devices are multiplexed over a few MQTT connections so thousands can run on one machine.
+ * With binary payloads enabled, status goes to /light/sim-i/status/bin as the 10-byte frame instead.
+ */
+@Slf4j
+public class SimulatedDeviceFleet implements AutoCloseable {
+
+    private static final long TICK_MS = 100;
+    private static final double VOLTAGE = 220.0;
+
+    private final String brokerUrl;
+    private final int deviceCount;
+    private final int devicesPerConnection;
+    private final double messagesPerSecond;
+    private final boolean binaryPayloads;
+
+    private final boolean[] on;
+    private final double[] ratedCurrent;
+    private final double[] credit;
+    private final List<MqttAsyncClient> connections = new ArrayList<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "loadtest-fleet");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong publishedBytes = new AtomicLong();
+    private final AtomicLong publishFailures = new AtomicLong();
+    private final AtomicLong commandsReceived = new AtomicLong();
+
+    public SimulatedDeviceFleet(String brokerUrl, int deviceCount, int devicesPerConnection,
+                                double messagesPerSecond, boolean binaryPayloads) {
+        this.brokerUrl = brokerUrl;
+        this.deviceCount = deviceCount;
+        this.devicesPerConnection = Math.max(1, devicesPerConnection);
+        this.messagesPerSecond = messagesPerSecond;
+        this.binaryPayloads = binaryPayloads;
+        this.on = new boolean[deviceCount];
+        this.ratedCurrent = new double[deviceCount];
+        this.credit = new double[deviceCount];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < deviceCount; i++) {
+            on[i] = random.nextBoolean();
+            ratedCurrent[i] = 0.1 + random.nextDouble() * 0.8;
+            credit[i] = random.nextDouble(); // spread the first reports
+        }
+    }
+
+    public static String statusTopic(int device) {
+        return "/light/sim-" + device + "/status";
+    }
+
+    public static String controlTopic(int device) {
+        return "/light/sim-" + device + "/control";
+    }
+
+    public void start() throws MqttException {
+        int connectionCount = (deviceCount + devicesPerConnection - 1) / devicesPerConnection;
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setMaxInflight(65535);
+        for (int c = 0; c < connectionCount; c++) {
+            MqttAsyncClient client = new MqttAsyncClient(brokerUrl, "loadtest-fleet-" + c, new MemoryPersistence());
+            client.setCallback(new MqttCallback() {
+                @Override
+                public void connectionLost(Throwable cause) {
+                    log.warn("Fleet connection lost: {}", cause.getMessage());
+                }
+
+                @Override
+                public void messageArrived(String topic, MqttMessage message) {
+                    onCommand(client, topic, message.getPayload());
+                }
+
+                @Override
+                public void deliveryComplete(IMqttDeliveryToken token) {
+                }
+            });
+            client.connect(options).waitForCompletion(10_000);
+            client.subscribe("/light/+/control", 1).waitForCompletion(10_000);
+            connections.add(client);
+        }
+        ticker.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        log.info("Simulated fleet started: {} devices over {} connections, {} msg/s per device, {} payloads",
+                deviceCount, connectionCount, messagesPerSecond, binaryPayloads ? "binary" : "JSON");
+    }
+
+    private void tick() {
+        double increment = messagesPerSecond * TICK_MS / 1000.0;
+        for (int i = 0; i < deviceCount; i++) {
+            credit[i] += increment;
+            while (credit[i] >= 1.0) {
+                credit[i] -= 1.0;
+                publishStatus(i, "sim");
+            }
+        }
+    }
+
+    private void onCommand(MqttAsyncClient client, String topic, byte[] payload) {
+        int device = parseDevice(topic);
+        if (device < 0 || device >= deviceCount || (device / devicesPerConnection) != connections.indexOf(client)) {
+            return;
+        }
+        commandsReceived.incrementAndGet();
+        String command = new String(payload, StandardCharsets.UTF_8);
+        if (command.equals("1")) {
+            on[device] = true;
+        } else if (command.equals("0")) {
+            on[device] = false;
+        }
+        publishStatus(device, "remote");
+    }
+
+    private void publishStatus(int device, String source) {
+        boolean isOn = on[device];
+        double current = isOn ? ratedCurrent[device] * (0.97 + ThreadLocalRandom.current().nextDouble() * 0.06) : 0.0;
+        String topic = statusTopic(device);
+        byte[] payload;
+        if (binaryPayloads) {
+            topic += TelemetryTopics.BINARY_SUFFIX;
+            payload = StatusPayloadDecoder.encodeBinary(isOn, false, (float) current, (float) (current * VOLTAGE));
+        } else {
+            payload = String.format(Locale.ROOT, "{\"state\":\"%s\",\"current\":%.3f,\"power\":%.1f,\"source\":\"%s\"}",
+                    isOn ? "on" : "off", current, current * VOLTAGE, source).getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            connections.get(device / devicesPerConnection).publish(topic, payload, 0, false);
+            published.incrementAndGet();
+            publishedBytes.addAndGet(payload.length);
+        } catch (MqttException e) {
+            publishFailures.incrementAndGet();
+        }
+    }
+
+    private static int parseDevice(String topic) {
+        int start = topic.indexOf("sim-");
+        int end = topic.lastIndexOf('/');
+        if (start < 0 || end <= start) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(topic.substring(start + 4, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getPublishedBytes() {
+        return publishedBytes.get();
+    }
+
+    public long getPublishFailures() {
+        return publishFailures.get();
+    }
+
+    public long getCommandsReceived() {
+        return commandsReceived.get();
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+        for (MqttAsyncClient client : connections) {
+            try {
+                client.disconnect().waitForCompletion(2000);
+                client.close();
+            } catch (MqttException e) {
+                log.debug("Error closing fleet connection: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.smartlight.mqtt;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CommandLatencyTrackerTest {
+
+    private static final String TOPIC = "/light/control";
+    private static final String DEVICE = "/light";
+
+    private CommandLatencyTracker tracker = new CommandLatencyTracker(10_000, 100, 0);
+
+    @AfterEach
+    void stop() {
+        tracker.stop();
+    }
+
+    @Test
+    void transitionIntoTheCommandedStateIsMeasured() {
+        tracker.onStatus(DEVICE, "off");
+        tracker.track(1, TOPIC, "1");
+        tracker.sent(1);
+        assertThat(tracker.getPendingCount()).isEqualTo(1);
+
+        // A periodic status repeating the old state resolves nothing
+        tracker.onStatus(DEVICE, "off");
+        assertThat(tracker.getPendingCount()).isEqualTo(1);
+
+        tracker.onStatus(DEVICE, "on");
+        assertThat(tracker.getPendingCount()).isZero();
+        assertThat(topic()).containsEntry("acknowledged", 1L).containsEntry("unmeasured", 0L);
+    }
+
+    @Test
+    void commandsResolveInOrderOfTheirTransitions() {
+        tracker.onStatus(DEVICE, "off");
+        for (long seq = 1; seq <= 3; seq++) {
+            tracker.track(seq, TOPIC, seq % 2 == 1 ? "on" : "off");
+            tracker.sent(seq);
+        }
+
+        tracker.onStatus(DEVICE, "on");
+        tracker.onStatus(DEVICE, "off");
+        assertThat(tracker.getPendingCount()).isEqualTo(1);
+        tracker.onStatus(DEVICE, "on");
+        assertThat(tracker.getPendingCount()).isZero();
+        assertThat(topic()).containsEntry("acknowledged", 3L);
+    }
+
+    @Test
+    void commandsThatCannotBeMeasured() {
+        // Not an on/off command: no echo to wait for
+        tracker.track(1, TOPIC, "toggle");
+        assertThat(tracker.getPendingCount()).isZero();
+
+        // Already in the commanded state, or will be once the command ahead of it is applied
+        tracker.onStatus(DEVICE, "on");
+        tracker.track(2, TOPIC, "on");
+        tracker.track(3, TOPIC, "0");
+        tracker.track(4, TOPIC, "OFF");
+        assertThat(tracker.getPendingCount()).isEqualTo(1);
+
+        // The transition came before the command reached the broker
+        tracker.onStatus(DEVICE, "off");
+        assertThat(tracker.getPendingCount()).isZero();
+        assertThat(topic()).containsEntry("acknowledged", 0L).containsEntry("unmeasured", 3L);
+    }
+
+    @Test
+    void firstStatusFromADeviceIsNotMeasured() {
+        tracker.track(1, TOPIC, "on");
+        tracker.sent(1);
+
+        // May just repeat the state the device was already in
+        tracker.onStatus(DEVICE, "on");
+        assertThat(topic()).containsEntry("acknowledged", 0L).containsEntry("unmeasured", 1L);
+    }
+
+    @Test
+    void transitionsFasterThanTheMinimumRoundTripAreNotMeasured() {
+        tracker = new CommandLatencyTracker(10_000, 100, 60_000);
+        tracker.onStatus(DEVICE, "off");
+        tracker.track(1, TOPIC, "on");
+        tracker.sent(1);
+
+        tracker.onStatus(DEVICE, "on");
+        assertThat(topic()).containsEntry("acknowledged", 0L).containsEntry("unmeasured", 1L);
+    }
+
+    @Test
+    void commandsWithoutAnEchoTimeOut() throws InterruptedException {
+        tracker = new CommandLatencyTracker(50, 10, 0);
+        tracker.start();
+        tracker.onStatus(DEVICE, "off");
+        tracker.track(1, TOPIC, "on");
+        tracker.sent(1);
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (tracker.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(tracker.getPendingCount()).isZero();
+        assertThat(topic()).containsEntry("unacknowledged", 1L);
+
+        // A late echo finds nothing to resolve
+        tracker.onStatus(DEVICE, "on");
+        assertThat(topic()).containsEntry("acknowledged", 0L);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> topic() {
+        Map<String, Object> topics = (Map<String, Object>) tracker.getSnapshot().get("topics");
+        return (Map<String, Object>) topics.get(TOPIC);
+    }
+}
@@ -0,0 +1,86 @@
+package com.smartlight.mqtt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class LatencyHistogramTest {
+
+    @Test
+    void smallValuesAreExact() {
+        for (long value = 0; value < 128; value++) {
+            assertThat(LatencyHistogram.representativeValue(LatencyHistogram.indexOf(value))).isEqualTo(value);
+        }
+    }
+
+    @Test
+    void largerValuesStayWithinTheBucketError() {
+        Random random = new Random(7);
+        int previous = LatencyHistogram.indexOf(127);
+        for (long value = 128; value < 100_000; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            assertThat(index).isBetween(previous, previous + 1);
+            previous = index;
+            assertRelativeError(value);
+        }
+        for (int i = 0; i < 100_000; i++) {
+            assertRelativeError(Math.max(128, random.nextLong() >>> random.nextInt(64)));
+        }
+        assertRelativeError(Long.MAX_VALUE);
+    }
+
+    @Test
+    void percentilesOfAUniformSpread() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(10_000);
+        assertThat(histogram.getMax()).isEqualTo(10_000);
+        assertThat((double) histogram.getValueAtPercentile(50)).isCloseTo(5_000, within(5_000 / 64.0));
+        assertThat((double) histogram.getValueAtPercentile(99)).isCloseTo(9_900, within(9_900 / 64.0));
+        assertThat(histogram.getValueAtPercentile(0)).isEqualTo(1);
+        // Never above the largest value recorded
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(10_000);
+    }
+
+    @Test
+    void percentilesMatchSortedSamples() {
+        Random random = new Random(11);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] samples = new long[20_000];
+        for (int i = 0; i < samples.length; i++) {
+            // Long-tailed, like round trips
+            samples[i] = (long) (1_000 * Math.exp(random.nextGaussian() * 1.5));
+            histogram.record(samples[i]);
+        }
+        Arrays.sort(samples);
+
+        for (double percentile : new double[]{1, 25, 50, 90, 99, 99.9}) {
+            long expected = samples[(int) Math.ceil(percentile / 100 * samples.length) - 1];
+            assertThat((double) histogram.getValueAtPercentile(percentile)).as("p%s", percentile)
+                    .isCloseTo(expected, within(Math.max(1, expected / 64.0)));
+        }
+    }
+
+    @Test
+    void emptyAndNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.getValueAtPercentile(99)).isZero();
+
+        histogram.record(-5);
+        assertThat(histogram.getCount()).isEqualTo(1);
+        assertThat(histogram.getMax()).isZero();
+        assertThat(histogram.getValueAtPercentile(50)).isZero();
+    }
+
+    private static void assertRelativeError(long value) {
+        long representative = LatencyHistogram.representativeValue(LatencyHistogram.indexOf(value));
+        assertThat(Math.abs((double) representative - value) / value).as("%d", value).isLessThanOrEqualTo(1.0 / 64);
+    }
+}
@@ -0,0 +1,103 @@
+package com.smartlight.mqtt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TimingWheelTest {
+
+    private static final long START = 1_000_000;
+
+    // 4 slots of 10 ms: one revolution is 40 ms
+    private final TimingWheel<String> wheel = new TimingWheel<>(10, 4, START);
+    private final List<String> expired = new ArrayList<>();
+
+    @Test
+    void expiresOnTheTickTheDelayRoundsUpTo() {
+        wheel.schedule("a", 10);
+        wheel.schedule("b", 15);
+        wheel.schedule("c", 0);
+
+        advance(9);
+        assertThat(expired).isEmpty();
+        advance(10);
+        assertThat(expired).containsExactly("a", "c");
+        advance(19);
+        assertThat(expired).containsExactly("a", "c");
+        advance(20);
+        assertThat(expired).containsExactly("a", "c", "b");
+    }
+
+    @Test
+    void delaysLongerThanOneRevolutionWaitOutTheirRounds() {
+        // 100 ms is 10 ticks: slot 2, passed over at ticks 2 and 6 before it is due
+        wheel.schedule("long", 100);
+        wheel.schedule("short", 20);
+
+        advance(90);
+        assertThat(expired).containsExactly("short");
+        advance(100);
+        assertThat(expired).containsExactly("short", "long");
+    }
+
+    @Test
+    void expiryAcrossTheWrapAround() {
+        // Move the wheel to its last slot, so the next timeouts land on slots that wrap past 0
+        advance(30);
+        wheel.schedule("wrap", 20);
+        wheel.schedule("wrapLong", 60);
+        wheel.schedule("exactRevolution", 40);
+
+        advance(49);
+        assertThat(expired).isEmpty();
+        advance(50);
+        assertThat(expired).containsExactly("wrap");
+        advance(69);
+        assertThat(expired).containsExactly("wrap");
+        advance(70);
+        assertThat(expired).containsExactly("wrap", "exactRevolution");
+        advance(89);
+        assertThat(expired).containsExactly("wrap", "exactRevolution");
+        advance(90);
+        assertThat(expired).containsExactly("wrap", "exactRevolution", "wrapLong");
+    }
+
+    @Test
+    void manyRevolutionsInOneAdvance() {
+        for (int i = 1; i <= 50; i++) {
+            wheel.schedule("t" + i, i * 10L);
+        }
+
+        advance(250);
+        assertThat(expired).hasSize(25).startsWith("t1", "t2").endsWith("t25");
+        advance(10_000);
+        assertThat(expired).hasSize(50).endsWith("t50");
+    }
+
+    @Test
+    void cancelledTimeoutsNeverExpire() {
+        TimingWheel<String>.Timeout cancelled = wheel.schedule("cancelled", 30);
+        TimingWheel<String>.Timeout later = wheel.schedule("later", 130);
+        wheel.schedule("kept", 30);
+        cancelled.cancel();
+        later.cancel();
+
+        advance(500);
+        assertThat(expired).containsExactly("kept");
+        assertThat(later.getItem()).isEqualTo("later");
+    }
+
+    @Test
+    void rejectsAnEmptyWheelOrTick() {
+        assertThatThrownBy(() -> new TimingWheel<>(0, 4, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TimingWheel<>(10, 0, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void advance(long elapsedMs) {
+        wheel.advance(START + elapsedMs, expired::add);
+    }
+}
@@ -0,0 +1,156 @@
+package com.smartlight.mqtt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TopicRouterTest {
+
+    private final TopicRouter router = new TopicRouter();
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    void routesToEveryMatchingFilter() {
+        register("/light/status");
+        register("/light/+");
+        register("/light/#");
+        register("+/+/status");
+        register("/room/+/light/+/status");
+
+        // "/light/status" has three levels, the first one empty
+        assertThat(route("/light/status")).containsExactlyInAnyOrder("/light/status", "/light/+", "/light/#", "+/+/status");
+        assertThat(route("/light/power")).containsExactlyInAnyOrder("/light/+", "/light/#");
+        assertThat(route("/light/a/b/c")).containsExactly("/light/#");
+        assertThat(route("/room/1/light/7/status")).containsExactly("/room/+/light/+/status");
+        assertThat(route("/other")).isEmpty();
+    }
+
+    @Test
+    void multiLevelWildcardAlsoMatchesItsParent() {
+        register("/light/#");
+        register("#");
+
+        assertThat(route("/light")).containsExactlyInAnyOrder("/light/#", "#");
+        assertThat(route("light")).containsExactly("#");
+    }
+
+    @Test
+    void wildcardsAtTheRootSkipSystemTopics() {
+        register("#");
+        register("+/broker/uptime");
+        register("$SYS/#");
+
+        assertThat(route("$SYS/broker/uptime")).containsExactly("$SYS/#");
+        assertThat(route("x/broker/uptime")).containsExactlyInAnyOrder("#", "+/broker/uptime");
+    }
+
+    @Test
+    void emptyLevelsAreLevels() {
+        register("+/light/+");
+        register("/light/");
+
+        assertThat(route("/light/")).containsExactlyInAnyOrder("+/light/+", "/light/");
+        assertThat(route("/light")).isEmpty();
+    }
+
+    @Test
+    void contextCarriesDeviceKeyChannelAndFilter() {
+        List<TopicContext> contexts = new ArrayList<>();
+        router.register("/room/+/light/+/status", (context, payload) -> contexts.add(context));
+
+        router.route("/room/2/light/5/status", new byte[0]);
+        router.route("/room/2/light/5/status", new byte[0]);
+
+        assertThat(contexts).hasSize(2);
+        assertThat(contexts.get(0)).isEqualTo(new TopicContext("/room/2/light/5/status", "/room/2/light/5", "status",
+                "/room/+/light/+/status"));
+        // Resolved once, then served from the cache
+        assertThat(contexts.get(1)).isSameAs(contexts.get(0));
+    }
+
+    @Test
+    void registeringInvalidatesCachedRoutes() {
+        register("/light/status");
+        assertThat(route("/light/power")).isEmpty();
+
+        register("/light/+");
+        assertThat(route("/light/power")).containsExactly("/light/+");
+    }
+
+    @Test
+    void rejectsMalformedFilters() {
+        for (String filter : new String[]{"", "/light/#/status", "/light#", "/li+ght", "/light/+x", "#/x"}) {
+            assertThatThrownBy(() -> router.register(filter, (context, payload) -> { }))
+                    .as(filter).isInstanceOf(IllegalArgumentException.class);
+        }
+        assertThatThrownBy(() -> router.register(null, (context, payload) -> { }))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void staticMatchesFollowsTheSameRules() {
+        assertThat(TopicRouter.matches("/light/#", "/light")).isTrue();
+        assertThat(TopicRouter.matches("/light/#", "/light/status")).isTrue();
+        assertThat(TopicRouter.matches("/light/+", "/light/a/b")).isFalse();
+        assertThat(TopicRouter.matches("+/#", "$SYS/x")).isFalse();
+        // Filter against filter: is /light/status already covered by /light/#
+        assertThat(TopicRouter.matches("/light/#", "/light/+")).isTrue();
+        assertThat(TopicRouter.matches("/light/status", "/light/+")).isFalse();
+    }
+
+    @Test
+    void trieAgreesWithStaticMatchesOnRandomTopics() {
+        Random random = new Random(42);
+        String[] levels = {"", "light", "room", "1", "status", "$SYS"};
+        List<String> filters = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            String filter = randomPath(random, levels, true);
+            if (!filter.isEmpty() && !filters.contains(filter)) {
+                filters.add(filter);
+                register(filter);
+            }
+        }
+        for (int i = 0; i < 5000; i++) {
+            String topic = randomPath(random, levels, false);
+            List<String> expected = filters.stream().filter(f -> TopicRouter.matches(f, topic)).collect(Collectors.toList());
+            assertThat(route(topic)).as(topic).containsExactlyInAnyOrderElementsOf(expected);
+        }
+    }
+
+    private static String randomPath(Random random, String[] levels, boolean filter) {
+        int depth = 1 + random.nextInt(4);
+        StringBuilder path = new StringBuilder();
+        for (int d = 0; d < depth; d++) {
+            if (d > 0) {
+                path.append('/');
+            }
+            int pick = random.nextInt(levels.length + (filter ? 2 : 0));
+            if (pick == levels.length) {
+                path.append('+');
+            } else if (pick == levels.length + 1) {
+                path.append('#');
+                break;
+            } else {
+                path.append(levels[d == 0 ? pick : Math.min(pick, levels.length - 2)]);
+            }
+        }
+        return path.toString();
+    }
+
+    private void register(String filter) {
+        router.register(filter, (context, payload) -> calls.add(context.filter()));
+    }
+
+    private List<String> route(String topic) {
+        calls.clear();
+        boolean matched = router.route(topic, new byte[0]);
+        assertThat(matched).isEqualTo(!calls.isEmpty());
+        return new ArrayList<>(calls);
+    }
+}
@@ -0,0 +1,150 @@
+package com.smartlight.service;
+
+import com.smartlight.dto.LightStatsDTO;
+import com.smartlight.entity.LightDataRollup.Granularity;
+import com.smartlight.repository.LightDataRollupRepository;
+import com.smartlight.repository.LightDataSketchRepository;
+import com.smartlight.telemetry.EnergyAccumulator;
+import com.smartlight.telemetry.TelemetryArchive;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LightStatisticsServiceTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 0, 0);
+    private static final LocalDateTime END = LocalDateTime.of(2024, 3, 31, 23, 59, 59);
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final TelemetryArchive archive = mock(TelemetryArchive.class);
+    private final TelemetryArchive.View view = mock(TelemetryArchive.View.class);
+    private final LightDataRollupRepository rollupRepository = mock(LightDataRollupRepository.class);
+    private final LightStatisticsService service = new LightStatisticsService(rollupRepository, jdbcTemplate,
+            mock(EnergyAccumulator.class), archive, mock(LightDataSketchRepository.class));
+
+    // COUNT(*), SUM(current), SUM(power), COUNT(*) FILTER (WHERE status = 'on')
+    private Object[] row = {10L, 5.0, 1100.0, 4L};
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(archive.view()).thenReturn(view);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getLong(1)).thenAnswer(invocation -> row[0]);
+        when(rs.getDouble(2)).thenAnswer(invocation -> row[1]);
+        when(rs.getDouble(3)).thenAnswer(invocation -> row[2]);
+        when(rs.getLong(4)).thenAnswer(invocation -> row[3]);
+        when(jdbcTemplate.queryForObject(anyString(), any(RowMapper.class), any(Object[].class)))
+                .thenAnswer(invocation -> invocation.<RowMapper<?>>getArgument(1).mapRow(rs, 0));
+    }
+
+    @Test
+    void onlyTheGivenFiltersBecomePredicates() {
+        service.summarize(null, null, null);
+        assertThat(query()).doesNotContain("?").endsWith("WHERE TRUE");
+        assertThat(args()).isEmpty();
+
+        service.summarize(START, null, "/light/3");
+        assertThat(query()).endsWith("WHERE TRUE AND timestamp >= ? AND device_key = ?");
+        assertThat(args()).containsExactly(Timestamp.valueOf(START), "/light/3");
+
+        service.summarize(START, END, null);
+        assertThat(query()).endsWith("WHERE TRUE AND timestamp >= ? AND timestamp <= ?");
+        assertThat(args()).containsExactly(Timestamp.valueOf(START), Timestamp.valueOf(END));
+        // Aggregated by the database: never a row per reading
+        assertThat(query()).startsWith("SELECT COUNT(*)").doesNotContain("ORDER BY", "LIMIT");
+    }
+
+    @Test
+    void averagesAndSplitIncludeArchivedRows() {
+        // 6 archived rows in the window, 5 of them on
+        doAnswer(invocation -> {
+            double[] sums = invocation.getArgument(3);
+            sums[0] += 6;
+            sums[1] += 1.0;
+            sums[2] += 100.0;
+            sums[3] += 5;
+            return null;
+        }).when(view).summarize(eq(START), eq(END), eq("/light"), any(double[].class));
+
+        LightStatsDTO stats = service.summarize(START, END, "/light");
+
+        assertThat(stats.getTotalRecords()).isEqualTo(16);
+        assertThat(stats.getAvgCurrent()).isEqualTo(6.0 / 16);
+        assertThat(stats.getAvgPower()).isEqualTo(1200.0 / 16);
+        assertThat(stats.getOnCount()).isEqualTo(9);
+        assertThat(stats.getOffCount()).isEqualTo(7);
+    }
+
+    @Test
+    void emptyWindowHasZeroAverages() {
+        row = new Object[]{0L, 0.0, 0.0, 0L};
+
+        LightStatsDTO stats = service.summarize(START, END, null);
+
+        assertThat(stats.getTotalRecords()).isZero();
+        assertThat(stats.getAvgCurrent()).isZero();
+        assertThat(stats.getAvgPower()).isZero();
+        assertThat(stats.getOnCount()).isZero();
+        assertThat(stats.getOffCount()).isZero();
+    }
+
+    @Test
+    void rollupCoverTilesTheWindowWithFewReads() {
+        List<Object[]> reads = new ArrayList<>();
+        when(rollupRepository.findSeries(any(), any(), any())).thenAnswer(invocation -> {
+            reads.add(invocation.getArguments());
+            return List.of();
+        });
+        LocalDateTime from = LocalDateTime.of(2024, 3, 1, 10, 20, 30);
+        LocalDateTime to = LocalDateTime.of(2024, 3, 9, 7, 45);
+
+        service.findCoveringRollups(from, to);
+
+        assertThat(reads).extracting(read -> read[0]).containsExactly(
+                Granularity.MINUTE, Granularity.HOUR, Granularity.DAY, Granularity.HOUR, Granularity.MINUTE);
+        // The partial minute at the start is read whole; the rest follow on without gaps or overlaps
+        assertThat(reads.get(0)[1]).isEqualTo(LocalDateTime.of(2024, 3, 1, 10, 20));
+        for (int i = 1; i < reads.size(); i++) {
+            assertThat(reads.get(i)[1]).isEqualTo(reads.get(i - 1)[2]);
+        }
+        assertThat(reads.get(reads.size() - 1)[2]).isEqualTo(to);
+        assertThat(reads.get(2)).containsExactly(Granularity.DAY,
+                LocalDateTime.of(2024, 3, 2, 0, 0), LocalDateTime.of(2024, 3, 9, 0, 0));
+
+        reads.clear();
+        service.findCoveringRollups(to, from);
+        assertThat(reads).isEmpty();
+    }
+
+    private String query() {
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate, atLeastOnce()).queryForObject(sql.capture(), any(RowMapper.class),
+                any(Object[].class));
+        return sql.getValue();
+    }
+
+    private List<Object> args() {
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate, atLeastOnce()).queryForObject(anyString(), any(RowMapper.class),
+                args.capture());
+        return List.of(args.getValue());
+    }
+}
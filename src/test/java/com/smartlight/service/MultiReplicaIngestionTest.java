@@ -0,0 +1,271 @@
+package com.smartlight.service;
+
+import com.smartlight.loadtest.InProcessMqttBroker;
+import com.smartlight.loadtest.SimulatedDeviceFleet;
+import com.smartlight.mqtt.CommandJournal;
+import com.smartlight.mqtt.CommandLatencyTracker;
+import com.smartlight.mqtt.MqttMetrics;
+import com.smartlight.mqtt.TopicRouter;
+import com.smartlight.telemetry.DeviceDirectory;
+import com.smartlight.telemetry.DevicePartitioner;
+import com.smartlight.telemetry.EnergyAccumulator;
+import com.smartlight.telemetry.IngestionMembership;
+import com.smartlight.telemetry.RecentReadingsStore;
+import com.smartlight.telemetry.TelemetryIngestionQueue;
+import com.smartlight.telemetry.TelemetryPersistencePolicy;
+import com.smartlight.telemetry.TelemetryRateLimiter;
+import com.smartlight.telemetry.TelemetryReading;
+import com.smartlight.telemetry.TelemetrySketchAggregator;
+import com.smartlight.telemetry.TelemetryStateStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Several MqttService replicas in cluster mode against the in-process broker and a simulated
+ * fleet: each device must be received, tracked and persisted by its owner only, and the devices of
+ * a replica that stops heartbeating must move to the others.
+ */
+class MultiReplicaIngestionTest {
+
+    private static final int REPLICAS = 3;
+    private static final int DEVICES = 60;
+    private static final long HEARTBEAT_MS = 100;
+    private static final long LIVENESS_MS = 400;
+
+    private InProcessMqttBroker broker;
+    private int port;
+    private final Cluster cluster = new Cluster();
+    private final DeviceDirectory directory = mock(DeviceDirectory.class);
+    private final List<AnnotationConfigApplicationContext> replicas = new ArrayList<>();
+
+    @BeforeEach
+    void startBroker() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        broker = new InProcessMqttBroker(port);
+        broker.start();
+        Set<String> deviceKeys = new HashSet<>();
+        for (int i = 0; i < DEVICES; i++) {
+            deviceKeys.add("/light/sim-" + i);
+        }
+        when(directory.deviceKeys()).thenReturn(deviceKeys);
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        replicas.forEach(AnnotationConfigApplicationContext::close);
+        broker.stop();
+    }
+
+    @Test
+    void eachDeviceIsIngestedByItsOwnerOnly() throws Exception {
+        for (int i = 0; i < REPLICAS; i++) {
+            replicas.add(replica(i));
+        }
+        awaitSubscribed(REPLICAS);
+
+        long published = runFleet(3000);
+        // QoS 0 publishes still queued when the fleet disconnects may never reach the broker, so
+        // compare with what the replicas received once deliveries have settled
+        long received = awaitSettled();
+
+        List<String> nodes = cluster.nodes();
+        Map<String, Integer> persistedBy = new HashMap<>();
+        long persisted = 0;
+        Set<String> tracked = new HashSet<>();
+        for (int i = 0; i < REPLICAS; i++) {
+            for (TelemetryReading reading : drain(i)) {
+                persisted++;
+                Integer previous = persistedBy.put(reading.deviceKey(), i);
+                assertThat(previous).as("device %s persisted by two replicas", reading.deviceKey()).isIn(null, i);
+                assertThat(DevicePartitioner.ownerOf(reading.deviceKey(), nodes)).isEqualTo("node-" + i);
+            }
+            // In-memory state only for the devices the replica owns
+            Set<String> state = replicas.get(i).getBean(TelemetryStateStore.class).getAll().keySet();
+            assertThat(state).isEqualTo(replicas.get(i).getBean(DevicePartitioner.class).getOwnedDevices());
+            tracked.addAll(state);
+            // Subscribed to its own devices only, not to everything
+            assertThat(replicas.get(i).getBean(MqttService.class).getMessagesReceived()).isLessThan(received);
+        }
+
+        assertThat(received).isPositive().isLessThanOrEqualTo(published);
+        assertThat(persisted).as("no duplicates and no losses").isEqualTo(received);
+        assertThat(persistedBy).hasSize(DEVICES);
+        assertThat(new HashSet<>(persistedBy.values())).as("load is spread").hasSize(REPLICAS);
+        assertThat(tracked).hasSize(DEVICES);
+    }
+
+    @Test
+    void devicesOfAReplicaThatStopsHeartbeatingMoveToTheOthers() throws Exception {
+        for (int i = 0; i < REPLICAS; i++) {
+            replicas.add(replica(i));
+        }
+        awaitSubscribed(REPLICAS);
+
+        cluster.unreachable.add("node-2");
+        // Replica 2 gives its devices up once its own heartbeats have failed for the liveness timeout
+        awaitSubscribed(REPLICAS - 1);
+        long receivedByStopped = replicas.get(2).getBean(MqttService.class).getMessagesReceived();
+        for (int i = 0; i < REPLICAS; i++) {
+            drain(i);
+        }
+
+        runFleet(2000);
+        long received = awaitSettled();
+
+        List<String> survivors = List.of("node-0", "node-1");
+        assertThat(cluster.nodes()).isEqualTo(survivors);
+        Set<String> persisted = new HashSet<>();
+        for (int i = 0; i < REPLICAS - 1; i++) {
+            for (TelemetryReading reading : drain(i)) {
+                persisted.add(reading.deviceKey());
+                assertThat(DevicePartitioner.ownerOf(reading.deviceKey(), survivors)).isEqualTo("node-" + i);
+            }
+        }
+        assertThat(received).isPositive();
+        assertThat(persisted).hasSize(DEVICES);
+        assertThat(drain(2)).isEmpty();
+        assertThat(replicas.get(2).getBean(MqttService.class).getMessagesReceived()).isEqualTo(receivedByStopped);
+        assertThat(replicas.get(2).getBean(TelemetryStateStore.class).getAll()).isEmpty();
+    }
+
+    private AnnotationConfigApplicationContext replica(int index) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("mqtt.broker.url", "tcp://localhost:" + port);
+        properties.put("mqtt.client.id", "replica-" + index);
+        properties.put("mqtt.journal.enabled", "false");
+        properties.put("mqtt.ingestion.cluster.enabled", "true");
+        properties.put("mqtt.ingestion.cluster.heartbeat-interval-ms", String.valueOf(HEARTBEAT_MS));
+        properties.put("mqtt.ingestion.cluster.liveness-timeout-ms", String.valueOf(LIVENESS_MS));
+        properties.put("mqtt.ingestion.cluster.settle-ms", String.valueOf(2 * HEARTBEAT_MS));
+        // Queue every message so the count can be compared with what the fleet published
+        properties.put("telemetry.persistence.change-only", "false");
+        properties.put("telemetry.rate-limit.enabled", "false");
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("replica", properties));
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.registerBean(IngestionMembership.class, () -> cluster.member("node-" + index));
+        context.registerBean(DeviceDirectory.class, () -> directory);
+        context.register(MqttService.class, TelemetryIngestionQueue.class, TelemetryPersistencePolicy.class,
+                TelemetryStateStore.class, TelemetryRateLimiter.class, CommandJournal.class, TopicRouter.class,
+                CommandLatencyTracker.class, MqttMetrics.class, DevicePartitioner.class);
+        context.registerBean(EnergyAccumulator.class, () -> mock(EnergyAccumulator.class));
+        context.registerBean(RecentReadingsStore.class, () -> mock(RecentReadingsStore.class));
+        context.registerBean(TelemetrySketchAggregator.class, () -> mock(TelemetrySketchAggregator.class));
+        context.refresh();
+        return context;
+    }
+
+    private long runFleet(long millis) throws Exception {
+        try (SimulatedDeviceFleet fleet = new SimulatedDeviceFleet("tcp://localhost:" + port, DEVICES, 20, 10.0, false)) {
+            fleet.start();
+            Thread.sleep(millis);
+            fleet.close();
+            return fleet.getPublished();
+        }
+    }
+
+    private List<TelemetryReading> drain(int replica) throws InterruptedException {
+        List<TelemetryReading> queued = new ArrayList<>();
+        replicas.get(replica).getBean(TelemetryIngestionQueue.class).drainTo(queued, Integer.MAX_VALUE, 0);
+        return queued;
+    }
+
+    // Waits until the first n replicas together subscribe to every device, each to its own share
+    private void awaitSubscribed(int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            int subscribed = 0;
+            boolean spread = true;
+            for (int i = 0; i < replicas.size(); i++) {
+                int count = replicas.get(i).getBean(MqttService.class).getSubscribedDeviceCount();
+                subscribed += count;
+                spread &= (i < n) == (count > 0);
+            }
+            if (subscribed == DEVICES && spread) {
+                break;
+            }
+            assertThat(System.currentTimeMillis()).as("%d replicas subscribed", n).isLessThan(deadline);
+            Thread.sleep(50);
+        }
+        Thread.sleep(300); // SUBSCRIBE acknowledged by the broker
+    }
+
+    // Waits until the replicas have together received the same number of messages for a while
+    private long awaitSettled() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        long previous = -1;
+        while (true) {
+            Thread.sleep(500);
+            long count = 0;
+            for (AnnotationConfigApplicationContext replica : replicas) {
+                count += replica.getBean(MqttService.class).getMessagesReceived();
+            }
+            if (count == previous) {
+                return count;
+            }
+            assertThat(System.currentTimeMillis()).as("replicas settled").isLessThan(deadline);
+            previous = count;
+        }
+    }
+
+    // Stands in for the ingestion_node table
+    private static final class Cluster {
+
+        private final Map<String, Long> heartbeats = new ConcurrentHashMap<>();
+        private final Set<String> unreachable = ConcurrentHashMap.newKeySet();
+
+        List<String> nodes() {
+            long now = System.currentTimeMillis();
+            return heartbeats.entrySet().stream()
+                    .filter(heartbeat -> heartbeat.getValue() > now - LIVENESS_MS)
+                    .map(Map.Entry::getKey)
+                    .sorted()
+                    .toList();
+        }
+
+        IngestionMembership member(String nodeId) {
+            return new IngestionMembership() {
+                @Override
+                public String getNodeId() {
+                    return nodeId;
+                }
+
+                @Override
+                public List<String> heartbeat() {
+                    if (unreachable.contains(nodeId)) {
+                        throw new IllegalStateException("database unreachable");
+                    }
+                    heartbeats.put(nodeId, System.currentTimeMillis());
+                    return nodes();
+                }
+
+                @Override
+                public void leave() {
+                    heartbeats.remove(nodeId);
+                }
+            };
+        }
+    }
+}
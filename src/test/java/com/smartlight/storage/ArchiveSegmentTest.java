@@ -0,0 +1,231 @@
+package com.smartlight.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class ArchiveSegmentTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @TempDir
+    Path directory;
+
+    private record Row(String deviceKey, long id, long timestamp, boolean on, double current, double power) {
+    }
+
+    private static final Comparator<Row> KEYSET_ORDER =
+            Comparator.comparingLong(Row::timestamp).thenComparingLong(Row::id);
+
+    @Test
+    void rowsRoundTripAcrossBlocksInKeysetOrder() throws IOException {
+        List<Row> rows = fleet(5, 1000, 7);
+        ArchiveSegment segment = write(rows, 64);
+
+        assertThat(scan(segment, null, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(sorted(rows));
+        assertThat(segment.getRows()).isEqualTo(rows.size());
+        assertThat(segment.getMinTimestamp()).isEqualTo(rows.stream().mapToLong(Row::timestamp).min().orElseThrow());
+        assertThat(segment.getMaxTimestamp()).isEqualTo(rows.stream().mapToLong(Row::timestamp).max().orElseThrow());
+    }
+
+    @Test
+    void specialValuesRoundTripBitForBit() throws IOException {
+        List<Row> rows = new ArrayList<>();
+        double[] values = {Double.NaN, 0.0, -0.0, -0.0, 0.0, Double.POSITIVE_INFINITY, 5.5, 5.5, 5.5, Double.NaN};
+        long[] timestamps = {START, START, START + 1, Long.MAX_VALUE / 4, Long.MAX_VALUE / 4 + 1, START * 3,
+                START * 3, START * 3 + 1000, START * 3 + 2000, START * 3 + 2000};
+        for (int i = 0; i < values.length; i++) {
+            rows.add(new Row("/light/x", 10 + i * 1_000_000_007L, timestamps[i] - (i == 5 ? START : 0),
+                    i % 3 == 0, values[i], -values[i]));
+        }
+        rows.sort(KEYSET_ORDER);
+        ArchiveSegment segment = write(rows, 3);
+
+        List<Row> decoded = scan(segment, null, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertThat(decoded).hasSameSizeAs(rows);
+        for (int i = 0; i < rows.size(); i++) {
+            Row expected = rows.get(i);
+            Row actual = decoded.get(i);
+            assertThat(actual.id()).isEqualTo(expected.id());
+            assertThat(actual.timestamp()).isEqualTo(expected.timestamp());
+            assertThat(actual.on()).isEqualTo(expected.on());
+            assertThat(Double.doubleToRawLongBits(actual.current())).isEqualTo(Double.doubleToRawLongBits(expected.current()));
+            assertThat(Double.doubleToRawLongBits(actual.power())).isEqualTo(Double.doubleToRawLongBits(expected.power()));
+        }
+    }
+
+    @Test
+    void windowedScansMatchAFilteredFullScan() throws IOException {
+        List<Row> rows = fleet(4, 700, 11);
+        ArchiveSegment segment = write(rows, 50);
+        Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            long from = START + random.nextInt(800_000) - 50_000;
+            long to = from + random.nextInt(300_000);
+            String deviceKey = random.nextBoolean() ? null : "/light/" + random.nextInt(5);
+            List<Row> expected = sorted(rows).stream()
+                    .filter(r -> r.timestamp() >= from && r.timestamp() <= to)
+                    .filter(r -> deviceKey == null || r.deviceKey().equals(deviceKey))
+                    .toList();
+            assertThat(scan(segment, deviceKey, from, to)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void summarizeMatchesTheRowsInTheWindow() throws IOException {
+        List<Row> rows = fleet(3, 900, 5);
+        ArchiveSegment segment = write(rows, 100);
+        Random random = new Random(9);
+        for (int i = 0; i < 100; i++) {
+            long from = i == 0 ? Long.MIN_VALUE : START + random.nextInt(900_000);
+            long to = i == 0 ? Long.MAX_VALUE : from + random.nextInt(400_000);
+            double[] sums = new double[4];
+            segment.summarize(null, from, to, sums);
+            List<Row> window = rows.stream().filter(r -> r.timestamp() >= from && r.timestamp() <= to).toList();
+            assertThat(sums[0]).isEqualTo(window.size());
+            assertThat(sums[1]).isCloseTo(window.stream().mapToDouble(Row::current).sum(), within(1e-6));
+            assertThat(sums[2]).isCloseTo(window.stream().mapToDouble(Row::power).sum(), within(1e-6));
+            assertThat(sums[3]).isEqualTo(window.stream().filter(Row::on).count());
+        }
+    }
+
+    @Test
+    void blockIndexCoversTheWindowWithoutDecoding() throws IOException {
+        List<Row> rows = fleet(2, 1000, 13);
+        ArchiveSegment segment = write(rows, 100);
+        long from = START + 300_000;
+        long to = START + 500_000;
+
+        List<long[]> blocks = new ArrayList<>();
+        segment.blocks(null, from, to, (min, max, count) -> blocks.add(new long[]{min, max, count}));
+
+        // 10 blocks of 100 rows per device, only those overlapping [from, to] are listed
+        assertThat(blocks).isNotEmpty().allSatisfy(b -> assertThat(b[1] >= from && b[0] <= to).isTrue());
+        assertThat(blocks.size()).isLessThan(20);
+        long inWindow = rows.stream().filter(r -> r.timestamp() >= from && r.timestamp() <= to).count();
+        assertThat(blocks.stream().mapToLong(b -> b[2]).sum()).isGreaterThanOrEqualTo(inWindow);
+
+        List<long[]> all = new ArrayList<>();
+        segment.blocks(null, Long.MIN_VALUE, Long.MAX_VALUE, (min, max, count) -> all.add(new long[]{min, max, count}));
+        assertThat(all).hasSize(20);
+        assertThat(all.stream().mapToLong(b -> b[2]).sum()).isEqualTo(rows.size());
+    }
+
+    @Test
+    void readsLda2SegmentsAsOneBlockPerDevice() throws IOException {
+        List<Row> rows = fleet(1, 300, 17);
+        Path file = directory.resolve("legacy.seg");
+        Files.write(file, lda2(rows));
+        ArchiveSegment segment = ArchiveSegment.open(file);
+
+        assertThat(scan(segment, null, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(rows);
+        assertThat(scan(segment, null, START + 100_000, START + 200_000)).isEqualTo(rows.stream()
+                .filter(r -> r.timestamp() >= START + 100_000 && r.timestamp() <= START + 200_000).toList());
+        List<long[]> blocks = new ArrayList<>();
+        segment.blocks(null, Long.MIN_VALUE, Long.MAX_VALUE, (min, max, count) -> blocks.add(new long[]{min, max, count}));
+        assertThat(blocks).hasSize(1);
+        assertThat(blocks.get(0)[2]).isEqualTo(rows.size());
+        double[] sums = new double[4];
+        segment.summarize(null, Long.MIN_VALUE, Long.MAX_VALUE, sums);
+        assertThat(sums[0]).isEqualTo(rows.size());
+    }
+
+    // Readings every ~1 s per device with jitter, repeated values and status runs, ids interleaved
+    private static List<Row> fleet(int devices, int perDevice, long seed) {
+        Random random = new Random(seed);
+        List<Row> rows = new ArrayList<>();
+        long id = 1;
+        for (int i = 0; i < perDevice; i++) {
+            for (int d = 0; d < devices; d++) {
+                long timestamp = START + i * 1000L + random.nextInt(50);
+                double current = random.nextInt(4) == 0 ? 0.5 : Math.round(random.nextDouble() * 100) / 100.0;
+                rows.add(new Row("/light/" + d, id++, timestamp, (i / 37) % 2 == 0, current, current * 220));
+            }
+        }
+        return rows;
+    }
+
+    private ArchiveSegment write(List<Row> rows, int blockRows) throws IOException {
+        List<ArchiveSegment.SeriesWriter> series = new ArrayList<>();
+        rows.stream().map(Row::deviceKey).distinct().sorted().forEach(deviceKey -> {
+            ArchiveSegment.SeriesWriter writer = new ArchiveSegment.SeriesWriter(deviceKey, blockRows);
+            rows.stream().filter(r -> r.deviceKey().equals(deviceKey)).sorted(KEYSET_ORDER)
+                    .forEach(r -> writer.add(r.id(), r.timestamp(), r.on(), r.current(), r.power()));
+            series.add(writer);
+        });
+        Path file = directory.resolve("segment.seg");
+        ArchiveSegment.write(file, series);
+        return ArchiveSegment.open(file);
+    }
+
+    private static List<Row> scan(ArchiveSegment segment, String deviceKey, long from, long to) {
+        List<Row> rows = new ArrayList<>();
+        segment.scan(deviceKey, from, to, (key, id, timestamp, on, current, power) ->
+                rows.add(new Row(key, id, timestamp, on, current, power)));
+        return rows;
+    }
+
+    private static List<Row> sorted(List<Row> rows) {
+        return rows.stream().sorted(KEYSET_ORDER).toList();
+    }
+
+    // One device's rows in the previous single-block layout
+    private static byte[] lda2(List<Row> rows) {
+        GorillaCodec.TimestampEncoder timestamps = new GorillaCodec.TimestampEncoder();
+        ByteArrayOutputStream ids = new ByteArrayOutputStream();
+        GorillaCodec.DoubleEncoder current = new GorillaCodec.DoubleEncoder();
+        GorillaCodec.DoubleEncoder power = new GorillaCodec.DoubleEncoder();
+        ByteArrayOutputStream status = new ByteArrayOutputStream();
+        long previousId = 0;
+        double currentSum = 0;
+        double powerSum = 0;
+        int onCount = 0;
+        for (Row row : rows) {
+            timestamps.add(row.timestamp());
+            ArchiveSegment.writeVarLong(ids, GorillaCodec.zigzag(row.id() - previousId));
+            previousId = row.id();
+            current.add(row.current());
+            power.add(row.power());
+            currentSum += row.current();
+            powerSum += row.power();
+            onCount += row.on() ? 1 : 0;
+            // One run per row keeps the helper short
+            status.write(row.on() ? 1 : 0);
+            ArchiveSegment.writeVarLong(status, 1);
+        }
+        byte[][] columns = {timestamps.toByteArray(), ids.toByteArray(), current.toByteArray(),
+                power.toByteArray(), status.toByteArray()};
+        byte[] key = rows.get(0).deviceKey().getBytes(StandardCharsets.UTF_8);
+        int headerSize = 8 + 2 + key.length + 4 + 16 + 20 + 5 * 8;
+        int size = headerSize;
+        for (byte[] column : columns) {
+            size += column.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(0x4C444132).putInt(1).putShort((short) key.length).put(key)
+                .putInt(rows.size()).putLong(rows.get(0).timestamp()).putLong(rows.get(rows.size() - 1).timestamp())
+                .putDouble(currentSum).putDouble(powerSum).putInt(onCount);
+        int offset = headerSize;
+        for (byte[] column : columns) {
+            buffer.putInt(offset).putInt(column.length);
+            offset += column.length;
+        }
+        for (byte[] column : columns) {
+            buffer.put(column);
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,127 @@
+package com.smartlight.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GorillaCodecTest {
+
+    @Test
+    void timestampsRoundTripAcrossEveryBucketWidth() {
+        long[] timestamps = {
+                1_700_000_000_000L, 1_700_000_001_000L, 1_700_000_002_000L, 1_700_000_003_000L, // steady: 1 bit
+                1_700_000_004_010L, 1_700_000_005_000L,                                         // 7-bit jitter
+                1_700_000_005_300L, 1_700_000_006_500L,                                         // 9 and 12 bits
+                1_700_000_006_500L, 1_700_000_006_500L,                                         // duplicates
+                1_700_000_000_000L,                                                             // going back
+                1_700_090_000_000L, 1_800_000_000_000L,                                         // 32 and 64 bits
+        };
+        assertThat(roundTrip(timestamps)).containsExactly(timestamps);
+    }
+
+    @Test
+    void timestampsSurviveHugeJumps() {
+        long[] timestamps = {0, Long.MAX_VALUE, Long.MIN_VALUE, 1, -1, Long.MAX_VALUE, Long.MAX_VALUE, 0};
+        assertThat(roundTrip(timestamps)).containsExactly(timestamps);
+    }
+
+    @Test
+    void singleTimestampRoundTrips() {
+        assertThat(roundTrip(new long[]{42})).containsExactly(42);
+    }
+
+    @Test
+    void steadyIntervalCostsOneBitPerReading() {
+        GorillaCodec.TimestampEncoder encoder = new GorillaCodec.TimestampEncoder();
+        for (int i = 0; i < 8000; i++) {
+            encoder.add(1_700_000_000_000L + i * 1000L);
+        }
+        // Two raw 64-bit values, then one bit each
+        assertThat(encoder.toByteArray().length).isLessThanOrEqualTo(16 + 8000 / 8 + 1);
+    }
+
+    @Test
+    void doublesRoundTripBitForBit() {
+        double[] values = {
+                0.0, -0.0, 0.0, Double.NaN, Double.NaN, -0.0,
+                Double.longBitsToDouble(0x7ff8_0000_0000_0001L), // NaN with a payload
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE,
+                110.5, 110.5, 110.5, 110.75, 0.51, 0.52, 1e-300, -1e300,
+        };
+        assertThat(rawBits(roundTrip(values))).containsExactly(rawBits(values));
+    }
+
+    @Test
+    void identicalValuesCostOneBitEach() {
+        GorillaCodec.DoubleEncoder encoder = new GorillaCodec.DoubleEncoder();
+        for (int i = 0; i < 8000; i++) {
+            encoder.add(220.0);
+        }
+        assertThat(encoder.toByteArray().length).isLessThanOrEqualTo(8 + 8000 / 8 + 1);
+    }
+
+    @Test
+    void randomDoublesRoundTrip() {
+        Random random = new Random(7);
+        double[] values = new double[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = switch (i % 4) {
+                case 0 -> Double.longBitsToDouble(random.nextLong());
+                case 1 -> random.nextGaussian() * 1e6;
+                case 2 -> Math.round(random.nextDouble() * 100) / 100.0;
+                default -> values[Math.max(0, i - 1)];
+            };
+        }
+        assertThat(rawBits(roundTrip(values))).containsExactly(rawBits(values));
+    }
+
+    @Test
+    void zigzagMapsSmallMagnitudesToSmallCodes() {
+        assertThat(GorillaCodec.zigzag(0)).isEqualTo(0);
+        assertThat(GorillaCodec.zigzag(-1)).isEqualTo(1);
+        assertThat(GorillaCodec.zigzag(1)).isEqualTo(2);
+        for (long value : new long[]{0, 1, -1, 63, -64, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            assertThat(GorillaCodec.unzigzag(GorillaCodec.zigzag(value))).isEqualTo(value);
+        }
+    }
+
+    private static long[] roundTrip(long[] timestamps) {
+        GorillaCodec.TimestampEncoder encoder = new GorillaCodec.TimestampEncoder();
+        for (long timestamp : timestamps) {
+            encoder.add(timestamp);
+        }
+        GorillaCodec.TimestampDecoder decoder =
+                new GorillaCodec.TimestampDecoder(new BitInput(ByteBuffer.wrap(encoder.toByteArray()), 0));
+        long[] decoded = new long[timestamps.length];
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = decoder.next();
+        }
+        return decoded;
+    }
+
+    private static double[] roundTrip(double[] values) {
+        GorillaCodec.DoubleEncoder encoder = new GorillaCodec.DoubleEncoder();
+        for (double value : values) {
+            encoder.add(value);
+        }
+        GorillaCodec.DoubleDecoder decoder =
+                new GorillaCodec.DoubleDecoder(new BitInput(ByteBuffer.wrap(encoder.toByteArray()), 0));
+        double[] decoded = new double[values.length];
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = decoder.next();
+        }
+        return decoded;
+    }
+
+    private static long[] rawBits(double[] values) {
+        long[] bits = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bits[i] = Double.doubleToRawLongBits(values[i]);
+        }
+        return bits;
+    }
+}
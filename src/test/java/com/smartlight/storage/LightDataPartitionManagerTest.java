@@ -0,0 +1,99 @@
+package com.smartlight.storage;
+
+import com.smartlight.storage.LightDataPartitionManager.Interval;
+import com.smartlight.storage.LightDataPartitionManager.Partition;
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LightDataPartitionManagerTest {
+
+    private static final LocalDateTime WEDNESDAY = LocalDateTime.of(2024, 2, 28, 17, 45, 12);
+
+    @Test
+    void intervalsFloorToTheirStart() {
+        assertThat(Interval.DAY.floor(WEDNESDAY)).isEqualTo(LocalDateTime.of(2024, 2, 28, 0, 0));
+        assertThat(Interval.WEEK.floor(WEDNESDAY)).isEqualTo(LocalDateTime.of(2024, 2, 26, 0, 0));
+        assertThat(Interval.MONTH.floor(WEDNESDAY)).isEqualTo(LocalDateTime.of(2024, 2, 1, 0, 0));
+
+        // Already on a boundary: unchanged
+        LocalDateTime monday = LocalDateTime.of(2024, 1, 1, 0, 0);
+        assertThat(monday.getDayOfWeek()).isEqualTo(DayOfWeek.MONDAY);
+        for (Interval interval : Interval.values()) {
+            assertThat(interval.floor(monday)).as(interval.name()).isEqualTo(monday);
+        }
+        // Weeks start on Monday, like date_trunc('week') used to rehome default rows
+        assertThat(Interval.WEEK.floor(LocalDateTime.of(2024, 3, 3, 23, 59))).isEqualTo(LocalDateTime.of(2024, 2, 26, 0, 0));
+    }
+
+    @Test
+    void consecutiveIntervalsTileTheCalendar() {
+        for (Interval interval : Interval.values()) {
+            LocalDateTime start = interval.floor(LocalDateTime.of(2023, 12, 20, 6, 0));
+            for (int i = 0; i < 500; i++) {
+                LocalDateTime end = interval.next(start);
+                assertThat(end).isAfter(start);
+                assertThat(interval.floor(end)).isEqualTo(end);
+                assertThat(interval.floor(end.minusNanos(1))).isEqualTo(start);
+                start = end;
+            }
+        }
+        // Leap day and month lengths
+        assertThat(Interval.MONTH.next(LocalDateTime.of(2024, 2, 1, 0, 0))).isEqualTo(LocalDateTime.of(2024, 3, 1, 0, 0));
+        assertThat(Interval.DAY.next(LocalDateTime.of(2024, 2, 28, 0, 0))).isEqualTo(LocalDateTime.of(2024, 2, 29, 0, 0));
+    }
+
+    @Test
+    void parsesPartitionBounds() {
+        assertThat(LightDataPartitionManager.partition("light_data_p20261001",
+                "FOR VALUES FROM ('2026-10-01 00:00:00') TO ('2026-11-01 00:00:00')"))
+                .isEqualTo(new Partition("light_data_p20261001",
+                        LocalDateTime.of(2026, 10, 1, 0, 0), LocalDateTime.of(2026, 11, 1, 0, 0)));
+        // A converted legacy table
+        assertThat(LightDataPartitionManager.partition("light_data_legacy",
+                "FOR VALUES FROM (MINVALUE) TO ('2024-03-01 00:00:00')"))
+                .isEqualTo(new Partition("light_data_legacy", null, LocalDateTime.of(2024, 3, 1, 0, 0)));
+        assertThat(LightDataPartitionManager.partition("x", "FOR VALUES FROM ('2024-03-01 12:30:00.5') TO (MAXVALUE)"))
+                .isEqualTo(new Partition("x", LocalDateTime.of(2024, 3, 1, 12, 30, 0, 500_000_000), null));
+        assertThat(LightDataPartitionManager.partition("light_data_default", "DEFAULT")).isNull();
+    }
+
+    @Test
+    void overlapTreatsBoundsAsHalfOpen() {
+        LocalDateTime feb = LocalDateTime.of(2024, 2, 1, 0, 0);
+        LocalDateTime mar = LocalDateTime.of(2024, 3, 1, 0, 0);
+        LocalDateTime apr = LocalDateTime.of(2024, 4, 1, 0, 0);
+        Partition february = new Partition("p", feb, mar);
+
+        assertThat(february.overlaps(feb, mar)).isTrue();
+        assertThat(february.overlaps(mar, apr)).isFalse();
+        assertThat(february.overlaps(feb.minusMonths(1), feb)).isFalse();
+        assertThat(february.overlaps(feb.plusDays(3), feb.plusDays(4))).isTrue();
+        assertThat(february.overlaps(feb.minusDays(1), apr)).isTrue();
+
+        // MINVALUE / MAXVALUE
+        assertThat(new Partition("legacy", null, mar).overlaps(LocalDateTime.of(1970, 1, 1, 0, 0), feb)).isTrue();
+        assertThat(new Partition("legacy", null, mar).overlaps(mar, apr)).isFalse();
+        assertThat(new Partition("open", mar, null).overlaps(LocalDateTime.of(2999, 1, 1, 0, 0),
+                LocalDateTime.of(2999, 2, 1, 0, 0))).isTrue();
+    }
+
+    @Test
+    void legacyIndexesAreRenamedOnceAndOutOfTheParentsWay() {
+        assertThat(LightDataPartitionManager.legacyIndexName("light_data_pkey")).isEqualTo("light_data_legacy_pkey");
+        assertThat(LightDataPartitionManager.legacyIndexName("idx_light_data_timestamp_id"))
+                .isEqualTo("idx_light_data_legacy_timestamp_id");
+        // Hibernate-generated names do not mention the table
+        assertThat(LightDataPartitionManager.legacyIndexName("idx4f2a9c")).isEqualTo("idx4f2a9c_legacy");
+
+        // Already renamed: left alone, so a retried conversion is a no-op
+        assertThat(LightDataPartitionManager.legacyIndexName("light_data_legacy_pkey")).isNull();
+        assertThat(LightDataPartitionManager.legacyIndexName("idx_light_data_legacy_timestamp_id")).isNull();
+
+        String renamed = LightDataPartitionManager.legacyIndexName("idx_light_data_" + "x".repeat(60));
+        assertThat(renamed).hasSize(63).startsWith("idx_light_data_legacy_");
+    }
+}
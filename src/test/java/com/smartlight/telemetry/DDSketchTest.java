@@ -0,0 +1,116 @@
+package com.smartlight.telemetry;
+
+import org.assertj.core.data.Offset;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DDSketchTest {
+
+    private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999, 1};
+
+    @Test
+    void quantilesAreWithinTheRelativeAccuracy() {
+        Random random = new Random(3);
+        assertWithinBound(50_000, () -> 110 + random.nextGaussian() * 5);
+        // Long tail over several orders of magnitude
+        assertWithinBound(50_000, () -> Math.exp(random.nextGaussian() * 3));
+        assertWithinBound(50_000, () -> random.nextDouble() * 3000);
+        assertWithinBound(7, () -> 1 + random.nextInt(5));
+        assertWithinBound(1, () -> 0.512);
+    }
+
+    @Test
+    void offReadingsCountAsZero() {
+        DDSketch sketch = new DDSketch();
+        for (int i = 0; i < 60; i++) {
+            sketch.add(0);
+        }
+        sketch.add(-1);
+        sketch.add(Double.NaN);
+        for (int i = 0; i < 38; i++) {
+            sketch.add(100);
+        }
+
+        assertThat(sketch.getCount()).isEqualTo(100);
+        assertThat(sketch.getValueAtQuantile(0.5)).isZero();
+        // Ranks 0 to 61 are the 62 zeros
+        assertThat(sketch.getValueAtQuantile(0.62)).isZero();
+        assertThat(sketch.getValueAtQuantile(0.63)).isCloseTo(100, withinRelative(100));
+    }
+
+    @Test
+    void mergingEqualsSketchingEverything() {
+        Random random = new Random(9);
+        DDSketch all = new DDSketch();
+        DDSketch merged = new DDSketch();
+        for (int part = 0; part < 24; part++) {
+            DDSketch hour = new DDSketch();
+            // Parts cover different ranges, so merging has to grow the bins both ways
+            double scale = Math.pow(10, part % 5 - 2);
+            for (int i = 0; i < 1000; i++) {
+                double value = random.nextInt(10) == 0 ? 0 : random.nextDouble() * scale;
+                hour.add(value);
+                all.add(value);
+            }
+            merged.merge(DDSketch.fromBytes(hour.toBytes()));
+        }
+        merged.merge(new DDSketch());
+
+        assertThat(merged.getCount()).isEqualTo(all.getCount());
+        assertThat(merged.toBytes()).isEqualTo(all.toBytes());
+        for (double q : QUANTILES) {
+            assertThat(merged.getValueAtQuantile(q)).isEqualTo(all.getValueAtQuantile(q));
+        }
+    }
+
+    @Test
+    void serializationRoundTrips() {
+        DDSketch sketch = new DDSketch();
+        for (double value : new double[]{0, 1e-3, 0.5, 110, 2500, 1e6}) {
+            sketch.add(value);
+        }
+
+        DDSketch copy = DDSketch.fromBytes(sketch.toBytes());
+
+        assertThat(copy.getCount()).isEqualTo(6);
+        for (double q : QUANTILES) {
+            assertThat(copy.getValueAtQuantile(q)).isEqualTo(sketch.getValueAtQuantile(q));
+        }
+        assertThat(DDSketch.fromBytes(new DDSketch().toBytes()).getCount()).isZero();
+    }
+
+    @Test
+    void emptySketchAndOutOfRangeQuantiles() {
+        DDSketch sketch = new DDSketch();
+        assertThat(sketch.getValueAtQuantile(0.5)).isNaN();
+
+        sketch.add(10);
+        sketch.add(1000);
+        assertThat(sketch.getValueAtQuantile(-1)).isCloseTo(10, withinRelative(10));
+        assertThat(sketch.getValueAtQuantile(2)).isCloseTo(1000, withinRelative(1000));
+    }
+
+    private static void assertWithinBound(int n, DoubleSupplier values) {
+        DDSketch sketch = new DDSketch();
+        double[] exact = new double[n];
+        for (int i = 0; i < n; i++) {
+            exact[i] = Math.max(1e-3, values.getAsDouble());
+            sketch.add(exact[i]);
+        }
+        Arrays.sort(exact);
+        for (double q : QUANTILES) {
+            double expected = exact[(int) Math.floor(q * (n - 1))];
+            assertThat(sketch.getValueAtQuantile(q)).as("q=%s of %d", q, n)
+                    .isCloseTo(expected, withinRelative(expected));
+        }
+    }
+
+    private static Offset<Double> withinRelative(double expected) {
+        return Offset.offset(expected * DDSketch.RELATIVE_ACCURACY * (1 + 1e-9));
+    }
+}
@@ -0,0 +1,66 @@
+package com.smartlight.telemetry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class DevicePartitionerTest {
+
+    private static final List<String> NODES = List.of("a", "b", "c", "d");
+
+    @Test
+    void ownersAreSpreadAndOnlyTheDepartingNodesDevicesMove() {
+        Map<String, String> owners = new HashMap<>();
+        Map<String, Integer> load = new HashMap<>();
+        for (int i = 0; i < 4000; i++) {
+            String deviceKey = "/light/" + i;
+            String owner = DevicePartitioner.ownerOf(deviceKey, NODES);
+            owners.put(deviceKey, owner);
+            load.merge(owner, 1, Integer::sum);
+        }
+        assertThat(load).containsOnlyKeys(NODES);
+        assertThat(load.values()).allSatisfy(devices -> assertThat(devices).isBetween(850, 1150));
+
+        List<String> withoutC = List.of("a", "b", "d");
+        owners.forEach((deviceKey, owner) -> {
+            String next = DevicePartitioner.ownerOf(deviceKey, withoutC);
+            if (!owner.equals("c")) {
+                assertThat(next).as(deviceKey).isEqualTo(owner);
+            }
+        });
+        // Order of the live list does not matter
+        assertThat(DevicePartitioner.ownerOf("/light/7", List.of("d", "c", "b", "a")))
+                .isEqualTo(DevicePartitioner.ownerOf("/light/7", NODES));
+        assertThat(DevicePartitioner.ownerOf("/light/7", List.of())).isNull();
+    }
+
+    @Test
+    void withoutClusterModeEveryDeviceIsOwned() {
+        IngestionMembership membership = mock(IngestionMembership.class);
+        DevicePartitioner partitioner = new DevicePartitioner(false, membership, mock(DeviceDirectory.class),
+                5000, 15000, 10000);
+        partitioner.start();
+        partitioner.stop();
+
+        assertThat(partitioner.owns("/light")).isTrue();
+        assertThat(partitioner.owns("/light/anything")).isTrue();
+        verifyNoInteractions(membership);
+    }
+
+    @Test
+    void timingsMustLetAPreviousOwnerLetGo() {
+        assertThatThrownBy(() -> new DevicePartitioner(true, mock(IngestionMembership.class),
+                mock(DeviceDirectory.class), 5000, 5000, 10000))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new DevicePartitioner(true, mock(IngestionMembership.class),
+                mock(DeviceDirectory.class), 5000, 15000, 1000))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,85 @@
+package com.smartlight.telemetry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LttbTest {
+
+    @Test
+    void keepsBothEndpointsAndAtMostThresholdPoints() {
+        Random random = new Random(5);
+        for (int run = 0; run < 2000; run++) {
+            int n = random.nextInt(400);
+            int threshold = 3 + random.nextInt(300);
+            long[] x = new long[n];
+            double[] y = new double[n];
+            long t = random.nextInt(1000);
+            for (int i = 0; i < n; i++) {
+                // Irregular spacing, repeated timestamps allowed
+                t += random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(5000);
+                x[i] = t;
+                y[i] = random.nextGaussian() * 100;
+            }
+
+            int[] selected = Lttb.select(x, y, threshold);
+
+            assertThat(selected.length).as("n=%d threshold=%d", n, threshold).isEqualTo(Math.min(n, threshold));
+            if (n > 0) {
+                assertThat(selected[0]).isZero();
+                assertThat(selected[selected.length - 1]).isEqualTo(n - 1);
+            }
+            for (int i = 1; i < selected.length; i++) {
+                assertThat(selected[i]).as("n=%d threshold=%d", n, threshold).isGreaterThan(selected[i - 1]);
+            }
+        }
+    }
+
+    @Test
+    void oneIndexFromEachBucket() {
+        int n = 1002;
+        int threshold = 12;
+        long[] x = new long[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i * 1000L;
+            y[i] = Math.sin(i / 20.0);
+        }
+
+        int[] selected = Lttb.select(x, y, threshold);
+
+        // 1000 inner points in 10 buckets of 100
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            assertThat(selected[bucket + 1]).isBetween(1 + bucket * 100, bucket * 100 + 100);
+        }
+    }
+
+    @Test
+    void keepsASpikeThatAveragingWouldFlatten() {
+        int n = 10_000;
+        long[] x = new long[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i;
+            y[i] = 110;
+        }
+        y[4321] = 2500;
+        y[7777] = 0;
+
+        int[] selected = Lttb.select(x, y, 50);
+
+        assertThat(selected).contains(4321, 7777);
+    }
+
+    @Test
+    void belowTheThresholdEveryPointIsKept() {
+        assertThat(Lttb.select(new long[]{1, 2, 3}, new double[]{1, 5, 1}, 3)).containsExactly(0, 1, 2);
+        assertThat(Lttb.select(new long[]{1, 2}, new double[]{1, 5}, 500)).containsExactly(0, 1);
+        assertThat(Lttb.select(new long[0], new double[0], 3)).isEmpty();
+        assertThatThrownBy(() -> Lttb.select(new long[]{1, 2, 3}, new double[]{1, 2, 3}, 2))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
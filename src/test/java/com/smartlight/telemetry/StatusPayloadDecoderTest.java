@@ -0,0 +1,203 @@
+package com.smartlight.telemetry;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StatusPayloadDecoderTest {
+
+    private final StatusPayload payload = new StatusPayload();
+
+    @Test
+    void decodesFullJsonStatus() {
+        assertThat(StatusPayloadDecoder.decode(
+                bytes(" {\"state\" : \"on\", \"current\":0.512,\"power\":112.6,\"source\":\"physical_switch\"} "), payload)).isTrue();
+        assertThat(payload.isFullStatus()).isTrue();
+        assertThat(payload.isHasState()).isTrue();
+        assertThat(payload.getStatus()).isEqualTo("on");
+        assertThat(payload.getCurrent()).isEqualTo(0.512);
+        assertThat(payload.getPower()).isEqualTo(112.6);
+        assertThat(payload.isPhysicalSwitch()).isTrue();
+    }
+
+    @Test
+    void skipsUnknownAndNestedFieldsAndKeepsMissingOnesUnset() {
+        assertThat(StatusPayloadDecoder.decode(
+                bytes("{\"meta\":{\"fw\":\"1.2\",\"x\":[1,{\"y\":2}]},\"state\":\"off\",\"note\":\"a \\\"q\\\"\",\"rssi\":-61}"),
+                payload)).isTrue();
+        assertThat(payload.getStatus()).isEqualTo("off");
+        assertThat(payload.isHasCurrent()).isFalse();
+        assertThat(payload.isHasPower()).isFalse();
+        assertThat(payload.isPhysicalSwitch()).isFalse();
+    }
+
+    @Test
+    void ignoresNumbersThatAreNotFinite() {
+        assertThat(StatusPayloadDecoder.decode(bytes("{\"current\":1e400,\"power\":abc}"), payload)).isTrue();
+        assertThat(payload.isHasCurrent()).isFalse();
+        assertThat(payload.isHasPower()).isFalse();
+    }
+
+    @Test
+    void decodesBareStateAndRejectsAnythingElse() {
+        assertThat(StatusPayloadDecoder.decode(bytes("on\n"), payload)).isTrue();
+        assertThat(payload.isFullStatus()).isFalse();
+        assertThat(payload.getStatus()).isEqualTo("on");
+        assertThat(StatusPayloadDecoder.decode(bytes("onn"), payload)).isFalse();
+        assertThat(StatusPayloadDecoder.decode(bytes(""), payload)).isFalse();
+        assertThat(StatusPayloadDecoder.decode(bytes("{\"state\":\"on\""), payload)).isTrue();
+        assertThat(StatusPayloadDecoder.decode(bytes("{\"state\" \"on\"}"), payload)).isFalse();
+    }
+
+    @Test
+    void fastPathBoundariesMatchDoubleParseDouble() {
+        String[] values = {
+                "0", "-0", "+0", "0.0", "-0.0", "1", "-1", "112.6", "0.512", ".5", "5.", "00012.5000",
+                // 2^53 and its neighbours: the last mantissa the fast path may take, then the fallback
+                "9007199254740991", "9007199254740992", "9007199254740993", "900719925474099.3", "9007199254740993e-5",
+                // Exact powers of ten end at 1e22
+                "1e22", "1e23", "1e-22", "1e-23", "4.5e22", "123456789e14", "1E5", "1e+5", "2.5E-3",
+                // More digits than the mantissa holds
+                "123456789012345678", "1234567890123456789", "12345678901234567890123", "0.1234567890123456789",
+                "112.60000000000000142", "1.00000000000000000000000000001", "99999999999999999999e-20",
+                "0.000000000000000000000000000000000001", "1000000000000000000000000000000",
+                // Subnormals and underflow
+                "4.9e-324", "2.2250738585072014e-308", "1e-400",
+                "1.7976931348623157e308",
+        };
+        for (String value : values) {
+            assertThat(parse(value)).as(value).isEqualTo(Double.parseDouble(value));
+            assertThat(Double.doubleToRawLongBits(parse(value))).as(value)
+                    .isEqualTo(Double.doubleToRawLongBits(Double.parseDouble(value)));
+        }
+    }
+
+    @Test
+    void nonFiniteAndMalformedNumbersAreNaN() {
+        for (String value : new String[]{"1e400", "-1e400", "1.8e308", "NaN", "Infinity", "", " ", "-", ".", "e5",
+                "1e", "1e+", "1.2.3", "12a", "0x10", "1_000", "1.5d", "--1"}) {
+            assertThat(parse(value)).as(value).isNaN();
+        }
+    }
+
+    @Test
+    void wholePayloadIsTrimmed() {
+        assertThat(StatusPayloadDecoder.parseDouble(bytes(" \t112.6\r\n"))).isEqualTo(112.6);
+        assertThat(StatusPayloadDecoder.parseDouble(bytes("112 .6"))).isNaN();
+    }
+
+    @Test
+    void randomNumbersMatchDoubleParseDouble() {
+        Random random = new Random(2024);
+        for (int i = 0; i < 200_000; i++) {
+            String value = switch (i % 4) {
+                // Shortest representation of an arbitrary double
+                case 0 -> Double.toString(Double.longBitsToDouble(random.nextLong() & 0x7fef_ffff_ffff_ffffL));
+                // Sensor-like readings with a few decimals
+                case 1 -> String.format(Locale.ROOT, "%.3f", random.nextDouble() * 3000);
+                // Random digit strings with a decimal point and an exponent
+                case 2 -> randomDecimal(random, 1 + random.nextInt(25), true);
+                default -> randomDecimal(random, 1 + random.nextInt(17), false);
+            };
+            double expected = Double.parseDouble(value);
+            double actual = parse(value);
+            if (Double.isFinite(expected)) {
+                assertThat(Double.doubleToRawLongBits(actual)).as(value).isEqualTo(Double.doubleToRawLongBits(expected));
+            } else {
+                assertThat(actual).as(value).isNaN();
+            }
+        }
+    }
+
+    @Test
+    void binaryFrameRoundTrips() {
+        byte[] frame = StatusPayloadDecoder.encodeBinary(true, true, 0.512f, 112.6f);
+        assertThat(frame).hasSize(StatusPayloadDecoder.BINARY_FRAME_BYTES)
+                .startsWith(StatusPayloadDecoder.BINARY_MAGIC, (byte) 0x0F)
+                // 0.512f big-endian
+                .containsSequence(0x3F, 0x03, 0x12, 0x6F);
+
+        assertThat(StatusPayloadDecoder.decodeBinary(frame, payload)).isTrue();
+        assertThat(payload.isFullStatus()).isTrue();
+        assertThat(payload.getStatus()).isEqualTo("on");
+        assertThat(payload.isPhysicalSwitch()).isTrue();
+        assertThat(payload.getCurrent()).isEqualTo((double) 0.512f);
+        assertThat(payload.getPower()).isEqualTo((double) 112.6f);
+
+        assertThat(StatusPayloadDecoder.decodeBinary(StatusPayloadDecoder.encodeBinary(false, false, 0f, -0f), payload))
+                .isTrue();
+        assertThat(payload.getStatus()).isEqualTo("off");
+        assertThat(payload.isPhysicalSwitch()).isFalse();
+        assertThat(payload.getPower()).isEqualTo(-0.0);
+    }
+
+    @Test
+    void binaryValuesWithoutTheirFlagAreLeftUnset() {
+        byte[] frame = StatusPayloadDecoder.encodeBinary(true, false, Float.NaN, 5f);
+        frame[1] = (byte) (StatusPayloadDecoder.FLAG_ON | StatusPayloadDecoder.FLAG_HAS_POWER);
+
+        // The NaN is not flagged as present, so it is not rejected either
+        assertThat(StatusPayloadDecoder.decodeBinary(frame, payload)).isTrue();
+        assertThat(payload.isHasCurrent()).isFalse();
+        assertThat(payload.isHasPower()).isTrue();
+        assertThat(payload.getPower()).isEqualTo(5.0);
+    }
+
+    @Test
+    void binaryRejectsNonFiniteValuesAndMalformedFrames() {
+        for (float bad : new float[]{Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY}) {
+            assertThat(StatusPayloadDecoder.decodeBinary(StatusPayloadDecoder.encodeBinary(true, false, bad, 1f), payload))
+                    .as("current %s", bad).isFalse();
+            assertThat(StatusPayloadDecoder.decodeBinary(StatusPayloadDecoder.encodeBinary(true, false, 1f, bad), payload))
+                    .as("power %s", bad).isFalse();
+        }
+        byte[] frame = StatusPayloadDecoder.encodeBinary(true, false, 1f, 1f);
+        assertThat(StatusPayloadDecoder.decodeBinary(Arrays.copyOf(frame, 9), payload)).isFalse();
+        assertThat(StatusPayloadDecoder.decodeBinary(Arrays.copyOf(frame, 11), payload)).isFalse();
+        assertThat(StatusPayloadDecoder.decodeBinary(new byte[0], payload)).isFalse();
+        frame[0] = '{';
+        assertThat(StatusPayloadDecoder.decodeBinary(frame, payload)).isFalse();
+        // A rejected frame leaves nothing behind from an earlier one
+        assertThat(payload.isHasState()).isFalse();
+        assertThat(payload.isHasCurrent()).isFalse();
+    }
+
+    @Test
+    void binaryTopicsShareTheDeviceKey() {
+        assertThat(TelemetryTopics.deviceKey("/light/status/bin")).isEqualTo("/light");
+        assertThat(TelemetryTopics.deviceKey("/light/7/status/bin")).isEqualTo("/light/7");
+        assertThat(TelemetryTopics.deviceKey("/light/status")).isEqualTo("/light");
+    }
+
+    private static String randomDecimal(Random random, int digits, boolean exponent) {
+        StringBuilder value = new StringBuilder();
+        if (random.nextBoolean()) {
+            value.append('-');
+        }
+        int point = random.nextInt(digits + 1);
+        for (int d = 0; d < digits; d++) {
+            if (d == point) {
+                value.append('.');
+            }
+            value.append((char) ('0' + random.nextInt(10)));
+        }
+        if (exponent) {
+            value.append('e').append(random.nextInt(700) - 350);
+        }
+        return value.toString();
+    }
+
+    private static double parse(String value) {
+        byte[] bytes = bytes(value);
+        return StatusPayloadDecoder.parseDouble(bytes, 0, bytes.length);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
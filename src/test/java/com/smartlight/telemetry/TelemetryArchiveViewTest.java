@@ -0,0 +1,102 @@
+package com.smartlight.telemetry;
+
+import com.smartlight.entity.LightData;
+import com.smartlight.storage.ArchiveSegment;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TelemetryArchiveViewTest {
+
+    private static final long START = RecentReadingsStore.toMillis(LocalDateTime.of(2024, 1, 1, 0, 0));
+
+    @TempDir
+    Path directory;
+
+    private final List<long[]> all = new ArrayList<>(); // {timestamp, id}
+
+    @Test
+    void pagesWalkOverlappingSegmentsNewestFirstWithoutGapsOrRepeats() throws IOException {
+        // A month archived whole, then late rows re-homed into a segment overlapping its second half
+        ArchiveSegment month = segment("month", 4, 3000, START, 1, 1000);
+        ArchiveSegment late = segment("late", 2, 1500, START + 1_500_000, 1_000_000, 777);
+        TelemetryArchive.View view = new TelemetryArchive.View(List.of(month, late));
+        all.sort(Comparator.<long[]>comparingLong(r -> r[0]).thenComparingLong(r -> r[1]).reversed());
+
+        for (int limit : new int[]{1, 50, 1000}) {
+            List<long[]> paged = new ArrayList<>();
+            LocalDateTime cursorTimestamp = null;
+            Long cursorId = null;
+            while (true) {
+                List<LightData> page = view.findPageBefore(null, null, cursorTimestamp, cursorId, limit);
+                page.forEach(row -> paged.add(new long[]{RecentReadingsStore.toMillis(row.getTimestamp()), row.getId()}));
+                if (page.size() < limit || (limit == 1 && paged.size() > 300)) {
+                    break;
+                }
+                cursorTimestamp = page.get(page.size() - 1).getTimestamp();
+                cursorId = page.get(page.size() - 1).getId();
+            }
+            List<long[]> expected = limit == 1 ? all.subList(0, paged.size()) : all;
+            assertThat(paged).hasSameSizeAs(expected);
+            for (int i = 0; i < paged.size(); i++) {
+                assertThat(paged.get(i)).containsExactly(expected.get(i));
+            }
+        }
+    }
+
+    @Test
+    void rangedPageStopsAtTheWindow() throws IOException {
+        ArchiveSegment month = segment("month", 3, 4000, START, 1, 1000);
+        TelemetryArchive.View view = new TelemetryArchive.View(List.of(month));
+        LocalDateTime from = RecentReadingsStore.toLocalDateTime(START + 1_000_000);
+        LocalDateTime to = RecentReadingsStore.toLocalDateTime(START + 1_100_000);
+
+        List<LightData> page = view.findPageBefore(from, to, null, null, 1000);
+
+        long expected = all.stream().filter(r -> r[0] >= START + 1_000_000 && r[0] <= START + 1_100_000).count();
+        assertThat(page).hasSize((int) expected);
+        assertThat(page).allSatisfy(row -> assertThat(row.getTimestamp()).isBetween(from, to));
+    }
+
+    @Test
+    void lowerBoundComesFromTheNewestBlocksOnly() throws IOException {
+        // 2 devices x 5000 rows, one per second: blocks of 1024 rows, ~17 minutes each
+        ArchiveSegment month = segment("month", 2, 5000, START, 1, 1000);
+        long bound = TelemetryArchive.pageLowerBound(List.of(month), Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, 100);
+
+        // The last block of each series may hold only a few rows; the bound stays within two blocks
+        assertThat(bound).isGreaterThan(START + (5000 - 2 * 1024) * 1000L);
+        assertThat(all.stream().filter(r -> r[0] >= bound).count()).isGreaterThanOrEqualTo(100);
+        assertThat(TelemetryArchive.pageLowerBound(List.of(month), START, Long.MAX_VALUE, Long.MAX_VALUE, 100_000))
+                .isEqualTo(START);
+    }
+
+    private ArchiveSegment segment(String name, int devices, int perDevice, long start, long firstId, long stepMs)
+            throws IOException {
+        Random random = new Random(name.hashCode());
+        List<ArchiveSegment.SeriesWriter> series = new ArrayList<>();
+        for (int d = 0; d < devices; d++) {
+            ArchiveSegment.SeriesWriter writer = new ArchiveSegment.SeriesWriter("/light/" + d);
+            for (int i = 0; i < perDevice; i++) {
+                // Devices share timestamps now and then, so ties are broken by id
+                long timestamp = start + i * stepMs + (random.nextInt(4) == 0 ? 0 : random.nextInt(3));
+                long id = firstId + (long) i * devices + d;
+                writer.add(id, timestamp, i % 2 == 0, 0.5, 110.0);
+                all.add(new long[]{timestamp, id});
+            }
+            series.add(writer);
+        }
+        Path file = directory.resolve(name + ".seg");
+        ArchiveSegment.write(file, series);
+        return ArchiveSegment.open(file);
+    }
+}
@@ -0,0 +1,119 @@
+package com.smartlight.telemetry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TelemetryIngestionQueueTest {
+
+    @Test
+    void dropOldestKeepsTheNewestReadings() throws InterruptedException {
+        TelemetryIngestionQueue queue = queue(3, "DROP_OLDEST", 100);
+        for (int i = 1; i <= 5; i++) {
+            assertThat(queue.offer(reading(i))).isTrue();
+        }
+
+        assertThat(drain(queue, 10)).containsExactly(3.0, 4.0, 5.0);
+        assertThat(queue.getMetrics()).containsEntry("dropped", 2L).containsEntry("highWatermark", 3);
+    }
+
+    @Test
+    void blockWaitsForSpaceThenDropsTheNewReading() throws Exception {
+        TelemetryIngestionQueue queue = queue(2, "BLOCK", 50);
+        queue.offer(reading(1));
+        queue.offer(reading(2));
+
+        long started = System.nanoTime();
+        assertThat(queue.offer(reading(3))).isFalse();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isGreaterThanOrEqualTo(45);
+
+        TelemetryIngestionQueue waiting = queue(1, "BLOCK", 5000);
+        waiting.offer(reading(1));
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> waiting.offer(reading(2)));
+        Thread.sleep(100);
+        assertThat(blocked).isNotDone();
+        assertThat(drain(waiting, 1)).containsExactly(1.0);
+        assertThat(blocked.get(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(drain(waiting, 1)).containsExactly(2.0);
+    }
+
+    @Test
+    void overflowBufferKeepsArrivalOrderUntilItIsFull() throws InterruptedException {
+        // Ring of 2 plus an overflow buffer of 3
+        TelemetryIngestionQueue queue = queue(2, "OVERFLOW_BUFFER", 100);
+        for (int i = 1; i <= 6; i++) {
+            assertThat(queue.offer(reading(i))).isEqualTo(i <= 5);
+        }
+        assertThat(queue.getDepth()).isEqualTo(5);
+
+        // The ring is empty again, but new readings still queue behind the overflow
+        assertThat(drain(queue, 4)).containsExactly(1.0, 2.0, 3.0, 4.0);
+        queue.offer(reading(7));
+        assertThat(drain(queue, 10)).containsExactly(5.0, 7.0);
+        assertThat(queue.getMetrics()).containsEntry("dropped", 1L).containsEntry("overflowed", 4L);
+    }
+
+    @Test
+    void drainWaitsForTheFirstReading() throws Exception {
+        TelemetryIngestionQueue queue = queue(4, "DROP_OLDEST", 100);
+        List<TelemetryReading> sink = new ArrayList<>();
+        assertThat(queue.drainTo(sink, 10, 20)).isZero();
+
+        CompletableFuture.runAsync(() -> {
+            sleep(50);
+            queue.offer(reading(7));
+        });
+        assertThat(queue.drainTo(sink, 10, 5000)).isEqualTo(1);
+        assertThat(sink.get(0).current()).isEqualTo(7.0);
+    }
+
+    @Test
+    void wrapsAroundTheRing() throws InterruptedException {
+        TelemetryIngestionQueue queue = queue(3, "DROP_OLDEST", 100);
+        List<Double> drained = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            queue.offer(reading(i));
+            if (i % 2 == 0) {
+                drained.addAll(drain(queue, 2));
+            }
+        }
+        assertThat(drained).containsExactly(1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0, 10.0);
+        assertThat(queue.getDepth()).isZero();
+    }
+
+    @Test
+    void acceptsTheFormerSpillPolicyNameAndRejectsAnEmptyRing() {
+        assertThat(queue(1, "spill", 100).getMetrics()).containsEntry("overflowPolicy", "OVERFLOW_BUFFER");
+        assertThatThrownBy(() -> queue(0, "BLOCK", 100)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static TelemetryIngestionQueue queue(int capacity, String policy, long blockTimeoutMs) {
+        return new TelemetryIngestionQueue(capacity, policy, blockTimeoutMs, 3, new SimpleMeterRegistry());
+    }
+
+    private static TelemetryReading reading(int n) {
+        return new TelemetryReading("/light", "on", n, n * 100.0, LocalDateTime.now(), false, true);
+    }
+
+    private static List<Double> drain(TelemetryIngestionQueue queue, int max) throws InterruptedException {
+        List<TelemetryReading> sink = new ArrayList<>();
+        queue.drainTo(sink, max, 0);
+        return sink.stream().map(TelemetryReading::current).toList();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.smartlight.telemetry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TelemetryRateLimiterTest {
+
+    // One message every ~17 minutes: nothing refills while a test runs
+    private static final double SLOW = 0.001;
+
+    @Test
+    void allowsTheBurstThenDrops() {
+        TelemetryRateLimiter limiter = limiter(SLOW, 3, 100);
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire("/light")).isTrue();
+        }
+        assertThat(limiter.tryAcquire("/light")).isFalse();
+        assertThat(limiter.tryAcquire("/light")).isFalse();
+
+        assertThat(limiter.getDropped("/light")).isEqualTo(2);
+        assertThat(limiter.getDropped("/other")).isZero();
+        assertThat(limiter.getMetrics()).containsEntry("dropped", 2L)
+                .containsEntry("limitedDevices", Map.of("/light", Map.of("allowed", 3L, "dropped", 2L)));
+    }
+
+    @Test
+    void devicesHaveTheirOwnBuckets() {
+        TelemetryRateLimiter limiter = limiter(SLOW, 1, 100);
+        assertThat(limiter.tryAcquire("/a")).isTrue();
+        assertThat(limiter.tryAcquire("/a")).isFalse();
+        assertThat(limiter.tryAcquire("/b")).isTrue();
+        assertThat(limiter.getTotalDropped()).isEqualTo(1);
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() throws InterruptedException {
+        // One message every 20 ms; pairs are taken back to back, then checked
+        TelemetryRateLimiter limiter = limiter(50, 1, 100);
+        boolean first = limiter.tryAcquire("/light");
+        boolean second = limiter.tryAcquire("/light");
+        assertThat(first).isTrue();
+        assertThat(second).isFalse();
+
+        Thread.sleep(40);
+        boolean refilled = limiter.tryAcquire("/light");
+        // An idle spell does not bank more than the burst
+        boolean banked = limiter.tryAcquire("/light");
+        assertThat(refilled).isTrue();
+        assertThat(banked).isFalse();
+    }
+
+    @Test
+    void concurrentCallersNeverExceedTheBurst() throws InterruptedException {
+        TelemetryRateLimiter limiter = limiter(SLOW, 50, 100);
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    if (limiter.tryAcquire("/light")) {
+                        allowed.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(allowed.get()).isEqualTo(50);
+        assertThat(limiter.getTotalDropped()).isEqualTo(8000 - 50);
+    }
+
+    @Test
+    void devicesBeyondMaxShareTheOverflowBucket() {
+        TelemetryRateLimiter limiter = limiter(SLOW, 1, 2);
+        assertThat(limiter.tryAcquire("/a")).isTrue();
+        assertThat(limiter.tryAcquire("/b")).isTrue();
+
+        // Both tracked buckets are busy, so nothing can be swept
+        assertThat(limiter.tryAcquire("/c")).isTrue();
+        assertThat(limiter.tryAcquire("/d")).isFalse();
+        assertThat(limiter.getMetrics()).containsEntry("devices", 2)
+                .containsEntry("limitedDevices", Map.of("*", Map.of("allowed", 1L, "dropped", 1L)));
+    }
+
+    @Test
+    void idleBucketsAreSweptWithoutLosingTheirDrops() throws InterruptedException {
+        // One message every ms
+        TelemetryRateLimiter limiter = limiter(1000, 1, 1);
+        boolean first = limiter.tryAcquire("/a");
+        boolean second = limiter.tryAcquire("/a");
+        assertThat(first).isTrue();
+        assertThat(second).isFalse();
+
+        Thread.sleep(20);
+        assertThat(limiter.tryAcquire("/b")).isTrue();
+        assertThat(limiter.getDropped("/a")).isZero();
+        assertThat(limiter.getMetrics()).containsEntry("devices", 1).containsEntry("dropped", 1L);
+        assertThat(limiter.getTotalDropped()).isEqualTo(1);
+    }
+
+    @Test
+    void disabledAllowsEverythingAndBadSettingsAreRejected() {
+        TelemetryRateLimiter disabled = new TelemetryRateLimiter(false, SLOW, 1, 100, new SimpleMeterRegistry());
+        for (int i = 0; i < 100; i++) {
+            assertThat(disabled.tryAcquire("/light")).isTrue();
+        }
+        assertThatThrownBy(() -> limiter(0, 1, 100)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> limiter(5, 0, 100)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static TelemetryRateLimiter limiter(double ratePerSecond, int burst, int maxDevices) {
+        return new TelemetryRateLimiter(true, ratePerSecond, burst, maxDevices, new SimpleMeterRegistry());
+    }
+}
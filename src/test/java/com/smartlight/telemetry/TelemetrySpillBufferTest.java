@@ -0,0 +1,180 @@
+package com.smartlight.telemetry;
+
+import com.smartlight.storage.AppendOnlyLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TelemetrySpillBufferTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 12, 0);
+
+    @TempDir
+    Path directory;
+
+    private final List<TelemetrySpillBuffer> opened = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        opened.forEach(TelemetrySpillBuffer::close);
+    }
+
+    @Test
+    void encodingRoundTripsEveryField() {
+        List<TelemetryReading> batch = List.of(
+                new TelemetryReading("/light", "on", 0.512, 112.6, START.plusNanos(123_456_000), true, true),
+                // Rollup-only: counted in rollups and sketches, never written to light_data
+                new TelemetryReading("/light/7", "off", 0.0, 0.0, START.plusSeconds(1), false, false),
+                // Out of order, repeated device, a status outside on/off
+                new TelemetryReading("/light", "fault", -1.5, Double.MAX_VALUE, START.minusDays(400), false, false),
+                new TelemetryReading(null, "on", 1.0, 2.0, LocalDateTime.of(1969, 12, 31, 23, 59, 59, 999_999_000),
+                        true, false),
+                new TelemetryReading("/phòng/đèn", "on", 3.0, 4.0, START, true, true));
+
+        List<TelemetryReading> decoded = TelemetrySpillBuffer.decode(ByteBuffer.wrap(TelemetrySpillBuffer.encode(batch)));
+
+        assertThat(decoded).isEqualTo(batch);
+        assertThat(decoded).extracting(TelemetryReading::stored).containsExactly(true, false, false, false, true);
+    }
+
+    @Test
+    void timestampsKeepMicrosecondsOnly() {
+        TelemetryReading reading = reading(1, START.plusNanos(1_234_567), true);
+
+        TelemetryReading decoded = TelemetrySpillBuffer.decode(
+                ByteBuffer.wrap(TelemetrySpillBuffer.encode(List.of(reading)))).get(0);
+
+        assertThat(decoded.timestamp()).isEqualTo(START.plusNanos(1_234_000));
+    }
+
+    @Test
+    void replaysBatchesInOrderAcrossSegments() {
+        // Small segments: every couple of batches rolls a new one
+        TelemetrySpillBuffer buffer = buffer(300, 1 << 20);
+        List<List<TelemetryReading>> batches = new ArrayList<>();
+        for (int b = 0; b < 10; b++) {
+            List<TelemetryReading> batch = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                batch.add(reading(b * 5 + i, START.plusSeconds(b * 5 + i), i % 2 == 0));
+            }
+            batches.add(batch);
+            assertThat(buffer.append(batch)).isTrue();
+        }
+        assertThat(buffer.hasBacklog()).isTrue();
+        assertThat((int) buffer.getMetrics().get("segments")).isGreaterThan(2);
+
+        for (List<TelemetryReading> expected : batches) {
+            assertThat(buffer.peek()).isEqualTo(expected);
+            // Same batch until it is committed
+            assertThat(buffer.peek()).isEqualTo(expected);
+            buffer.commit();
+        }
+        assertThat(buffer.peek()).isNull();
+        assertThat(buffer.hasBacklog()).isFalse();
+        assertThat(buffer.getBytes()).isZero();
+        assertThat(buffer.getMetrics()).containsEntry("spilled", 50L).containsEntry("replayed", 50L);
+    }
+
+    @Test
+    void restartResumesAfterTheLastCommittedBatch() {
+        TelemetrySpillBuffer buffer = buffer(1 << 20, 1 << 20);
+        for (int b = 0; b < 3; b++) {
+            buffer.append(List.of(reading(b, START.plusSeconds(b), b != 1)));
+        }
+        assertThat(buffer.peek()).extracting(TelemetryReading::current).containsExactly(0.0);
+        buffer.commit();
+        buffer.close();
+
+        TelemetrySpillBuffer restarted = buffer(1 << 20, 1 << 20);
+        assertThat(restarted.hasBacklog()).isTrue();
+        List<TelemetryReading> next = restarted.peek();
+        assertThat(next).containsExactly(reading(1, START.plusSeconds(1), false));
+        restarted.commit();
+        assertThat(restarted.peek()).containsExactly(reading(2, START.plusSeconds(2), true));
+        restarted.commit();
+        assertThat(restarted.peek()).isNull();
+    }
+
+    @Test
+    void skipDropsTheRowsAlreadyWritten() {
+        TelemetrySpillBuffer buffer = buffer(1 << 20, 1 << 20);
+        List<TelemetryReading> batch = List.of(reading(0, START, true), reading(1, START, false), reading(2, START, true));
+        buffer.append(batch);
+
+        assertThat(buffer.peek()).hasSize(3);
+        buffer.skip(2);
+        assertThat(buffer.peek()).containsExactly(batch.get(2));
+        buffer.commit();
+        assertThat(buffer.getMetrics()).containsEntry("replayed", 3L);
+    }
+
+    @Test
+    void rejectsBatchesOnceFull() {
+        TelemetrySpillBuffer buffer = buffer(1 << 20, 100);
+        List<TelemetryReading> batch = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            batch.add(reading(i, START, true));
+        }
+        // The limit is checked before appending, so the batch crossing it still goes in
+        assertThat(buffer.append(batch)).isTrue();
+        assertThat(buffer.getBytes()).isGreaterThanOrEqualTo(100);
+        assertThat(buffer.append(List.of(reading(6, START, true)))).isFalse();
+        assertThat(buffer.getMetrics()).containsEntry("spilled", 6L).containsEntry("rejected", 1L);
+
+        TelemetrySpillBuffer disabled = new TelemetrySpillBuffer(false, directory.resolve("off").toString(),
+                1 << 20, 1 << 20, new SimpleMeterRegistry());
+        assertThat(disabled.append(List.of(reading(0, START, true)))).isFalse();
+        assertThat(disabled.peek()).isNull();
+    }
+
+    @Test
+    void unreadableSegmentIsMovedAside() throws IOException {
+        try (AppendOnlyLog segment = new AppendOnlyLog(directory.resolve("spill-000000000001.log"))) {
+            // Unknown format version
+            segment.append(new byte[]{99, 1, 2, 3});
+        }
+        TelemetrySpillBuffer buffer = buffer(1 << 20, 1 << 20);
+        buffer.append(List.of(reading(5, START, true)));
+
+        assertThat(buffer.peek()).containsExactly(reading(5, START, true));
+        assertThat(directory.resolve("spill-000000000001.log.corrupt")).exists();
+        assertThat(directory.resolve("spill-000000000001.log")).doesNotExist();
+    }
+
+    @Test
+    void deadLettersAreAppendedAsJsonLines() throws IOException {
+        TelemetrySpillBuffer buffer = buffer(1 << 20, 1 << 20);
+        buffer.deadLetter(List.of(reading(1, START, false)), "value too long");
+        buffer.deadLetter(List.of(reading(2, START, true)), "check \"constraint\"");
+
+        List<String> lines = Files.readAllLines(directory.resolve("dead-letter.ndjson"));
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).startsWith("{\"deviceKey\":\"/light\",\"status\":\"on\",\"current\":1.0")
+                .contains("\"stored\":false", "\"reason\":\"value too long\"");
+        assertThat(lines.get(1)).contains("\"stored\":true", "\"reason\":\"check \\\"constraint\\\"\"");
+        assertThat(buffer.getMetrics()).containsEntry("deadLettered", 2L);
+    }
+
+    private TelemetrySpillBuffer buffer(long segmentBytes, long maxBytes) {
+        TelemetrySpillBuffer buffer = new TelemetrySpillBuffer(true, directory.toString(), segmentBytes, maxBytes,
+                new SimpleMeterRegistry());
+        buffer.open();
+        opened.add(buffer);
+        return buffer;
+    }
+
+    private static TelemetryReading reading(int n, LocalDateTime timestamp, boolean stored) {
+        return new TelemetryReading("/light", "on", n, n * 100.0, timestamp, false, stored);
+    }
+}